@@ -0,0 +1,89 @@
+package jmace.LeaderElection.messages;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import jmace.LeaderElection.messages.codec.BinaryMessageCodec;
+import jmace.LeaderElection.messages.codec.GsonMessageCodec;
+import jmace.LeaderElection.messages.codec.MessageCodec;
+import jmace.LeaderElection.messages.codec.NodeIdCodecs;
+import jmace.LeaderElection.network.BenchmarkNodes;
+
+/**
+ * Wire encoding of a full network broadcast and of a heartbeat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestSerializationBenchmark
+{
+	@Param({"5", "100", "1000", "10000"})
+	public int clusterSize;
+
+	@Param({"gson", "binary"})
+	public String codecName;
+
+	private MessageCodec<String> codec;
+	private Request<String> network;
+	private Request<String> heartbeat;
+	private byte[] encodedNetwork;
+	private byte[] encodedHeartbeat;
+
+	@Setup
+	public void setUp()
+	{
+		codec = "gson".equals(codecName) ? new GsonMessageCodec<>(String.class) : new BinaryMessageCodec<>(NodeIdCodecs.STRING);
+		SortedMap<String, Long> members = new TreeMap<>();
+		long incarnation = System.currentTimeMillis();
+		for (String id : BenchmarkNodes.ids(clusterSize))
+		{
+			members.put(id, incarnation);
+		}
+		network = new Request<>(members.firstKey(), RequestType.SYNC_NETWORK, members);
+		network.setEpoch(clusterSize * 3);
+		heartbeat = new Request<>(members.firstKey(), RequestType.STILL_ALIVE, Collections.singletonMap(members.firstKey(), incarnation));
+		heartbeat.setEpoch(clusterSize * 3);
+		encodedNetwork = encodeNetwork();
+		encodedHeartbeat = encodeHeartbeat();
+	}
+
+	@Benchmark
+	public byte[] encodeNetwork()
+	{
+		return codec.encode(network);
+	}
+
+	@Benchmark
+	public Request<String> decodeNetwork() throws IOException
+	{
+		return codec.decode(encodedNetwork);
+	}
+
+	@Benchmark
+	public byte[] encodeHeartbeat()
+	{
+		return codec.encode(heartbeat);
+	}
+
+	@Benchmark
+	public Request<String> decodeHeartbeat() throws IOException
+	{
+		return codec.decode(encodedHeartbeat);
+	}
+}
@@ -0,0 +1,31 @@
+package jmace.LeaderElection.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Repeatable node IDs shaped like the ones used by the demo
+ */
+public final class BenchmarkNodes
+{
+	private BenchmarkNodes()
+	{
+	}
+
+	/**
+	 * @param count the number of IDs to create
+	 * @return count distinct UUID strings, the same on every run
+	 */
+	public static List<String> ids(int count)
+	{
+		Random random = new Random(count);
+		List<String> ids = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			ids.add(new UUID(random.nextLong(), random.nextLong()).toString());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,92 @@
+package jmace.LeaderElection.network;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.RequestType;
+import jmace.LeaderElection.messages.codec.MessageCodec;
+import jmace.LeaderElection.messages.codec.MessageCodecs;
+
+/**
+ * Full receive path of RabbitMQNetworkManager, from raw body to updated membership.
+ * The manager is stopped so replies are dropped instead of published; no broker is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleMessageBenchmark
+{
+	@Param({"5", "100", "1000", "10000"})
+	public int clusterSize;
+
+	private RabbitMQNetworkManager<String> head;
+	private RabbitMQNetworkManager<String> node;
+	private byte[] stillAlive;
+	private byte[] pollNodes;
+	private byte[] addToNetwork;
+	private byte[] syncNetwork;
+
+	@Setup
+	public void setUp()
+	{
+		List<String> ids = BenchmarkNodes.ids(clusterSize);
+		TreeSet<String> sorted = new TreeSet<>(ids);
+		head = createManager(sorted.first(), ids);
+		head.pollForNodes();
+		node = createManager(sorted.last(), ids);
+
+		MessageCodec<String> codec = MessageCodecs.forId(sorted.first());
+		stillAlive = codec.encode(new Request<>(sorted.last(), RequestType.STILL_ALIVE, Collections.singletonMap(sorted.last(), 0L)));
+		pollNodes = codec.encode(new Request<>(sorted.first(), RequestType.POLL_NODES));
+		addToNetwork = codec.encode(new Request<>(sorted.last(), RequestType.ADD_TO_NETWORK, Collections.singletonMap(sorted.last(), 0L)));
+		syncNetwork = codec.encode(new Request<>(sorted.first(), RequestType.SYNC_NETWORK, head.getNetwork().getMembers()));
+	}
+
+	private static RabbitMQNetworkManager<String> createManager(String id, List<String> ids)
+	{
+		RabbitMQNetworkManager<String> manager = new RabbitMQNetworkManager<>(id, 3, "localhost", "benchmark");
+		manager.stop();
+		manager.getNetwork().addAllNodes(ids);
+		return manager;
+	}
+
+	@Benchmark
+	public void headReceivesStillAlive()
+	{
+		head.handleDelivery(stillAlive);
+	}
+
+	@Benchmark
+	public void nodeReceivesPoll()
+	{
+		node.handleDelivery(pollNodes);
+	}
+
+	@Benchmark
+	public void headReceivesAdd()
+	{
+		head.handleDelivery(addToNetwork);
+	}
+
+	@Benchmark
+	public void nodeReceivesSync()
+	{
+		node.handleDelivery(syncNetwork);
+	}
+}
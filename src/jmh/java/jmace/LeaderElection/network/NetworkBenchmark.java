@@ -0,0 +1,60 @@
+package jmace.LeaderElection.network;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Membership queries made on every network change and every poll
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkBenchmark
+{
+	@Param({"5", "100", "1000", "10000"})
+	public int clusterSize;
+
+	@Param({"3"})
+	public int numberOfLeaders;
+
+	private Network<String> network;
+
+	@Setup
+	public void setUp()
+	{
+		network = new Network<>();
+		network.addAllNodes(BenchmarkNodes.ids(clusterSize));
+	}
+
+	@Benchmark
+	public Set<String> getNodes()
+	{
+		return network.getNodes();
+	}
+
+	@Benchmark
+	public String getHeadNode()
+	{
+		return network.getHeadNode();
+	}
+
+	@Benchmark
+	public Set<String> getLeaders()
+	{
+		return network.getLeaders(numberOfLeaders);
+	}
+}
@@ -0,0 +1,159 @@
+package jmace.LeaderElection;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jmace.LeaderElection.network.NetworkSnapshot;
+
+/**
+ * Delivers election changes to listeners away from the thread that saw them.
+ * Signalling only schedules a dispatch if none is pending; the dispatch compares the latest state with what
+ * listeners were last told, so any number of changes in between turn into one round of callbacks.
+ */
+class ElectionEventDispatcher<T extends Comparable<T>>
+{
+	private static final Logger LOG = LoggerFactory.getLogger(ElectionEventDispatcher.class);
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+	static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "election-listener-" + THREAD_COUNT.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final List<ElectionListener<T>> listeners;
+	private final Supplier<NetworkSnapshot<T>> snapshot;
+	private final Supplier<Boolean> isHead;
+	private final Supplier<LeaderLease<T>> lease;
+	private final AtomicBoolean scheduled;
+	private final Object dispatchLock;
+	private volatile Executor executor;
+	private NetworkSnapshot<T> deliveredSnapshot;
+	private boolean deliveredHead;
+	private LeaderLease<T> deliveredLease;
+	
+	ElectionEventDispatcher(Executor executor, Supplier<NetworkSnapshot<T>> snapshot, Supplier<Boolean> isHead, Supplier<LeaderLease<T>> lease)
+	{
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.snapshot = snapshot;
+		this.isHead = isHead;
+		this.lease = lease;
+		this.scheduled = new AtomicBoolean(false);
+		this.dispatchLock = new Object();
+		this.executor = executor;
+		this.deliveredSnapshot = NetworkSnapshot.empty();
+		this.deliveredHead = false;
+		this.deliveredLease = null;
+	}
+	
+	void addListener(ElectionListener<T> listener)
+	{
+		listeners.add(listener);
+	}
+	
+	void removeListener(ElectionListener<T> listener)
+	{
+		listeners.remove(listener);
+	}
+	
+	void setExecutor(Executor executor)
+	{
+		this.executor = executor;
+	}
+	
+	/**
+	 * Note that something may have changed. Cheap enough to call on every message.
+	 */
+	void signal()
+	{
+		if (listeners.isEmpty() || !scheduled.compareAndSet(false, true))
+		{
+			return;
+		}
+		try
+		{
+			executor.execute(this::dispatch);
+		}
+		catch (RejectedExecutionException e)
+		{
+			scheduled.set(false);
+			LOG.warn("Listener executor rejected a dispatch", e);
+		}
+	}
+	
+	void dispatch()
+	{
+		synchronized (dispatchLock)
+		{
+			//Cleared first so a change made while listeners run schedules another dispatch
+			scheduled.set(false);
+			NetworkSnapshot<T> currentSnapshot = snapshot.get();
+			boolean currentHead = Boolean.TRUE.equals(isHead.get());
+			LeaderLease<T> currentLease = lease.get();
+			
+			if (currentSnapshot.getVersion() != deliveredSnapshot.getVersion())
+			{
+				MembershipDelta<T> delta = new MembershipDelta<>(deliveredSnapshot, currentSnapshot);
+				//Incarnation changes alone aren't membership changes
+				if (!delta.isEmpty())
+				{
+					notify(l -> l.onMembershipChanged(delta));
+				}
+			}
+			deliveredSnapshot = currentSnapshot;
+			
+			boolean leaseChanged = !sameLease(deliveredLease, currentLease);
+			if (leaseChanged && deliveredLease != null)
+			{
+				notify(l -> l.onLostLeadership());
+			}
+			if (deliveredHead && !currentHead)
+			{
+				notify(l -> l.onLostHead());
+			}
+			else if (!deliveredHead && currentHead)
+			{
+				notify(l -> l.onBecameHead());
+			}
+			deliveredHead = currentHead;
+			if (leaseChanged && currentLease != null)
+			{
+				notify(l -> l.onBecameLeader(currentLease));
+			}
+			deliveredLease = currentLease;
+		}
+	}
+	
+	private static boolean sameLease(LeaderLease<?> a, LeaderLease<?> b)
+	{
+		if (a == null || b == null)
+		{
+			return a == b;
+		}
+		return a.getFencingToken() == b.getFencingToken();
+	}
+	
+	private void notify(Consumer<ElectionListener<T>> callback)
+	{
+		for (ElectionListener<T> listener : listeners)
+		{
+			try
+			{
+				callback.accept(listener);
+			}
+			catch (Exception e)
+			{
+				LOG.warn("Election listener {} failed", listener, e);
+			}
+		}
+	}
+}
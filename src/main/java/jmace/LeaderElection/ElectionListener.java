@@ -0,0 +1,39 @@
+package jmace.LeaderElection;
+
+/**
+ * Callbacks for changes in an election, see {@link LeaderElection#addListener(ElectionListener)}.
+ * Called one at a time on the election's listener executor, never on the thread receiving messages,
+ * so a slow callback delays later callbacks but not the election itself.
+ * Changes that happen while a callback runs are coalesced, so a listener sees the latest state rather than every step.
+ */
+public interface ElectionListener<T extends Comparable<T>>
+{
+	public default void onBecameHead()
+	{
+	}
+	
+	public default void onLostHead()
+	{
+	}
+	
+	/**
+	 * @param lease the lease to guard the leader's work with
+	 */
+	public default void onBecameLeader(LeaderLease<T> lease)
+	{
+	}
+	
+	/**
+	 * Called when the lease from {@link #onBecameLeader(LeaderLease)} is no longer held
+	 */
+	public default void onLostLeadership()
+	{
+	}
+	
+	/**
+	 * @param delta the nodes that joined and left since the last call
+	 */
+	public default void onMembershipChanged(MembershipDelta<T> delta)
+	{
+	}
+}
@@ -0,0 +1,22 @@
+package jmace.LeaderElection;
+
+/**
+ * How nodes show the election that they are still alive
+ */
+public enum HeartbeatMode
+{
+	/**
+	 * The head polls every node and each one answers, 2N messages a round all handled by the head
+	 */
+	POLL,
+	/**
+	 * Nodes push heartbeats to the head and the head broadcasts one back, N + 1 messages a round without replies
+	 */
+	PUSH,
+	/**
+	 * Each node pushes heartbeats to its successor in the sorted network and watches its predecessor.
+	 * The head publishes its heartbeat once to every node instead, so nodes can compare digests with it.
+	 * Every node, the head included, sends one heartbeat and handles at most two a round however large the network gets.
+	 */
+	RING;
+}
@@ -3,33 +3,110 @@ package jmace.LeaderElection;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jmace.LeaderElection.detector.FailureDetector;
+import jmace.LeaderElection.detector.PhiAccrualFailureDetector;
+import jmace.LeaderElection.metrics.ElectionMetrics;
+import jmace.LeaderElection.metrics.ElectionMetrics.RoleChange;
+import jmace.LeaderElection.network.LeaderSelectionPolicy;
 import jmace.LeaderElection.network.NetworkManager;
+import jmace.LeaderElection.network.NetworkSnapshot;
+import jmace.LeaderElection.network.QuorumTracker;
+import jmace.LeaderElection.store.MembershipStore;
+import jmace.LeaderElection.store.StoredMembership;
+import jmace.LeaderElection.task.EventLoop;
 import jmace.LeaderElection.task.SimpleTimedTask;
+import jmace.LeaderElection.task.SimpleTimedTask.SimpleTimedTaskExecution;
+import jmace.LeaderElection.task.TaskScheduler;
 
 public class LeaderElection<T extends Comparable<T>> extends Thread
 {
+	private static final Logger LOG = LoggerFactory.getLogger(LeaderElection.class);
+	//Leases last this many heartbeat intervals by default and are renewed four times per lease
+	private static final int DEFAULT_LEASE_HEARTBEATS = 4;
+	private static final int RENEWALS_PER_LEASE = 4;
+	//In quorum mode, contact with a majority is good for this many heartbeat intervals
+	private static final int QUORUM_WINDOW_HEARTBEATS = 3;
+	private static final String RING_POLICY_MESSAGE = "Leader selection policies need the head to hear every node's load, use POLL or PUSH";
 	
-	private Boolean isHead;
-	private Boolean isLeader;
-	private T headNode;
+	//Role and task state is only changed on the network manager's event loop; the roles are read from any thread
+	private volatile Boolean isHead;
+	private volatile Boolean isLeader;
+	private volatile T headNode;
 	private final long headPollDelayMS;
 	private final long nodePollDelayMS;
-	private boolean nodePolled;
 	private boolean headPolled;
+	private final HeartbeatMode heartbeatMode;
+	private T watchedNode;
+	private volatile long leaseDurationNanos;
+	private volatile LeaderLease<T> lease;
+	private long lastFencingToken;
+	private SimpleTimedTask leaseTask;
+	private final Object leaseLock;
+	private boolean hadQuorum;
+	private final ElectionEventDispatcher<T> events;
+	private volatile MembershipStore<T> store;
 	private SimpleTimedTask task;
 	private final NetworkManager<T> networkManager;
+	private final TaskScheduler scheduler;
+	private final EventLoop loop;
 	
 	/**
 	 * Constructor for the leader election class
 	 * 
 	 * @param networkManager the class that will handle network communication.
-	 * @param headPollDelayMS delay before a node on the network is considered dead if it cannot be contacted.
-	 * @param nodePollDelayMS time before the head node can be considered dead if it has cannot be contacted.
-	 *							Recommended to be more than headPollDelayMS * 2.
+	 * @param headPollDelayMS how often the head polls the network, the failure detector expects heartbeats this often.
+	 * @param nodePollDelayMS how often a node asks the failure detector whether the head is still alive.
 	 */
 	public LeaderElection(NetworkManager<T> networkManager, long headPollDelayMS, long nodePollDelayMS)
 	{
+		this(networkManager, headPollDelayMS, nodePollDelayMS, TaskScheduler.shared());
+	}
+	
+	/**
+	 * Constructor for the leader election class
+	 * 
+	 * @param networkManager the class that will handle network communication.
+	 * @param headPollDelayMS how often the head polls the network, the failure detector expects heartbeats this often.
+	 * @param nodePollDelayMS how often a node asks the failure detector whether the head is still alive.
+	 * @param scheduler the scheduler that runs the polling tasks, can be shared by any number of elections
+	 */
+	public LeaderElection(NetworkManager<T> networkManager, long headPollDelayMS, long nodePollDelayMS, TaskScheduler scheduler)
+	{
+		this(networkManager, headPollDelayMS, nodePollDelayMS, scheduler, HeartbeatMode.POLL);
+	}
+	
+	/**
+	 * Constructor for the leader election class
+	 * 
+	 * @param networkManager the class that will handle network communication.
+	 * @param headPollDelayMS how often the head polls the network, or how often every node pushes a heartbeat.
+	 *							The failure detector expects heartbeats this often.
+	 * @param nodePollDelayMS how often a node asks the failure detector whether the head is still alive when polling.
+	 * @param scheduler the scheduler that runs the polling tasks, can be shared by any number of elections
+	 * @param heartbeatMode how nodes show they are still alive, must be the same on every node
+	 */
+	public LeaderElection(NetworkManager<T> networkManager, long headPollDelayMS, long nodePollDelayMS, TaskScheduler scheduler, HeartbeatMode heartbeatMode)
+	{
+		if (heartbeatMode == HeartbeatMode.RING && networkManager.getNetwork().getLeaderSelectionPolicy() != null)
+		{
+			throw new IllegalStateException(RING_POLICY_MESSAGE);
+		}
+		this.heartbeatMode = heartbeatMode;
+		this.watchedNode = null;
+		this.leaseDurationNanos = TimeUnit.MILLISECONDS.toNanos(headPollDelayMS * DEFAULT_LEASE_HEARTBEATS);
+		this.lease = null;
+		this.lastFencingToken = 0;
+		this.leaseTask = null;
+		this.leaseLock = new Object();
+		this.hadQuorum = true;
+		this.store = null;
+		this.events = new ElectionEventDispatcher<>(ElectionEventDispatcher.DEFAULT_EXECUTOR, networkManager.getNetwork()::getSnapshot, this::isHead, this::getLease);
 		this.isHead = null;
 		this.isLeader = null;
 		this.headNode = null;
@@ -37,43 +114,202 @@ public class LeaderElection<T extends Comparable<T>> extends Thread
 		this.nodePollDelayMS = nodePollDelayMS;
 		this.task = null;
 		this.networkManager = networkManager;
+		this.scheduler = scheduler;
+		this.loop = networkManager.getEventLoop();
+		if (networkManager.getFailureDetector() == null)
+		{
+			networkManager.setFailureDetector(new PhiAccrualFailureDetector<>(headPollDelayMS));
+		}
 		networkManager.getNetwork().addChangeSubscriber(() -> {
-			handleNetworkChange();
+			loop.runInLoop(this::handleNetworkChange);
 		});
 	}
 	
 	/**
-	 * Begin running the leader background processes
+	 * Begin running the leader background processes.
+	 * Only announces this node; the polling itself runs on the scheduler, so the thread ends straight away.
 	 */
 	public void run()
 	{
-		networkManager.broadcastNetwork();
+		loop.runAndWait(() -> {
+			restore();
+			leaseTask = new SimpleTimedTask(scheduler, Math.max(1, TimeUnit.NANOSECONDS.toMillis(leaseDurationNanos) / RENEWALS_PER_LEASE), onLoop(this::renewLease));
+			leaseTask.start();
+			networkManager.broadcastNetwork();
+		});
 	}
 	
 	public void pause() throws IOException
 	{
-		task.pause();
-		networkManager.stop();
+		loop.runAndWait(() -> {
+			revokeLease();
+			task.pause();
+			if (leaseTask != null) leaseTask.pause();
+			networkManager.stop();
+		});
 	}
 	
 	public void unpause() throws IOException
 	{
-		task.unpause();
-		networkManager.start();
+		loop.runAndWait(() -> {
+			task.unpause();
+			if (leaseTask != null) leaseTask.unpause();
+			networkManager.start();
+			//Pausing gave the lease up without changing the roles, so no network change would take it back
+			if (Boolean.TRUE.equals(isLeader) && networkManager.isLeader())
+			{
+				acquireLease();
+			}
+		});
+	}
+	
+	/**
+	 * Step down for a planned restart: give up the lease and leave the network, so the head and leader roles
+	 * pass straight to the next nodes in order instead of waiting for the failure detector.
+	 * The node stays paused and can rejoin with {@link #unpause()}.
+	 * @throws IOException
+	 */
+	public void resign() throws IOException
+	{
+		loop.runAndWait(() -> {
+			revokeLease();
+			networkManager.leave();
+		});
+		pause();
+	}
+	
+	/**
+	 * Leave the network as in {@link #resign()}, then stop for good
+	 */
+	public void shutdownGracefully()
+	{
+		loop.runAndWait(() -> {
+			revokeLease();
+			networkManager.leave();
+		});
+		interrupt();
+	}
+	
+	/**
+	 * Protect against split brain: removing suspected nodes needs the agreement of a majority of the network,
+	 * and this node only counts as head or leader, and only holds its lease, while its view is backed by a majority.
+	 * On the minority side of a partition no node can take over.
+	 * Costs one extra round trip per failover. Must be called before the election starts, and on every node.
+	 * @throws IllegalStateException in ring mode, where the head doesn't hear from a majority
+	 */
+	public void enableQuorum()
+	{
+		if (heartbeatMode == HeartbeatMode.RING)
+		{
+			throw new IllegalStateException("Quorum mode needs the head to hear from every node, use POLL or PUSH");
+		}
+		networkManager.setQuorum(new QuorumTracker<>(headPollDelayMS * QUORUM_WINDOW_HEARTBEATS));
+	}
+	
+	/**
+	 * Choose leaders with a policy instead of taking the lowest nodes.
+	 * Must be called before the election starts, and on every node.
+	 * @param policy the policy, or null for the lowest nodes
+	 * @throws IllegalStateException in ring mode, where the head doesn't hear every node's load
+	 */
+	public void setLeaderSelectionPolicy(LeaderSelectionPolicy<T> policy)
+	{
+		if (heartbeatMode == HeartbeatMode.RING && policy != null)
+		{
+			throw new IllegalStateException(RING_POLICY_MESSAGE);
+		}
+		networkManager.getNetwork().setLeaderSelectionPolicy(policy);
+	}
+	
+	/**
+	 * Keep the membership, epoch and fencing token in a local store, so after a restart this node starts
+	 * from its last view and converges in one round. Must be called before the election starts.
+	 * The store is saved on every membership change and new lease, and is not closed by the election.
+	 * @param store the store, or null for none
+	 */
+	public void setMembershipStore(MembershipStore<T> store)
+	{
+		this.store = store;
+	}
+	
+	/**
+	 * Set how long a leader lease lasts without being renewed. Must be called before the election starts.
+	 * Defaults to four heartbeat intervals.
+	 * @param leaseDurationMS the lease duration
+	 */
+	public void setLeaseDurationMS(long leaseDurationMS)
+	{
+		this.leaseDurationNanos = TimeUnit.MILLISECONDS.toNanos(leaseDurationMS);
 	}
 	
+	/**
+	 * Listen for changes in this node's roles and the network's membership.
+	 * Listeners run on the listener executor, not on the thread handling messages.
+	 * @param listener the listener
+	 */
+	public void addListener(ElectionListener<T> listener)
+	{
+		events.addListener(listener);
+		events.signal();
+	}
+	
+	public void removeListener(ElectionListener<T> listener)
+	{
+		events.removeListener(listener);
+	}
+	
+	/**
+	 * Set the executor listeners are called on. Listeners for one election are never called concurrently,
+	 * so the executor can be shared with other elections. Defaults to a shared pool of daemon threads.
+	 * @param executor the executor
+	 */
+	public void setListenerExecutor(Executor executor)
+	{
+		events.setExecutor(executor);
+	}
+	
+	/**
+	 * Get this node's leader lease
+	 * @return the lease, or null if this node is not a leader. The lease may have expired.
+	 */
+	public LeaderLease<T> getLease()
+	{
+		return lease;
+	}
+	
+	/**
+	 * Check that this node still holds leadership under the given token, without any network traffic.
+	 * Meant to be called before every guarded operation.
+	 * @param fencingToken the token the operation was started under
+	 * @return true if the lease with that token is held and has not expired
+	 */
+	public boolean holdsLease(long fencingToken)
+	{
+		LeaderLease<T> current = lease;
+		return current != null && current.getFencingToken() == fencingToken && current.isValid();
+	}
+	
+	/**
+	 * Check if the current node is the head
+	 * @return true if the node is the head, and in quorum mode is backed by a majority
+	 */
 	public Boolean isHead()
 	{
-		return isHead;
+		return withQuorum(isHead);
 	}
 	
 	/**
 	 * Check if the current node is a leader
-	 * @return true if the node is a leader, false otherwise
+	 * @return true if the node is a leader, and in quorum mode is backed by a majority, false otherwise
 	 */
 	public Boolean isLeader()
 	{
-		return isLeader;
+		return withQuorum(isLeader);
+	}
+	
+	private Boolean withQuorum(Boolean role)
+	{
+		return Boolean.TRUE.equals(role) && !networkManager.hasQuorum() ? Boolean.FALSE : role;
 	}
 	
 	/**
@@ -93,27 +329,25 @@ public class LeaderElection<T extends Comparable<T>> extends Thread
 	{
 		if (task != null) task.interrupt();
 		headPolled = false;
-		task = new SimpleTimedTask(headPollDelayMS, () ->  {
+		FailureDetector<T> detector = networkManager.getFailureDetector();
+		//Heartbeats from an earlier time as head are stale
+		for (T node : networkManager.getNetwork().getNodes())
+		{
+			detector.remove(node);
+		}
+		if (heartbeatMode != HeartbeatMode.POLL)
+		{
+			startHeartbeatTask();
+			return;
+		}
+		task = new SimpleTimedTask(scheduler, headPollDelayMS, onLoop(() -> {
 			try
 			{
 				//Ensure we've polled at least once already so we have results to check
-				if (headPolled)
+				//If this node's own responses aren't arriving, the poll was invalid
+				if (headPolled && detector.isAvailable(networkManager.getSelf()))
 				{
-					//Get all the nodes on the network
-					Set<T> nodes = networkManager.getNetwork().getNodes();
-					//Get all the nodes that responded
-					Set<T> upNodes = networkManager.getUpNodes();
-					//If this node is not found in the responses, the poll was invalid
-					if (upNodes.contains(networkManager.getSelf()))
-					{
-						//Get the nodes that didn't respond
-						nodes.removeAll(upNodes);
-						//If any didn't respond, have them removed
-						if (!nodes.isEmpty())
-						{
-							networkManager.broadcastRemoveFromNetwork(nodes);
-						}
-					}
+					removeSuspects(detector, null);
 				}
 				//Poll again
 				headPolled = true;
@@ -121,37 +355,177 @@ public class LeaderElection<T extends Comparable<T>> extends Thread
 			}
 			catch (Exception e)
 			{
-				e.printStackTrace();
+				LOG.warn("{} failed to poll the network", networkManager.getSelf(), e);
 			}
-		});
+		}));
 		task.start();
 	}
 	
 	private void startNodeTask()
 	{
+		if (heartbeatMode != HeartbeatMode.POLL)
+		{
+			startHeartbeatTask();
+			return;
+		}
 		if (task != null) task.interrupt();
-		nodePolled = false;
-		task = new SimpleTimedTask(nodePollDelayMS, () -> {
+		FailureDetector<T> detector = networkManager.getFailureDetector();
+		task = new SimpleTimedTask(scheduler, nodePollDelayMS, onLoop(() -> {
 			try
 			{
-				//Ensure the process hasn't just started so that the head node has time to respond
-				//If we have polled before (e.g. we didn't just start) and the head node hasn't polled in the expected time frame
-				if (nodePolled && !networkManager.isHeadUp())
+				T head = networkManager.getHead();
+				if (head == null)
+				{
+					return;
+				}
+				if (!detector.isMonitoring(head))
+				{
+					//Give a new head time to start polling
+					detector.heartbeat(head);
+				}
+				else if (!detector.isAvailable(head))
 				{
 					//Send a message to remove the head node
 					Set<T> toRemove = new HashSet<>();
-					toRemove.add(networkManager.getHead());
-					networkManager.broadcastRemoveFromNetwork(toRemove);
+					toRemove.add(head);
+					removeSuspected(toRemove);
 				}
-				nodePolled = true;
 			}
 			catch (Exception e)
 			{
-				e.printStackTrace();
+				LOG.warn("{} failed to check the head", networkManager.getSelf(), e);
 			}
-		});
+		}));
 		task.start();
 	}
+	
+	/**
+	 * Starts pushing heartbeats and checking on the nodes this node watches, for push and ring modes
+	 */
+	private void startHeartbeatTask()
+	{
+		if (task != null) task.interrupt();
+		watchedNode = null;
+		FailureDetector<T> detector = networkManager.getFailureDetector();
+		task = new SimpleTimedTask(scheduler, headPollDelayMS, onLoop(() -> {
+			try
+			{
+				NetworkSnapshot<T> snapshot = networkManager.getNetwork().getSnapshot();
+				T self = networkManager.getSelf();
+				if (heartbeatMode == HeartbeatMode.RING)
+				{
+					T successor = snapshot.getSuccessor(self);
+					if (self.equals(snapshot.getHeadNode()))
+					{
+						//A single publish that also reaches the successor.
+						//Lets nodes that missed the head find it and compare digests with it.
+						networkManager.sendHeartbeat(null);
+					}
+					else if (successor != null && !successor.equals(self))
+					{
+						networkManager.sendHeartbeat(successor);
+					}
+					watch(detector, snapshot.getPredecessor(self));
+				}
+				else if (self.equals(snapshot.getHeadNode()))
+				{
+					networkManager.sendHeartbeat(null);
+					removeSuspects(detector, self);
+				}
+				else if (snapshot.getHeadNode() != null)
+				{
+					networkManager.sendHeartbeat(snapshot.getHeadNode());
+					watch(detector, snapshot.getHeadNode());
+				}
+			}
+			catch (Exception e)
+			{
+				LOG.warn("{} failed to send a heartbeat", networkManager.getSelf(), e);
+			}
+		}));
+		task.start();
+	}
+	
+	/**
+	 * Run a timer's body on the event loop instead of the timer thread
+	 * @param body the body
+	 * @return the execution to give the timer
+	 */
+	private SimpleTimedTaskExecution onLoop(Runnable body)
+	{
+		return () -> loop.execute(body);
+	}
+	
+	/**
+	 * Check on the one node this node is responsible for, removing it if the failure detector suspects it
+	 * @param detector the failure detector
+	 * @param node the node to watch, null or this node if there is nothing to watch
+	 */
+	private void watch(FailureDetector<T> detector, T node)
+	{
+		if (node == null || node.equals(networkManager.getSelf()))
+		{
+			watchedNode = null;
+		}
+		else if (!node.equals(watchedNode) || !detector.isMonitoring(node))
+		{
+			//Heartbeats it sent before we were watching it don't count
+			detector.remove(node);
+			detector.heartbeat(node);
+			watchedNode = node;
+		}
+		else if (!detector.isAvailable(node))
+		{
+			Set<T> toRemove = new HashSet<>();
+			toRemove.add(node);
+			removeSuspected(toRemove);
+		}
+	}
+	
+	/**
+	 * Have every node the failure detector suspects removed from the network
+	 * @param detector the failure detector
+	 * @param skip a node not to check, or null
+	 */
+	private void removeSuspects(FailureDetector<T> detector, T skip)
+	{
+		Set<T> suspects = new TreeSet<>();
+		for (T node : networkManager.getNetwork().getNodes())
+		{
+			if (node.equals(skip))
+			{
+				continue;
+			}
+			if (!detector.isMonitoring(node))
+			{
+				//Start the clock for nodes that haven't responded yet
+				detector.heartbeat(node);
+			}
+			else if (!detector.isAvailable(node))
+			{
+				suspects.add(node);
+			}
+		}
+		if (!suspects.isEmpty())
+		{
+			removeSuspected(suspects);
+		}
+	}
+	
+	/**
+	 * Have nodes the failure detector suspects removed, unless this node's own transport is down
+	 * and the silence is its own fault
+	 * @param suspects the nodes to remove
+	 */
+	private void removeSuspected(Set<T> suspects)
+	{
+		if (!networkManager.isConnected())
+		{
+			LOG.debug("{} is disconnected, not removing {}", networkManager.getSelf(), suspects);
+			return;
+		}
+		networkManager.removeSuspected(suspects);
+	}
 
 	/**
 	 * Deal with changes in the network
@@ -167,23 +541,201 @@ public class LeaderElection<T extends Comparable<T>> extends Thread
 			startNodeTask();
 		}
 		
-		if (networkManager.isLeader() && isLeader != null && !isLeader)
+		if (networkManager.isLeader() && !Boolean.TRUE.equals(isLeader))
 		{
-			//start job
+			acquireLease();
 		}
-		else if (!networkManager.isLeader() && isLeader != null && isLeader)
+		else if (!networkManager.isLeader() && Boolean.TRUE.equals(isLeader))
 		{
-			//stop job
+			revokeLease();
 		}
 		
+		Boolean wasHead = this.isHead;
+		Boolean wasLeader = this.isLeader;
 		this.isHead = networkManager.isHead();
 		this.isLeader = networkManager.isLeader();
+		recordRoleChange(wasHead, isHead, RoleChange.BECAME_HEAD, RoleChange.LOST_HEAD);
+		recordRoleChange(wasLeader, isLeader, RoleChange.BECAME_LEADER, RoleChange.LOST_LEADER);
 		
 		if (!isHead && !networkManager.getHead().equals(headNode))
 		{
 			headNode = networkManager.getHead();
+			//Polls it sent before becoming head don't count
+			networkManager.getFailureDetector().remove(headNode);
 			task.restart();
 		}
+		persist();
+		events.signal();
+	}
+	
+	/**
+	 * Take a new lease with a token higher than any this node has held
+	 */
+	private void acquireLease()
+	{
+		synchronized (leaseLock)
+		{
+			takeLease();
+		}
+		//Saving and telling listeners can be slow, so neither holds up holdsLease callers
+		persist();
+		events.signal();
+	}
+	
+	/**
+	 * Replace the lease with one under the next fencing token. The caller holds the lease lock.
+	 */
+	private void takeLease()
+	{
+		long token = Math.max(networkManager.getNetwork().getEpoch(), lastFencingToken + 1);
+		lastFencingToken = token;
+		long from = System.nanoTime();
+		if (networkManager.getQuorum() != null)
+		{
+			//Starts out expired until a majority backs this node, then renewing takes a fresh token
+			long contact = lastContactNanos();
+			from = contact == NetworkManager.NO_CONTACT ? from - leaseDurationNanos : Math.min(from, contact);
+		}
+		lease = new LeaderLease<>(networkManager.getSelf(), token, from + leaseDurationNanos);
+	}
+	
+	/**
+	 * Start from the view saved by an earlier run, if there is one.
+	 * Nodes in it that are gone are removed by the failure detector as usual.
+	 */
+	private void restore()
+	{
+		MembershipStore<T> current = store;
+		StoredMembership<T> stored = current == null ? null : current.load();
+		if (stored == null)
+		{
+			return;
+		}
+		synchronized (leaseLock)
+		{
+			//Tokens must keep rising across restarts
+			lastFencingToken = Math.max(lastFencingToken, stored.getFencingToken());
+		}
+		networkManager.getNetwork().observeEpoch(stored.getEpoch());
+		networkManager.getNetwork().addAllMembers(stored.getMembers());
+		LOG.info("{} restored {}", networkManager.getSelf(), stored);
+	}
+	
+	/**
+	 * Save the current view if there is a store
+	 */
+	private void persist()
+	{
+		MembershipStore<T> current = store;
+		if (current == null)
+		{
+			return;
+		}
+		long token;
+		synchronized (leaseLock)
+		{
+			token = lastFencingToken;
+		}
+		try
+		{
+			current.save(networkManager.getNetwork().getMembers(), networkManager.getNetwork().getEpoch(), token);
+		}
+		catch (IOException e)
+		{
+			LOG.warn("{} failed to save the membership", networkManager.getSelf(), e);
+		}
+	}
+	
+	private void revokeLease()
+	{
+		synchronized (leaseLock)
+		{
+			lease = null;
+		}
+		events.signal();
+	}
+	
+	/**
+	 * Extend the lease from the last sign that this node is still connected to the network.
+	 * Runs several times per lease so a healthy leader renews well before it would expire.
+	 */
+	private void renewLease()
+	{
+		boolean quorum = networkManager.hasQuorum();
+		if (quorum != hadQuorum)
+		{
+			//Roles reported to listeners depend on the quorum too
+			hadQuorum = quorum;
+			LOG.info("{} {} the quorum", networkManager.getSelf(), quorum ? "regained" : "lost");
+			events.signal();
+		}
+		long contact = lastContactNanos();
+		if (contact == NetworkManager.NO_CONTACT)
+		{
+			return;
+		}
+		long expiresAt = contact + leaseDurationNanos;
+		synchronized (leaseLock)
+		{
+			LeaderLease<T> current = lease;
+			if (current == null)
+			{
+				return;
+			}
+			if (current.isValid())
+			{
+				lease = current.renew(expiresAt);
+				return;
+			}
+			if (System.nanoTime() - expiresAt >= 0)
+			{
+				return;
+			}
+			//Another node may have led while this one was cut off, so the old token can't be trusted again
+			takeLease();
+		}
+		persist();
+		events.signal();
+	}
+	
+	/**
+	 * Get the last time this node heard from the node that vouches for its view of the network:
+	 * the head, or any node for the head itself and in ring mode where the head is never heard from directly.
+	 * In quorum mode, the last time a majority backed this node's view.
+	 * @return the contact time, or {@link NetworkManager#NO_CONTACT}
+	 */
+	private long lastContactNanos()
+	{
+		if (networkManager.getNetwork().size() <= 1)
+		{
+			return System.nanoTime();
+		}
+		if (networkManager.getQuorum() != null)
+		{
+			return networkManager.getLastQuorumNanos();
+		}
+		if (heartbeatMode == HeartbeatMode.RING || Boolean.TRUE.equals(isHead))
+		{
+			return networkManager.getLastPeerContactNanos();
+		}
+		return networkManager.getLastHeadContactNanos();
+	}
+	
+	private void recordRoleChange(Boolean was, Boolean is, RoleChange became, RoleChange lost)
+	{
+		ElectionMetrics metrics = networkManager.getMetrics();
+		boolean wasTrue = Boolean.TRUE.equals(was);
+		boolean isTrue = Boolean.TRUE.equals(is);
+		if (!wasTrue && isTrue)
+		{
+			LOG.info("{} {}", networkManager.getSelf(), became);
+			metrics.roleChanged(became);
+		}
+		else if (wasTrue && !isTrue)
+		{
+			LOG.info("{} {}", networkManager.getSelf(), lost);
+			metrics.roleChanged(lost);
+		}
 	}
 	
 	/**
@@ -191,8 +743,12 @@ public class LeaderElection<T extends Comparable<T>> extends Thread
 	 */
 	public void interrupt()
 	{
-		task.interrupt();
-		networkManager.stop();
+		loop.runAndWait(() -> {
+			revokeLease();
+			if (leaseTask != null) leaseTask.interrupt();
+			task.interrupt();
+			networkManager.stop();
+		});
 		super.interrupt();
 	}
 }
@@ -0,0 +1,76 @@
+package jmace.LeaderElection;
+
+/**
+ * A time bounded claim to leadership.
+ *
+ * Guarded operations should check {@link #isValid()} before acting and pass the fencing token along to whatever
+ * they change, so a resource that has seen a higher token can reject a leader that has since been replaced.
+ * Each node's tokens only ever rise, and a token is never below the membership epoch the node has seen.
+ * The head relays the epoch, so once a removal has reached a node, the lease it takes is higher than the removed
+ * leader's. A node that takes a lease before the raised epoch reaches it, e.g. on the other side of a partition,
+ * can hold a token no higher than its predecessor's.
+ */
+public final class LeaderLease<T>
+{
+	private final T holder;
+	private final long fencingToken;
+	private final long expiresAtNanos;
+	
+	LeaderLease(T holder, long fencingToken, long expiresAtNanos)
+	{
+		this.holder = holder;
+		this.fencingToken = fencingToken;
+		this.expiresAtNanos = expiresAtNanos;
+	}
+	
+	public T getHolder()
+	{
+		return holder;
+	}
+	
+	public long getFencingToken()
+	{
+		return fencingToken;
+	}
+	
+	/**
+	 * @return the {@link System#nanoTime()} at which the lease runs out unless renewed
+	 */
+	public long getExpiresAtNanos()
+	{
+		return expiresAtNanos;
+	}
+	
+	/**
+	 * Check the lease without any network traffic
+	 * @return true if the lease has not run out
+	 */
+	public boolean isValid()
+	{
+		return System.nanoTime() - expiresAtNanos < 0;
+	}
+	
+	/**
+	 * @return the time left on the lease in milliseconds, 0 once it has run out
+	 */
+	public long getRemainingMS()
+	{
+		return Math.max(0, (expiresAtNanos - System.nanoTime()) / 1000000);
+	}
+	
+	/**
+	 * Extend the lease, keeping its token
+	 * @param expiresAtNanos the new expiry
+	 * @return the renewed lease
+	 */
+	LeaderLease<T> renew(long expiresAtNanos)
+	{
+		return new LeaderLease<>(holder, fencingToken, Math.max(this.expiresAtNanos, expiresAtNanos));
+	}
+	
+	@Override
+	public String toString()
+	{
+		return holder + " token " + fencingToken + (isValid() ? " valid for " + getRemainingMS() + "ms" : " expired");
+	}
+}
@@ -0,0 +1,101 @@
+package jmace.LeaderElection;
+
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import jmace.LeaderElection.network.LongMembership;
+import jmace.LeaderElection.network.NetworkSnapshot;
+
+/**
+ * The difference between two snapshots of the network
+ */
+public final class MembershipDelta<T extends Comparable<T>>
+{
+	private final NetworkSnapshot<T> previous;
+	private final NetworkSnapshot<T> current;
+	private final SortedSet<T> joined;
+	private final SortedSet<T> left;
+	
+	MembershipDelta(NetworkSnapshot<T> previous, NetworkSnapshot<T> current)
+	{
+		this.previous = previous;
+		this.current = current;
+		if (hasLongIds(previous) && hasLongIds(current))
+		{
+			//Array walks instead of a boxed lookup per node
+			LongMembership before = LongMembership.of(longIds(previous));
+			LongMembership after = LongMembership.of(longIds(current));
+			this.joined = toSet(after.without(before));
+			this.left = toSet(before.without(after));
+		}
+		else
+		{
+			this.joined = difference(current.getNodes(), previous.getNodes());
+			this.left = difference(previous.getNodes(), current.getNodes());
+		}
+	}
+	
+	private static boolean hasLongIds(NetworkSnapshot<?> snapshot)
+	{
+		return snapshot.isEmpty() || snapshot.getHeadNode() instanceof Long;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static NetworkSnapshot<Long> longIds(NetworkSnapshot<?> snapshot)
+	{
+		return (NetworkSnapshot<Long>) snapshot;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T extends Comparable<T>> SortedSet<T> toSet(long[] nodes)
+	{
+		TreeSet<Long> result = new TreeSet<>();
+		for (long node : nodes)
+		{
+			result.add(node);
+		}
+		return (SortedSet<T>) Collections.unmodifiableSortedSet(result);
+	}
+	
+	private static <T extends Comparable<T>> SortedSet<T> difference(SortedSet<T> from, SortedSet<T> remove)
+	{
+		TreeSet<T> result = new TreeSet<>();
+		for (T node : from)
+		{
+			if (!remove.contains(node)) result.add(node);
+		}
+		return Collections.unmodifiableSortedSet(result);
+	}
+	
+	public NetworkSnapshot<T> getPrevious()
+	{
+		return previous;
+	}
+	
+	public NetworkSnapshot<T> getCurrent()
+	{
+		return current;
+	}
+	
+	public SortedSet<T> getJoined()
+	{
+		return joined;
+	}
+	
+	public SortedSet<T> getLeft()
+	{
+		return left;
+	}
+	
+	public boolean isEmpty()
+	{
+		return joined.isEmpty() && left.isEmpty();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "joined " + joined + " left " + left;
+	}
+}
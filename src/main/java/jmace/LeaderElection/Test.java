@@ -3,10 +3,18 @@ package jmace.LeaderElection;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import jmace.LeaderElection.network.LocalMessageBus;
+import jmace.LeaderElection.network.LocalNetworkManager;
 import jmace.LeaderElection.network.NetworkManager;
 import jmace.LeaderElection.network.RabbitMQNetworkManager;
 
+/**
+ * Demo of a small cluster failing over.
+ * Logs through SLF4J; src/main/config/log4j.xml has the recommended settings: the library at INFO,
+ * behind a non-blocking AsyncAppender so message and timer threads never wait on the console.
+ */
 public class Test 
 {
 	public static final String RMQ_HOST = "localhost";
@@ -25,22 +33,22 @@ public class Test
 		System.out.println(MESSAGE_BORDER);
 	}
 	
-	private static Set<LeaderElection<String>> createNodes(int numNodes, int numLeaders, String rmqHost, String rmqQueue, long headPollMS, long nodePollMS)
+	private static Set<LeaderElection<Long>> createNodes(int numNodes, Function<Long, NetworkManager<Long>> managerFactory, long headPollMS, long nodePollMS)
 	{
-		Set<LeaderElection<String>> nodes = new HashSet<>();
+		Set<LeaderElection<Long>> nodes = new HashSet<>();
 		for (int i = 0; i < numNodes; i++)
         {
-        		NetworkManager<String> manager = new RabbitMQNetworkManager<>(UUID.randomUUID().toString(), numLeaders, rmqHost, rmqQueue);
-        		LeaderElection<String> node = new LeaderElection<>(manager, headPollMS, nodePollMS); 
+        		NetworkManager<Long> manager = managerFactory.apply(ThreadLocalRandom.current().nextLong(Long.MAX_VALUE));
+        		LeaderElection<Long> node = new LeaderElection<>(manager, headPollMS, nodePollMS); 
         		nodes.add(node);
         		node.start();
         }
 		return nodes;
 	}
 	
-	private static LeaderElection<String> pauseLeader(Set<LeaderElection<String>> nodes) throws IOException
+	private static LeaderElection<Long> pauseLeader(Set<LeaderElection<Long>> nodes) throws IOException
 	{
-        for (LeaderElection<String> node : nodes)
+        for (LeaderElection<Long> node : nodes)
         {
         		if (node.isLeader() && !node.isHead())
         		{
@@ -51,9 +59,9 @@ public class Test
         return null;
 	}
 	
-	private static LeaderElection<String> pauseHead(Set<LeaderElection<String>> nodes) throws IOException
+	private static LeaderElection<Long> pauseHead(Set<LeaderElection<Long>> nodes) throws IOException
 	{
-		for (LeaderElection<String> node : nodes)
+		for (LeaderElection<Long> node : nodes)
         {
         		if (node.isHead())
         		{
@@ -66,22 +74,32 @@ public class Test
 	
 	/**
 	 * Simple demo
-	 * @param args unused
+	 * @param args pass "local" to run against an in-process message bus instead of RabbitMQ
 	 * @throws InterruptedException unused
 	 * @throws IOException 
 	 */
     public static void main(String[] args) throws InterruptedException, IOException
     {
         printMessage("Nodes joining the network");
-        Set<LeaderElection<String>> nodes = createNodes(NUM_NODES, NUM_LEADERS, RMQ_HOST, RMQ_QUEUE, HEAD_POLL_DELAY_MS, NODE_POLL_DELAY_MS);
+        Function<Long, NetworkManager<Long>> managerFactory;
+        if (args.length > 0 && "local".equals(args[0]))
+        {
+        		LocalMessageBus<Long> bus = new LocalMessageBus<>();
+        		managerFactory = id -> new LocalNetworkManager<>(id, NUM_LEADERS, bus);
+        }
+        else
+        {
+        		managerFactory = id -> new RabbitMQNetworkManager<>(id, NUM_LEADERS, RMQ_HOST, RMQ_QUEUE);
+        }
+        Set<LeaderElection<Long>> nodes = createNodes(NUM_NODES, managerFactory, HEAD_POLL_DELAY_MS, NODE_POLL_DELAY_MS);
         Thread.sleep(4000);
         
         printMessage("Pausing a leader node");
-        LeaderElection<String> paused = pauseLeader(nodes);
+        LeaderElection<Long> paused = pauseLeader(nodes);
         Thread.sleep(HEAD_POLL_DELAY_MS * 2);
         
         printMessage("Pausing the head node");
-        LeaderElection<String> head = pauseHead(nodes);
+        LeaderElection<Long> head = pauseHead(nodes);
         Thread.sleep((HEAD_POLL_DELAY_MS + NODE_POLL_DELAY_MS) * 2);
         
         printMessage("Unpausing leader node");
@@ -93,7 +111,7 @@ public class Test
         Thread.sleep(HEAD_POLL_DELAY_MS * 3);
         
         printMessage("Stopping all nodes");
-        for (LeaderElection<String> node : nodes)
+        for (LeaderElection<Long> node : nodes)
         {
         		node.interrupt();
         }
@@ -101,7 +119,7 @@ public class Test
         Thread.sleep(1000);
         
         printMessage("Final Results");
-        for (LeaderElection<String> node : nodes)
+        for (LeaderElection<Long> node : nodes)
         {
         		System.out.println("[ " + node.getSelfId() + " ]\tisHead: " + node.isHead() + ",\tisLeader: " + node.isLeader() + ",\t killed: " + (paused != null && paused.getSelfId().equals(node.getSelfId()) || head != null && head.getSelfId().equals(node.getSelfId())));
         }
@@ -0,0 +1,35 @@
+package jmace.LeaderElection.detector;
+
+/**
+ * Decides whether a node should be considered dead based on when its heartbeats arrive.
+ * Heartbeats are reported from the message thread and availability is checked from the election timers,
+ * so implementations must be thread safe.
+ */
+public interface FailureDetector<T>
+{
+	/**
+	 * Record a heartbeat from a node, starting to watch it if it wasn't already
+	 * @param node the node the heartbeat came from
+	 */
+	public void heartbeat(T node);
+	
+	/**
+	 * Check if a node is still considered alive
+	 * @param node the node to check
+	 * @return false if the node is suspected to have failed, true if it is alive or not being watched
+	 */
+	public boolean isAvailable(T node);
+	
+	/**
+	 * Check if heartbeats from a node are being watched
+	 * @param node the node to check
+	 * @return true if a heartbeat has been recorded since the node was last removed
+	 */
+	public boolean isMonitoring(T node);
+	
+	/**
+	 * Stop watching a node and forget its heartbeat history
+	 * @param node the node to forget
+	 */
+	public void remove(T node);
+}
@@ -0,0 +1,205 @@
+package jmace.LeaderElection.detector;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The phi accrual failure detector (Hayashibara et al.).
+ * Instead of a fixed timeout, it keeps the recent intervals between each node's heartbeats and estimates how unlikely
+ * the current silence is. Phi is -log10 of that probability, so phi 1 means a 10% chance of a false suspicion,
+ * phi 2 means 1%, and so on. A node whose heartbeats are regular is suspected soon after it stops,
+ * while one whose heartbeats have been jittery gets more slack.
+ */
+public class PhiAccrualFailureDetector<T> implements FailureDetector<T>
+{
+	public static final double DEFAULT_THRESHOLD = 8.0;
+	public static final int DEFAULT_MAX_SAMPLE_SIZE = 200;
+	
+	private final double threshold;
+	private final int maxSampleSize;
+	private final double minStdDeviationMS;
+	private final double acceptablePauseMS;
+	private final double firstHeartbeatEstimateMS;
+	private final LongSupplier clockNanos;
+	private final Map<T, History> histories;
+	
+	/**
+	 * Create a detector with the default threshold and sample size
+	 * @param heartbeatIntervalMS how often heartbeats are expected, used until real intervals have been seen
+	 */
+	public PhiAccrualFailureDetector(long heartbeatIntervalMS)
+	{
+		this(DEFAULT_THRESHOLD, DEFAULT_MAX_SAMPLE_SIZE, heartbeatIntervalMS / 2.0, 0, heartbeatIntervalMS);
+	}
+	
+	/**
+	 * Constructor
+	 *
+	 * @param threshold the phi above which a node is suspected
+	 * @param maxSampleSize the number of recent intervals kept per node
+	 * @param minStdDeviationMS the lowest standard deviation used, so very regular heartbeats aren't suspected on the slightest delay
+	 * @param acceptablePauseMS extra silence allowed on top of the usual interval, e.g. for GC pauses
+	 * @param firstHeartbeatEstimateMS the interval assumed for a node before two of its heartbeats have arrived
+	 */
+	public PhiAccrualFailureDetector(double threshold, int maxSampleSize, double minStdDeviationMS, double acceptablePauseMS, double firstHeartbeatEstimateMS)
+	{
+		this(threshold, maxSampleSize, minStdDeviationMS, acceptablePauseMS, firstHeartbeatEstimateMS, System::nanoTime);
+	}
+	
+	PhiAccrualFailureDetector(double threshold, int maxSampleSize, double minStdDeviationMS, double acceptablePauseMS, double firstHeartbeatEstimateMS, LongSupplier clockNanos)
+	{
+		if (threshold <= 0 || maxSampleSize < 2 || minStdDeviationMS <= 0 || firstHeartbeatEstimateMS <= 0)
+		{
+			throw new IllegalArgumentException("Threshold, minimum deviation and first estimate must be positive and at least 2 samples kept");
+		}
+		this.threshold = threshold;
+		this.maxSampleSize = maxSampleSize;
+		this.minStdDeviationMS = minStdDeviationMS;
+		this.acceptablePauseMS = acceptablePauseMS;
+		this.firstHeartbeatEstimateMS = firstHeartbeatEstimateMS;
+		this.clockNanos = clockNanos;
+		this.histories = new ConcurrentHashMap<>();
+	}
+	
+	public void heartbeat(T node)
+	{
+		long now = clockNanos.getAsLong();
+		History history = histories.get(node);
+		if (history == null)
+		{
+			//The first heartbeat only starts the clock
+			history = histories.putIfAbsent(node, new History(now));
+			if (history == null)
+			{
+				return;
+			}
+		}
+		synchronized (history)
+		{
+			history.arrived(now);
+		}
+	}
+	
+	public boolean isAvailable(T node)
+	{
+		return phi(node) < threshold;
+	}
+	
+	public boolean isMonitoring(T node)
+	{
+		return histories.containsKey(node);
+	}
+	
+	public void remove(T node)
+	{
+		histories.remove(node);
+	}
+	
+	/**
+	 * Get the suspicion level of a node
+	 * @param node the node
+	 * @return phi, 0 for nodes that aren't being watched
+	 */
+	public double phi(T node)
+	{
+		History history = histories.get(node);
+		if (history == null)
+		{
+			return 0;
+		}
+		long now = clockNanos.getAsLong();
+		double elapsedMS;
+		double mean;
+		double stdDeviation;
+		synchronized (history)
+		{
+			elapsedMS = (now - history.lastArrival) / 1e6;
+			mean = history.mean() + acceptablePauseMS;
+			stdDeviation = Math.max(history.stdDeviation(), minStdDeviationMS);
+		}
+		return phi(elapsedMS, mean, stdDeviation);
+	}
+	
+	public double getThreshold()
+	{
+		return threshold;
+	}
+	
+	/**
+	 * The logistic approximation of the normal distribution's tail used by Akka and Cassandra,
+	 * which is cheap and doesn't lose precision far out in the tail
+	 */
+	static double phi(double elapsedMS, double mean, double stdDeviation)
+	{
+		double y = (elapsedMS - mean) / stdDeviation;
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		if (elapsedMS > mean)
+		{
+			return -Math.log10(e / (1.0 + e));
+		}
+		return -Math.log10(1.0 - 1.0 / (1.0 + e));
+	}
+	
+	/**
+	 * The recent intervals between a node's heartbeats, in a ring buffer with running sums
+	 */
+	private class History
+	{
+		private final double[] intervals;
+		private int count;
+		private int next;
+		private double sum;
+		private double squaredSum;
+		private long lastArrival;
+		
+		private History(long firstArrival)
+		{
+			this.intervals = new double[maxSampleSize];
+			this.count = 0;
+			this.next = 0;
+			this.sum = 0;
+			this.squaredSum = 0;
+			this.lastArrival = firstArrival;
+			//Start from the estimate so a node that never sends a second heartbeat is still suspected in time
+			double deviation = firstHeartbeatEstimateMS / 4;
+			add(firstHeartbeatEstimateMS - deviation);
+			add(firstHeartbeatEstimateMS + deviation);
+		}
+		
+		private void arrived(long now)
+		{
+			add((now - lastArrival) / 1e6);
+			lastArrival = now;
+		}
+		
+		private void add(double interval)
+		{
+			if (count == intervals.length)
+			{
+				double dropped = intervals[next];
+				sum -= dropped;
+				squaredSum -= dropped * dropped;
+			}
+			else
+			{
+				count++;
+			}
+			intervals[next] = interval;
+			next = (next + 1) % intervals.length;
+			sum += interval;
+			squaredSum += interval * interval;
+		}
+		
+		private double mean()
+		{
+			return sum / count;
+		}
+		
+		private double stdDeviation()
+		{
+			double mean = mean();
+			return Math.sqrt(Math.max(0, squaredSum / count - mean * mean));
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package jmace.LeaderElection.messages;
+
+/**
+ * The capacity and load a node reports with its heartbeats, so the head can place leaders on the nodes with room to spare.
+ *
+ * Capacity is in whatever unit the application chooses (cores, slots, a weight), as long as every node uses the same one.
+ * Load is the fraction of that capacity in use, kept in thousandths so it fits in two bytes on the wire.
+ */
+public final class NodeLoad
+{
+	public static final int FULL = 1000;
+
+	private final int capacity;
+	private final int load;
+
+	private NodeLoad(int capacity, int load)
+	{
+		if (capacity < 0 || load < 0 || load > FULL)
+		{
+			throw new IllegalArgumentException("Invalid capacity " + capacity + " or load " + load);
+		}
+		this.capacity = capacity;
+		this.load = load;
+	}
+
+	/**
+	 * @param capacity how much work the node can take on, 0 or more
+	 * @param utilization the fraction of the capacity in use, clamped to 0 to 1
+	 * @return the load
+	 */
+	public static NodeLoad ofUtilization(int capacity, double utilization)
+	{
+		return new NodeLoad(capacity, (int) Math.round(Math.max(0, Math.min(1, utilization)) * FULL));
+	}
+
+	/**
+	 * @param capacity how much work the node can take on, 0 or more
+	 * @param load the thousandths of the capacity in use, 0 to {@link #FULL}
+	 * @return the load
+	 */
+	public static NodeLoad ofThousandths(int capacity, int load)
+	{
+		return new NodeLoad(capacity, load);
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * @return the thousandths of the capacity in use
+	 */
+	public int getLoad()
+	{
+		return load;
+	}
+
+	/**
+	 * @return the fraction of the capacity in use
+	 */
+	public double getUtilization()
+	{
+		return load / (double) FULL;
+	}
+
+	/**
+	 * @return the capacity left over, the score leaders are placed by
+	 */
+	public double getHeadroom()
+	{
+		return capacity * (1 - getUtilization());
+	}
+
+	@Override
+	public boolean equals(Object other)
+	{
+		if (!(other instanceof NodeLoad))
+		{
+			return false;
+		}
+		NodeLoad that = (NodeLoad) other;
+		return capacity == that.capacity && load == that.load;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return capacity * 31 + load;
+	}
+
+	@Override
+	public String toString()
+	{
+		return capacity + "@" + load / 10.0 + "%";
+	}
+}
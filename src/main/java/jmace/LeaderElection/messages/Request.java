@@ -1,16 +1,40 @@
 package jmace.LeaderElection.messages;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
 public class Request<T>
 {
 	private T requestingID;
 	private RequestType type;
-	private String data;
+	private SortedMap<T, Long> members;
+	private long epoch;
+	private long digest;
+	private boolean quorum;
+	private NodeLoad load;
+	private SortedSet<T> leaders;
+	
+	public Request(T requestingID, RequestType type)
+	{
+		this(requestingID, type, null);
+	}
 	
-	public Request(T requestingID, RequestType type, String data)
+	/**
+	 * Constructor
+	 * @param requestingID the sending node
+	 * @param type the type of request
+	 * @param members the nodes the request is about, mapped to their incarnation numbers
+	 */
+	public Request(T requestingID, RequestType type, Map<T, Long> members)
 	{
 		this.requestingID = requestingID;
 		this.type = type;
-		this.data = data;
+		this.members = members == null || members.isEmpty() ? null : new TreeMap<>(members);
 	}
 	
 	public T getRequestingID() {
@@ -29,11 +53,85 @@ public class Request<T>
 		this.type = type;
 	}
 
-	public String getData() {
-		return data;
+	/**
+	 * Get the nodes carried by the request, e.g. the nodes to add or remove
+	 * @return the nodes, never null
+	 */
+	public Set<T> getNodes() {
+		return getMembers().keySet();
+	}
+	
+	/**
+	 * Get the nodes carried by the request along with their incarnation numbers
+	 * @return the nodes mapped to their incarnations, never null
+	 */
+	public SortedMap<T, Long> getMembers() {
+		return members == null ? Collections.emptySortedMap() : Collections.unmodifiableSortedMap(members);
+	}
+
+	public void setMembers(SortedMap<T, Long> members) {
+		this.members = members;
+	}
+	
+	/**
+	 * Get the sender's membership epoch when the request was sent
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public void setEpoch(long epoch) {
+		this.epoch = epoch;
+	}
+	
+	/**
+	 * Get the sender's membership digest, or 0 if the request does not carry one
+	 */
+	public long getDigest() {
+		return digest;
+	}
+
+	public void setDigest(long digest) {
+		this.digest = digest;
+	}
+	
+	/**
+	 * Check if the sender was a head in contact with a majority of the network when it sent the request
+	 */
+	public boolean isQuorum() {
+		return quorum;
+	}
+
+	public void setQuorum(boolean quorum) {
+		this.quorum = quorum;
+	}
+	
+	/**
+	 * Get the capacity and load the sender reported, carried by still alive responses and heartbeats
+	 * @return the load, or null if the sender didn't report one
+	 */
+	public NodeLoad getLoad() {
+		return load;
+	}
+
+	public void setLoad(NodeLoad load) {
+		this.load = load;
+	}
+	
+	/**
+	 * Get the leaders assigned by the head, carried by its polls and heartbeats when it places leaders by policy
+	 * @return the leaders, empty if the request doesn't assign any
+	 */
+	public SortedSet<T> getLeaders() {
+		return leaders == null ? Collections.emptySortedSet() : Collections.unmodifiableSortedSet(leaders);
 	}
 
-	public void setData(String data) {
-		this.data = data;
+	public void setLeaders(Set<T> leaders) {
+		this.leaders = leaders == null || leaders.isEmpty() ? null : new TreeSet<>(leaders);
+	}
+	
+	@Override
+	public String toString() {
+		return type + " from " + requestingID + "@" + epoch + (members == null ? "" : " " + members);
 	}
 }
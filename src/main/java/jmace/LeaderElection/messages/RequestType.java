@@ -1,8 +1,55 @@
 package jmace.LeaderElection.messages;
 
 public enum RequestType {
-	ADD_TO_NETWORK,
-	REMOVE_FROM_NETWORK,
-	POLL_NODES,
-	STILL_ALIVE;
+	ADD_TO_NETWORK(1),
+	REMOVE_FROM_NETWORK(2),
+	POLL_NODES(3),
+	STILL_ALIVE(4),
+	//Full copy of the head's network, sent point to point to a joining or out of date node
+	SYNC_NETWORK(5),
+	//Ask the head for a SYNC_NETWORK after the membership digests stop matching
+	SYNC_REQUEST(6),
+	//Unsolicited sign of life pushed to the head or a ring neighbour, carrying the sender's digest
+	HEARTBEAT(7),
+	//Ask every node to confirm that the nodes carried have gone quiet, before removing them in quorum mode
+	SUSPECT(8),
+	//Answer to SUSPECT with the nodes the sender has also stopped hearing from
+	CONFIRM_SUSPECT(9),
+	//A node announcing it is leaving on purpose, so the others remove it without waiting to suspect it
+	LEAVE(10);
+	
+	private static final RequestType[] BY_CODE;
+	static
+	{
+		int max = 0;
+		for (RequestType type : values()) max = Math.max(max, type.code);
+		BY_CODE = new RequestType[max + 1];
+		for (RequestType type : values()) BY_CODE[type.code] = type;
+	}
+	
+	private final int code;
+	
+	private RequestType(int code)
+	{
+		this.code = code;
+	}
+	
+	/**
+	 * Get the stable wire code for this type. Unlike the ordinal it does not change when types are added.
+	 * @return the wire code
+	 */
+	public int getCode()
+	{
+		return code;
+	}
+	
+	/**
+	 * Look up a type by its wire code
+	 * @param code the wire code
+	 * @return the matching type, or null if the code is unknown
+	 */
+	public static RequestType fromCode(int code)
+	{
+		return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+	}
 }
@@ -0,0 +1,90 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several encoded messages sent as one transport message.
+ * 
+ * Layout:
+ * <pre>
+ * byte     marker, never a valid first byte of a codec message
+ * varint   entry count
+ * entries  channel (string, e.g. an election group, empty if unused) followed by the message (varint length and bytes)
+ * </pre>
+ */
+public final class BatchFrame
+{
+	public static final int MARKER = 0xB7;
+	
+	private BatchFrame()
+	{
+	}
+	
+	/**
+	 * Check whether a transport message is a batch
+	 * @param body the transport message
+	 * @return true if the body is a batch
+	 */
+	public static boolean isBatch(byte[] body)
+	{
+		return body.length > 0 && (body[0] & 0xFF) == MARKER;
+	}
+	
+	public static byte[] encode(List<Entry> entries)
+	{
+		int size = 8;
+		for (Entry entry : entries)
+		{
+			size += entry.message.length + entry.channel.length() + 8;
+		}
+		WireWriter out = new WireWriter(size);
+		out.writeByte(MARKER);
+		out.writeVarLong(entries.size());
+		for (Entry entry : entries)
+		{
+			out.writeString(entry.channel);
+			out.writeBytes(entry.message);
+		}
+		return out.toByteArray();
+	}
+	
+	public static List<Entry> decode(byte[] body) throws IOException
+	{
+		WireReader in = new WireReader(body);
+		if (in.readByte() != MARKER)
+		{
+			throw new IOException("Not a batch");
+		}
+		int count = in.readLength();
+		List<Entry> entries = new ArrayList<>(Math.min(count, 1024));
+		for (int i = 0; i < count; i++)
+		{
+			entries.add(new Entry(in.readString(), in.readBytes()));
+		}
+		return entries;
+	}
+	
+	public static final class Entry
+	{
+		private final String channel;
+		private final byte[] message;
+		
+		public Entry(String channel, byte[] message)
+		{
+			this.channel = channel == null ? "" : channel;
+			this.message = message;
+		}
+		
+		public String getChannel()
+		{
+			return channel;
+		}
+		
+		public byte[] getMessage()
+		{
+			return message;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import jmace.LeaderElection.messages.NodeLoad;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.RequestType;
+
+/**
+ * Compact binary encoding of requests.
+ * 
+ * Layout (version 2):
+ * <pre>
+ * byte     version
+ * byte     request type code
+ * id       requesting node
+ * varint   epoch
+ * byte     flags, bit 0 set if a digest follows, bit 1 set if the sender had a quorum,
+ *          bit 2 set if a load follows, bit 3 set if leaders follow
+ * long     digest (optional)
+ * varints  capacity then load in thousandths (optional)
+ * varint   leader count followed by the ids (optional)
+ * varint   member count
+ * members  id followed by varint incarnation
+ * </pre>
+ * Version 1 messages (no epoch, flags, digest or incarnations) are still accepted.
+ * How an id is written depends on its {@link NodeIdCodec}, e.g. strings are a varint length followed by UTF-8.
+ */
+public class BinaryMessageCodec<T extends Comparable<T>> implements MessageCodec<T>
+{
+	public static final int VERSION = 2;
+	private static final int VERSION_1 = 1;
+	private static final int FLAG_DIGEST = 1;
+	private static final int FLAG_QUORUM = 2;
+	private static final int FLAG_LOAD = 4;
+	private static final int FLAG_LEADERS = 8;
+	
+	private final NodeIdCodec<T> idCodec;
+	
+	public BinaryMessageCodec(NodeIdCodec<T> idCodec)
+	{
+		this.idCodec = idCodec;
+	}
+	
+	public byte[] encode(Request<T> request)
+	{
+		SortedMap<T, Long> members = request.getMembers();
+		WireWriter out = new WireWriter(32 + members.size() * 24);
+		out.writeByte(VERSION);
+		out.writeByte(request.getType().getCode());
+		idCodec.write(out, request.getRequestingID());
+		out.writeVarLong(request.getEpoch());
+		NodeLoad load = request.getLoad();
+		Set<T> leaders = request.getLeaders();
+		out.writeByte((request.getDigest() != 0 ? FLAG_DIGEST : 0) | (request.isQuorum() ? FLAG_QUORUM : 0)
+				| (load != null ? FLAG_LOAD : 0) | (!leaders.isEmpty() ? FLAG_LEADERS : 0));
+		if (request.getDigest() != 0)
+		{
+			out.writeLong(request.getDigest());
+		}
+		if (load != null)
+		{
+			out.writeVarLong(load.getCapacity());
+			out.writeVarLong(load.getLoad());
+		}
+		if (!leaders.isEmpty())
+		{
+			out.writeVarLong(leaders.size());
+			for (T leader : leaders)
+			{
+				idCodec.write(out, leader);
+			}
+		}
+		out.writeVarLong(members.size());
+		for (Map.Entry<T, Long> member : members.entrySet())
+		{
+			idCodec.write(out, member.getKey());
+			out.writeVarLong(member.getValue());
+		}
+		return out.toByteArray();
+	}
+	
+	public Request<T> decode(byte[] bytes) throws IOException
+	{
+		WireReader in = new WireReader(bytes);
+		int version = in.readByte();
+		if (version != VERSION && version != VERSION_1)
+		{
+			throw new IOException("Unsupported message version " + version);
+		}
+		RequestType type = RequestType.fromCode(in.readByte());
+		if (type == null)
+		{
+			throw new IOException("Unknown request type");
+		}
+		T requestingID = idCodec.read(in);
+		long epoch = 0;
+		long digest = 0;
+		int flags = 0;
+		NodeLoad load = null;
+		Set<T> leaders = null;
+		if (version != VERSION_1)
+		{
+			epoch = in.readVarLong();
+			flags = in.readByte();
+			if ((flags & FLAG_DIGEST) != 0)
+			{
+				digest = in.readLong();
+			}
+			if ((flags & FLAG_LOAD) != 0)
+			{
+				load = readLoad(in);
+			}
+			if ((flags & FLAG_LEADERS) != 0)
+			{
+				int count = in.readLength();
+				leaders = new TreeSet<>();
+				for (int i = 0; i < count; i++)
+				{
+					leaders.add(idCodec.read(in));
+				}
+			}
+		}
+		int count = in.readLength();
+		SortedMap<T, Long> members = new TreeMap<>();
+		for (int i = 0; i < count; i++)
+		{
+			T node = idCodec.read(in);
+			members.put(node, version == VERSION_1 ? 0L : in.readVarLong());
+		}
+		Request<T> request = new Request<>(requestingID, type);
+		request.setMembers(members);
+		request.setEpoch(epoch);
+		request.setDigest(digest);
+		request.setQuorum((flags & FLAG_QUORUM) != 0);
+		request.setLoad(load);
+		request.setLeaders(leaders);
+		return request;
+	}
+	
+	static NodeLoad readLoad(WireReader in) throws IOException
+	{
+		long capacity = in.readVarLong();
+		long load = in.readVarLong();
+		if (capacity > Integer.MAX_VALUE || load > NodeLoad.FULL)
+		{
+			throw new IOException("Invalid load " + capacity + "@" + load);
+		}
+		return NodeLoad.ofThousandths((int) capacity, (int) load);
+	}
+}
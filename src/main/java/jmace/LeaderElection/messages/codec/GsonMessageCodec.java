@@ -0,0 +1,46 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import jmace.LeaderElection.messages.Request;
+
+/**
+ * JSON encoding of requests. Larger and slower than {@link BinaryMessageCodec}
+ * but readable, and works for any ID type Gson can handle.
+ */
+public class GsonMessageCodec<T extends Comparable<T>> implements MessageCodec<T>
+{
+	private final Gson gson;
+	private final Type requestType;
+	
+	/**
+	 * Constructor
+	 * @param idType the class of the node IDs
+	 */
+	public GsonMessageCodec(Class<T> idType)
+	{
+		this.gson = new Gson();
+		this.requestType = TypeToken.getParameterized(Request.class, idType).getType();
+	}
+	
+	public byte[] encode(Request<T> request)
+	{
+		return gson.toJson(request).getBytes(StandardCharsets.UTF_8);
+	}
+	
+	public Request<T> decode(byte[] bytes) throws IOException
+	{
+		try
+		{
+			return gson.fromJson(new String(bytes, StandardCharsets.UTF_8), requestType);
+		}
+		catch (JsonParseException e)
+		{
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import jmace.LeaderElection.messages.NodeLoad;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.RequestType;
+
+/**
+ * Binary encoding of requests between nodes with long IDs.
+ *
+ * Layout (version 3):
+ * <pre>
+ * byte     version
+ * byte     request type code
+ * varint   requesting node, zigzag
+ * varint   epoch
+ * byte     flags, bit 0 set if a digest follows, bit 1 set if every incarnation is 0, bit 2 set if the sender had a quorum,
+ *          bit 3 set if a load follows, bit 4 set if leaders follow
+ * long     digest (optional)
+ * varints  capacity then load in thousandths (optional)
+ * varint   leader count followed by each leader, zigzag (optional)
+ * varint   member count
+ * varint   first member, zigzag, then each member as the unsigned gap from the one before
+ * varints  incarnations in member order (omitted if bit 1 is set)
+ * </pre>
+ * Members are sorted, so the gaps are small for dense IDs and a network of thousands fits in a few kilobytes.
+ * Version 1 and 2 messages from {@link BinaryMessageCodec} are still accepted.
+ */
+public class LongMessageCodec implements MessageCodec<Long>
+{
+	public static final int VERSION = 3;
+	private static final int FLAG_DIGEST = 1;
+	private static final int FLAG_NO_INCARNATIONS = 2;
+	private static final int FLAG_QUORUM = 4;
+	private static final int FLAG_LOAD = 8;
+	private static final int FLAG_LEADERS = 16;
+
+	private final BinaryMessageCodec<Long> previous = new BinaryMessageCodec<>(NodeIdCodecs.LONG);
+
+	public byte[] encode(Request<Long> request)
+	{
+		SortedMap<Long, Long> members = request.getMembers();
+		boolean incarnations = false;
+		for (Long incarnation : members.values())
+		{
+			incarnations |= incarnation != 0;
+		}
+		WireWriter out = new WireWriter(32 + members.size() * (incarnations ? 4 : 2));
+		out.writeByte(VERSION);
+		out.writeByte(request.getType().getCode());
+		out.writeVarLong(WireWriter.zigZag(request.getRequestingID()));
+		out.writeVarLong(request.getEpoch());
+		NodeLoad load = request.getLoad();
+		Set<Long> leaders = request.getLeaders();
+		out.writeByte((request.getDigest() != 0 ? FLAG_DIGEST : 0) | (incarnations ? 0 : FLAG_NO_INCARNATIONS) | (request.isQuorum() ? FLAG_QUORUM : 0)
+				| (load != null ? FLAG_LOAD : 0) | (!leaders.isEmpty() ? FLAG_LEADERS : 0));
+		if (request.getDigest() != 0)
+		{
+			out.writeLong(request.getDigest());
+		}
+		if (load != null)
+		{
+			out.writeVarLong(load.getCapacity());
+			out.writeVarLong(load.getLoad());
+		}
+		if (!leaders.isEmpty())
+		{
+			out.writeVarLong(leaders.size());
+			for (Long leader : leaders)
+			{
+				out.writeVarLong(WireWriter.zigZag(leader));
+			}
+		}
+		out.writeVarLong(members.size());
+		long last = 0;
+		boolean first = true;
+		for (Long node : members.keySet())
+		{
+			out.writeVarLong(first ? WireWriter.zigZag(node) : node - last);
+			last = node;
+			first = false;
+		}
+		if (incarnations)
+		{
+			for (Map.Entry<Long, Long> member : members.entrySet())
+			{
+				out.writeVarLong(member.getValue());
+			}
+		}
+		return out.toByteArray();
+	}
+
+	public Request<Long> decode(byte[] bytes) throws IOException
+	{
+		if (bytes.length > 0 && bytes[0] != VERSION)
+		{
+			return previous.decode(bytes);
+		}
+		WireReader in = new WireReader(bytes);
+		in.readByte();
+		RequestType type = RequestType.fromCode(in.readByte());
+		if (type == null)
+		{
+			throw new IOException("Unknown request type");
+		}
+		long requestingID = WireReader.unZigZag(in.readVarLong());
+		long epoch = in.readVarLong();
+		int flags = in.readByte();
+		long digest = (flags & FLAG_DIGEST) != 0 ? in.readLong() : 0;
+		NodeLoad load = (flags & FLAG_LOAD) != 0 ? BinaryMessageCodec.readLoad(in) : null;
+		Set<Long> leaders = null;
+		if ((flags & FLAG_LEADERS) != 0)
+		{
+			int count = in.readLength();
+			leaders = new TreeSet<>();
+			for (int i = 0; i < count; i++)
+			{
+				leaders.add(WireReader.unZigZag(in.readVarLong()));
+			}
+		}
+		int count = in.readLength();
+		if (count > in.remaining())
+		{
+			throw new IOException("Invalid member count " + count);
+		}
+		long[] ids = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			long value = in.readVarLong();
+			ids[i] = i == 0 ? WireReader.unZigZag(value) : ids[i - 1] + value;
+		}
+		SortedMap<Long, Long> members = new TreeMap<>();
+		for (long id : ids)
+		{
+			members.put(id, (flags & FLAG_NO_INCARNATIONS) != 0 ? 0L : in.readVarLong());
+		}
+		Request<Long> request = new Request<>(requestingID, type);
+		request.setMembers(members);
+		request.setEpoch(epoch);
+		request.setDigest(digest);
+		request.setQuorum((flags & FLAG_QUORUM) != 0);
+		request.setLoad(load);
+		request.setLeaders(leaders);
+		return request;
+	}
+}
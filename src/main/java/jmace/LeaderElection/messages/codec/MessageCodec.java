@@ -0,0 +1,26 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+import jmace.LeaderElection.messages.Request;
+
+/**
+ * Converts requests to and from the bytes sent over the network.
+ * Implementations must be safe to use from multiple threads.
+ */
+public interface MessageCodec<T>
+{
+	/**
+	 * Encode a request
+	 * @param request the request to encode
+	 * @return the encoded request
+	 */
+	public byte[] encode(Request<T> request);
+	
+	/**
+	 * Decode a request
+	 * @param bytes the encoded request
+	 * @return the decoded request
+	 * @throws IOException if the bytes are not a valid request for this codec
+	 */
+	public Request<T> decode(byte[] bytes) throws IOException;
+}
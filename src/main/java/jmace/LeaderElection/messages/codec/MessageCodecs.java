@@ -0,0 +1,32 @@
+package jmace.LeaderElection.messages.codec;
+
+/**
+ * Factory for the default message codec
+ */
+public final class MessageCodecs
+{
+	private MessageCodecs()
+	{
+	}
+	
+	/**
+	 * Get the default codec for a type of node ID.
+	 * Long IDs get the gap encoded {@link LongMessageCodec}, other ID types the binary codec when it supports them, JSON otherwise.
+	 * @param id any node ID, used for its type
+	 * @return the codec
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Comparable<T>> MessageCodec<T> forId(T id)
+	{
+		if (id instanceof Long)
+		{
+			return (MessageCodec<T>) new LongMessageCodec();
+		}
+		NodeIdCodec<T> idCodec = NodeIdCodecs.forType(id.getClass());
+		if (idCodec != null)
+		{
+			return new BinaryMessageCodec<>(idCodec);
+		}
+		return new GsonMessageCodec<>((Class<T>) id.getClass());
+	}
+}
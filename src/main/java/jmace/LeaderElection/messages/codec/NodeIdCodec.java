@@ -0,0 +1,13 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+
+/**
+ * Writes and reads a single node ID without reflection
+ */
+public interface NodeIdCodec<T>
+{
+	public void write(WireWriter out, T id);
+	
+	public T read(WireReader in) throws IOException;
+}
@@ -0,0 +1,78 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Node ID codecs for the ID types supported by the binary wire format
+ */
+public final class NodeIdCodecs
+{
+	public static final NodeIdCodec<String> STRING = new NodeIdCodec<String>() {
+		public void write(WireWriter out, String id)
+		{
+			out.writeString(id);
+		}
+		
+		public String read(WireReader in) throws IOException
+		{
+			return in.readString();
+		}
+	};
+	
+	public static final NodeIdCodec<Long> LONG = new NodeIdCodec<Long>() {
+		public void write(WireWriter out, Long id)
+		{
+			out.writeVarLong(WireWriter.zigZag(id));
+		}
+		
+		public Long read(WireReader in) throws IOException
+		{
+			return WireReader.unZigZag(in.readVarLong());
+		}
+	};
+	
+	public static final NodeIdCodec<Integer> INTEGER = new NodeIdCodec<Integer>() {
+		public void write(WireWriter out, Integer id)
+		{
+			out.writeVarLong(WireWriter.zigZag(id));
+		}
+		
+		public Integer read(WireReader in) throws IOException
+		{
+			return (int) WireReader.unZigZag(in.readVarLong());
+		}
+	};
+	
+	public static final NodeIdCodec<UUID> UUID_CODEC = new NodeIdCodec<UUID>() {
+		public void write(WireWriter out, UUID id)
+		{
+			out.writeLong(id.getMostSignificantBits());
+			out.writeLong(id.getLeastSignificantBits());
+		}
+		
+		public UUID read(WireReader in) throws IOException
+		{
+			return new UUID(in.readLong(), in.readLong());
+		}
+	};
+	
+	private NodeIdCodecs()
+	{
+	}
+	
+	/**
+	 * Find the codec for an ID type
+	 * @param type the class of the node IDs
+	 * @return the codec, or null if the type is not supported
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> NodeIdCodec<T> forType(Class<?> type)
+	{
+		if (type == String.class) return (NodeIdCodec<T>) STRING;
+		if (type == Long.class) return (NodeIdCodec<T>) LONG;
+		if (type == Integer.class) return (NodeIdCodec<T>) INTEGER;
+		if (type == UUID.class) return (NodeIdCodec<T>) UUID_CODEC;
+		return null;
+	}
+}
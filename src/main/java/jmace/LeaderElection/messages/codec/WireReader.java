@@ -0,0 +1,110 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the primitive encodings written by {@link WireWriter}
+ */
+public final class WireReader
+{
+	private final byte[] buffer;
+	private final int limit;
+	private int position;
+	
+	public WireReader(byte[] buffer)
+	{
+		this(buffer, 0, buffer.length);
+	}
+	
+	public WireReader(byte[] buffer, int offset, int length)
+	{
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+	
+	public static long unZigZag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	public int readByte() throws IOException
+	{
+		require(1);
+		return buffer[position++] & 0xFF;
+	}
+	
+	public long readVarLong() throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	/**
+	 * Read a varint that must fit in a non negative int, e.g. a length or a count
+	 * @return the value
+	 * @throws IOException if the value is out of range
+	 */
+	public int readLength() throws IOException
+	{
+		long value = readVarLong();
+		if (value < 0 || value > Integer.MAX_VALUE)
+		{
+			throw new IOException("Invalid length " + value);
+		}
+		return (int) value;
+	}
+	
+	public long readLong() throws IOException
+	{
+		require(8);
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+		{
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		}
+		return value;
+	}
+	
+	public String readString() throws IOException
+	{
+		int length = readLength();
+		require(length);
+		String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+		position += length;
+		return value;
+	}
+	
+	public byte[] readBytes() throws IOException
+	{
+		int length = readLength();
+		require(length);
+		byte[] value = new byte[length];
+		System.arraycopy(buffer, position, value, 0, length);
+		position += length;
+		return value;
+	}
+	
+	public int remaining()
+	{
+		return limit - position;
+	}
+	
+	private void require(int bytes) throws IOException
+	{
+		if (bytes > limit - position)
+		{
+			throw new IOException("Unexpected end of message");
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with the primitive encodings used by the binary wire format
+ */
+public final class WireWriter
+{
+	private byte[] buffer;
+	private int position;
+	
+	public WireWriter(int initialCapacity)
+	{
+		this.buffer = new byte[Math.max(16, initialCapacity)];
+		this.position = 0;
+	}
+	
+	public static long zigZag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	public void writeByte(int value)
+	{
+		ensureCapacity(1);
+		buffer[position++] = (byte) value;
+	}
+	
+	/**
+	 * Write an unsigned variable length integer, 7 bits per byte
+	 * @param value the value, treated as unsigned
+	 */
+	public void writeVarLong(long value)
+	{
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0)
+		{
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+	
+	public void writeLong(long value)
+	{
+		ensureCapacity(8);
+		for (int shift = 56; shift >= 0; shift -= 8)
+		{
+			buffer[position++] = (byte) (value >>> shift);
+		}
+	}
+	
+	/**
+	 * Write a string as a varint length followed by its UTF-8 bytes
+	 * @param value the string
+	 */
+	public void writeString(String value)
+	{
+		writeBytes(value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Write a byte array as a varint length followed by the bytes
+	 * @param value the bytes
+	 */
+	public void writeBytes(byte[] value)
+	{
+		writeVarLong(value.length);
+		ensureCapacity(value.length);
+		System.arraycopy(value, 0, buffer, position, value.length);
+		position += value.length;
+	}
+	
+	public int size()
+	{
+		return position;
+	}
+	
+	public byte[] toByteArray()
+	{
+		return Arrays.copyOf(buffer, position);
+	}
+	
+	private void ensureCapacity(int extra)
+	{
+		if (position + extra > buffer.length)
+		{
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+		}
+	}
+}
@@ -0,0 +1,6 @@
+package jmace.LeaderElection.metrics;
+
+public interface Counter
+{
+	public void increment(long amount);
+}
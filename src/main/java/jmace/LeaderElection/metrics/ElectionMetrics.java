@@ -0,0 +1,109 @@
+package jmace.LeaderElection.metrics;
+
+import jmace.LeaderElection.messages.RequestType;
+
+/**
+ * The measurements taken by an election and its network manager.
+ * All meters are created up front so recording on the message path is a plain method call.
+ */
+public class ElectionMetrics
+{
+	public static final ElectionMetrics NOOP = new ElectionMetrics(NoopMetricRegistry.INSTANCE);
+	
+	public enum RoleChange
+	{
+		BECAME_HEAD,
+		LOST_HEAD,
+		BECAME_LEADER,
+		LOST_LEADER;
+	}
+	
+	private final boolean enabled;
+	private final Timer headFailover;
+	private final Timer heartbeatRoundTrip;
+	private final Summary pollResponders;
+	private final Counter nodesRemoved;
+	private final Counter[] roleChanges;
+	private final Timer encodeTime;
+	private final Timer decodeTime;
+	private final Summary[] bytesIn;
+	private final Summary[] bytesOut;
+	
+	public ElectionMetrics(MetricRegistry registry)
+	{
+		this.enabled = registry != NoopMetricRegistry.INSTANCE;
+		this.headFailover = registry.timer("election.head.failover");
+		this.heartbeatRoundTrip = registry.timer("election.heartbeat.rtt");
+		this.pollResponders = registry.summary("election.poll.responders");
+		this.nodesRemoved = registry.counter("election.nodes.removed");
+		this.roleChanges = new Counter[RoleChange.values().length];
+		for (RoleChange change : RoleChange.values())
+		{
+			roleChanges[change.ordinal()] = registry.counter("election.role.changes", "change", change.name());
+		}
+		this.encodeTime = registry.timer("election.codec.encode");
+		this.decodeTime = registry.timer("election.codec.decode");
+		this.bytesIn = new Summary[RequestType.values().length];
+		this.bytesOut = new Summary[RequestType.values().length];
+		for (RequestType type : RequestType.values())
+		{
+			bytesIn[type.ordinal()] = registry.summary("election.bytes.in", "type", type.name());
+			bytesOut[type.ordinal()] = registry.summary("election.bytes.out", "type", type.name());
+		}
+	}
+	
+	/**
+	 * @return false for the no-op metrics, so callers can skip reading the clock
+	 */
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+	
+	/**
+	 * Time between the last message from a head that went quiet and the first message from the new head
+	 * that shows the same view as the node recording it
+	 */
+	public void headFailover(long nanos)
+	{
+		headFailover.record(nanos);
+	}
+	
+	/**
+	 * Time between the head sending a poll and receiving a still alive response
+	 */
+	public void heartbeatRoundTrip(long nanos)
+	{
+		heartbeatRoundTrip.record(nanos);
+	}
+	
+	/**
+	 * Number of nodes that responded to one poll
+	 */
+	public void pollResponders(int responders)
+	{
+		pollResponders.record(responders);
+	}
+	
+	public void nodesRemoved(int count)
+	{
+		nodesRemoved.increment(count);
+	}
+	
+	public void roleChanged(RoleChange change)
+	{
+		roleChanges[change.ordinal()].increment(1);
+	}
+	
+	public void encoded(RequestType type, int bytes, long nanos)
+	{
+		encodeTime.record(nanos);
+		bytesOut[type.ordinal()].record(bytes);
+	}
+	
+	public void decoded(RequestType type, int bytes, long nanos)
+	{
+		decodeTime.record(nanos);
+		bytesIn[type.ordinal()].record(bytes);
+	}
+}
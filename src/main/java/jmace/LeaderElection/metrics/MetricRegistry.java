@@ -0,0 +1,27 @@
+package jmace.LeaderElection.metrics;
+
+/**
+ * Creates the meters used by {@link ElectionMetrics}.
+ * Implement this to forward to a metrics library such as Micrometer or Dropwizard.
+ * Meters are looked up once and kept, so lookups don't need to be fast.
+ */
+public interface MetricRegistry
+{
+	/**
+	 * @param name the metric name
+	 * @param tags alternating tag keys and values
+	 */
+	public Counter counter(String name, String... tags);
+	
+	/**
+	 * @param name the metric name
+	 * @param tags alternating tag keys and values
+	 */
+	public Timer timer(String name, String... tags);
+	
+	/**
+	 * @param name the metric name
+	 * @param tags alternating tag keys and values
+	 */
+	public Summary summary(String name, String... tags);
+}
@@ -0,0 +1,32 @@
+package jmace.LeaderElection.metrics;
+
+/**
+ * Registry whose meters do nothing, the default
+ */
+public final class NoopMetricRegistry implements MetricRegistry
+{
+	public static final NoopMetricRegistry INSTANCE = new NoopMetricRegistry();
+	
+	private static final Counter COUNTER = amount -> {};
+	private static final Timer TIMER = nanos -> {};
+	private static final Summary SUMMARY = value -> {};
+	
+	private NoopMetricRegistry()
+	{
+	}
+	
+	public Counter counter(String name, String... tags)
+	{
+		return COUNTER;
+	}
+	
+	public Timer timer(String name, String... tags)
+	{
+		return TIMER;
+	}
+	
+	public Summary summary(String name, String... tags)
+	{
+		return SUMMARY;
+	}
+}
@@ -0,0 +1,121 @@
+package jmace.LeaderElection.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory registry keeping a count, total and maximum per meter. Useful for tests, benchmarks and simple reporting.
+ */
+public class SimpleMetricRegistry implements MetricRegistry
+{
+	private final Map<String, Meter> meters;
+	
+	public SimpleMetricRegistry()
+	{
+		this.meters = new ConcurrentHashMap<>();
+	}
+	
+	public Counter counter(String name, String... tags)
+	{
+		Meter meter = meter(name, tags);
+		return meter::record;
+	}
+	
+	public Timer timer(String name, String... tags)
+	{
+		Meter meter = meter(name, tags);
+		return meter::record;
+	}
+	
+	public Summary summary(String name, String... tags)
+	{
+		Meter meter = meter(name, tags);
+		return meter::record;
+	}
+	
+	/**
+	 * Get a meter by the key it is reported under, e.g. "election.bytes.out{type=STILL_ALIVE}"
+	 * @param key the meter key
+	 * @return the meter, or null if nothing registered it
+	 */
+	public Meter get(String key)
+	{
+		return meters.get(key);
+	}
+	
+	/**
+	 * @return every meter, sorted by key
+	 */
+	public SortedMap<String, Meter> getMeters()
+	{
+		return new TreeMap<>(meters);
+	}
+	
+	private Meter meter(String name, String... tags)
+	{
+		return meters.computeIfAbsent(key(name, tags), k -> new Meter());
+	}
+	
+	static String key(String name, String... tags)
+	{
+		if (tags.length == 0)
+		{
+			return name;
+		}
+		StringBuilder key = new StringBuilder(name).append('{');
+		for (int i = 0; i + 1 < tags.length; i += 2)
+		{
+			if (i > 0) key.append(',');
+			key.append(tags[i]).append('=').append(tags[i + 1]);
+		}
+		return key.append('}').toString();
+	}
+	
+	/**
+	 * Count, total and maximum of everything recorded. Counters record their increments.
+	 */
+	public static final class Meter
+	{
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+		
+		private void record(long value)
+		{
+			count.increment();
+			total.add(value);
+			max.accumulate(value);
+		}
+		
+		public long getCount()
+		{
+			return count.sum();
+		}
+		
+		public long getTotal()
+		{
+			return total.sum();
+		}
+		
+		public long getMax()
+		{
+			return getCount() == 0 ? 0 : max.get();
+		}
+		
+		public double getMean()
+		{
+			long n = getCount();
+			return n == 0 ? 0 : (double) getTotal() / n;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return "count=" + getCount() + " total=" + getTotal() + " max=" + getMax();
+		}
+	}
+}
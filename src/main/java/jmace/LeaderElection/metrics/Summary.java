@@ -0,0 +1,9 @@
+package jmace.LeaderElection.metrics;
+
+/**
+ * Distribution of recorded values, e.g. message sizes
+ */
+public interface Summary
+{
+	public void record(long value);
+}
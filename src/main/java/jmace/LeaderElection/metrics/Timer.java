@@ -0,0 +1,6 @@
+package jmace.LeaderElection.metrics;
+
+public interface Timer
+{
+	public void record(long nanos);
+}
@@ -0,0 +1,80 @@
+package jmace.LeaderElection.network;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers of one size, reused instead of allocated per connection.
+ * Direct buffers are slow to allocate and only freed by the garbage collector, so they are worth keeping.
+ */
+final class BufferPool
+{
+	private final int bufferSize;
+	private final int maxIdle;
+	private final Queue<ByteBuffer> idle;
+	private final AtomicInteger idleCount;
+
+	/**
+	 * Constructor
+	 * @param bufferSize the size of every buffer
+	 * @param maxIdle the most buffers kept for reuse; any more are left to the garbage collector
+	 */
+	BufferPool(int bufferSize, int maxIdle)
+	{
+		this.bufferSize = bufferSize;
+		this.maxIdle = maxIdle;
+		this.idle = new ConcurrentLinkedQueue<>();
+		this.idleCount = new AtomicInteger();
+	}
+
+	int getBufferSize()
+	{
+		return bufferSize;
+	}
+
+	/**
+	 * @return the number of buffers waiting to be reused
+	 */
+	int getIdle()
+	{
+		return idleCount.get();
+	}
+
+	/**
+	 * Take a cleared buffer
+	 * @return a pooled buffer, or a new one if none are idle
+	 */
+	ByteBuffer acquire()
+	{
+		ByteBuffer buffer = idle.poll();
+		if (buffer == null)
+		{
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		idleCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Give a buffer back. Buffers that didn't come from the pool are ignored.
+	 * @param buffer the buffer, which must not be used again
+	 */
+	void release(ByteBuffer buffer)
+	{
+		if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize)
+		{
+			return;
+		}
+		if (idleCount.incrementAndGet() <= maxIdle)
+		{
+			idle.add(buffer);
+		}
+		else
+		{
+			idleCount.decrementAndGet();
+		}
+	}
+}
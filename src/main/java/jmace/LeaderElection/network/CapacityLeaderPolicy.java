@@ -0,0 +1,85 @@
+package jmace.LeaderElection.network;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import jmace.LeaderElection.messages.NodeLoad;
+
+/**
+ * Places leaders on the nodes with the most spare capacity.
+ *
+ * Loads move all the time, so a leader is only replaced when a challenger has more headroom by a clear margin;
+ * otherwise leadership would flap between nodes with similar loads, and every hand over costs a lease.
+ * Nodes that haven't reported a load have no headroom and only lead when there is nobody else. Ties go to the lower node.
+ */
+public class CapacityLeaderPolicy<T extends Comparable<T>> implements LeaderSelectionPolicy<T>
+{
+	public static final double DEFAULT_MARGIN = 0.25;
+
+	private final double margin;
+
+	public CapacityLeaderPolicy()
+	{
+		this(DEFAULT_MARGIN);
+	}
+
+	/**
+	 * Constructor
+	 * @param margin how much more headroom a node needs than a leader to take its place, e.g. 0.25 for 25% more
+	 */
+	public CapacityLeaderPolicy(double margin)
+	{
+		if (margin < 0)
+		{
+			throw new IllegalArgumentException("The margin can't be negative");
+		}
+		this.margin = margin;
+	}
+
+	public Set<T> selectLeaders(NetworkSnapshot<T> network, int numberOfLeaders, Map<T, NodeLoad> loads, Set<T> current)
+	{
+		Comparator<T> byHeadroom = Comparator.<T>comparingDouble(node -> headroom(loads, node)).reversed()
+				.thenComparing(Comparator.naturalOrder());
+		List<T> leaders = new ArrayList<>();
+		List<T> challengers = new ArrayList<>();
+		for (T node : network.getNodes())
+		{
+			(current.contains(node) ? leaders : challengers).add(node);
+		}
+		leaders.sort(byHeadroom);
+		while (leaders.size() > numberOfLeaders)
+		{
+			challengers.add(leaders.remove(leaders.size() - 1));
+		}
+		challengers.sort(byHeadroom);
+		int next = 0;
+		while (leaders.size() < numberOfLeaders && next < challengers.size())
+		{
+			leaders.add(challengers.get(next++));
+		}
+		leaders.sort(byHeadroom);
+		//Both lists are best first, so the best challengers meet the weakest leaders
+		int weakest = leaders.size() - 1;
+		while (weakest >= 0 && next < challengers.size() && beats(loads, challengers.get(next), leaders.get(weakest)))
+		{
+			leaders.set(weakest--, challengers.get(next++));
+		}
+		return new TreeSet<>(leaders);
+	}
+
+	private boolean beats(Map<T, NodeLoad> loads, T challenger, T leader)
+	{
+		double headroom = headroom(loads, challenger);
+		return headroom > 0 && headroom > headroom(loads, leader) * (1 + margin);
+	}
+
+	private static <T> double headroom(Map<T, NodeLoad> loads, T node)
+	{
+		NodeLoad load = loads.get(node);
+		return load == null ? 0 : load.getHeadroom();
+	}
+}
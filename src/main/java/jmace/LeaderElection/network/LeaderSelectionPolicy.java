@@ -0,0 +1,26 @@
+package jmace.LeaderElection.network;
+
+import java.util.Map;
+import java.util.Set;
+
+import jmace.LeaderElection.messages.NodeLoad;
+
+/**
+ * Decides which nodes lead. Only the head runs the policy; it sends the result with its polls and heartbeats,
+ * so every node agrees on the leaders without knowing every other node's load.
+ * Without a policy the leaders are the lowest nodes, which every node can work out on its own.
+ * Loads reach the head with still alive responses and pushed heartbeats, so this needs the poll or push heartbeat mode;
+ * in a ring the head only hears from its neighbour.
+ */
+public interface LeaderSelectionPolicy<T extends Comparable<T>>
+{
+	/**
+	 * Choose the leaders
+	 * @param network the current membership
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param loads the last load each node reported; nodes that haven't reported are missing
+	 * @param current the leaders chosen last time that are still on the network, empty if there are none
+	 * @return the new leaders, all of them members
+	 */
+	Set<T> selectLeaders(NetworkSnapshot<T> network, int numberOfLeaders, Map<T, NodeLoad> loads, Set<T> current);
+}
@@ -0,0 +1,253 @@
+package jmace.LeaderElection.network;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import jmace.LeaderElection.messages.Request;
+
+/**
+ * In-process message bus shared by {@link LocalNetworkManager}s.
+ * Stands in for a broker so that whole clusters can be run and measured inside a single JVM.
+ * Supports simulated latency, random message loss and network partitions.
+ */
+public class LocalMessageBus<T extends Comparable<T>>
+{
+	private static final int DEFAULT_PARTITION = 0;
+
+	private final Map<String, LocalNetworkManager<T>> members;
+	private final Map<String, Integer> partitions;
+	private final ScheduledExecutorService latencyScheduler;
+	private final ExecutorService deliveryExecutor;
+	private final Random random;
+	private volatile long minLatencyMS;
+	private volatile long maxLatencyMS;
+	private volatile double dropRate;
+	private final AtomicLong sent;
+	private final AtomicLong delivered;
+	private final AtomicLong dropped;
+
+	/**
+	 * Constructor for a bus that delivers every message immediately
+	 */
+	public LocalMessageBus()
+	{
+		this(0, 0, 0.0, System.nanoTime());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param minLatencyMS the minimum time a message spends in flight
+	 * @param maxLatencyMS the maximum time a message spends in flight
+	 * @param dropRate the probability (0 to 1) that any single delivery is lost
+	 * @param seed seed for the latency and loss random number generator, for repeatable runs
+	 */
+	public LocalMessageBus(long minLatencyMS, long maxLatencyMS, double dropRate, long seed)
+	{
+		this.members = new ConcurrentHashMap<>();
+		this.partitions = new ConcurrentHashMap<>();
+		this.latencyScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("local-bus-latency"));
+		this.deliveryExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemonThreads("local-bus-delivery"));
+		this.random = new Random(seed);
+		this.sent = new AtomicLong();
+		this.delivered = new AtomicLong();
+		this.dropped = new AtomicLong();
+		setLatency(minLatencyMS, maxLatencyMS);
+		setDropRate(dropRate);
+	}
+
+	/**
+	 * Change the simulated latency of messages sent from now on
+	 * @param minLatencyMS the minimum time a message spends in flight
+	 * @param maxLatencyMS the maximum time a message spends in flight
+	 */
+	public void setLatency(long minLatencyMS, long maxLatencyMS)
+	{
+		if (minLatencyMS < 0 || maxLatencyMS < minLatencyMS)
+		{
+			throw new IllegalArgumentException("Invalid latency range " + minLatencyMS + "-" + maxLatencyMS);
+		}
+		this.minLatencyMS = minLatencyMS;
+		this.maxLatencyMS = maxLatencyMS;
+	}
+
+	/**
+	 * Change the probability of a delivery being lost
+	 * @param dropRate the probability (0 to 1) that any single delivery is lost
+	 */
+	public void setDropRate(double dropRate)
+	{
+		if (dropRate < 0 || dropRate > 1)
+		{
+			throw new IllegalArgumentException("Invalid drop rate " + dropRate);
+		}
+		this.dropRate = dropRate;
+	}
+
+	/**
+	 * Split the network. Each group can only talk to nodes in the same group.
+	 * Nodes not listed in any group are placed together in a group of their own.
+	 * @param groups the groups of node IDs to split the network into
+	 */
+	@SafeVarargs
+	public final void partition(Collection<T>... groups)
+	{
+		partitions.clear();
+		for (int i = 0; i < groups.length; i++)
+		{
+			for (T node : groups[i])
+			{
+				partitions.put(node.toString(), i + 1);
+			}
+		}
+	}
+
+	/**
+	 * Remove all partitions so every node can talk to every other node again
+	 */
+	public void heal()
+	{
+		partitions.clear();
+	}
+
+	/**
+	 * @return the number of deliveries attempted, one per receiving node
+	 */
+	public long getSentCount()
+	{
+		return sent.get();
+	}
+
+	/**
+	 * @return the number of deliveries that reached their node
+	 */
+	public long getDeliveredCount()
+	{
+		return delivered.get();
+	}
+
+	/**
+	 * @return the number of deliveries lost to the drop rate or a partition
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Stop the bus threads. Messages still in flight are discarded.
+	 */
+	public void shutdown()
+	{
+		latencyScheduler.shutdownNow();
+		deliveryExecutor.shutdownNow();
+		members.clear();
+	}
+
+	void register(LocalNetworkManager<T> manager)
+	{
+		members.put(manager.getSelf().toString(), manager);
+	}
+
+	void unregister(LocalNetworkManager<T> manager)
+	{
+		members.remove(manager.getSelf().toString(), manager);
+	}
+
+	boolean isRegistered(LocalNetworkManager<T> manager)
+	{
+		return members.get(manager.getSelf().toString()) == manager;
+	}
+
+	ExecutorService getDeliveryExecutor()
+	{
+		return deliveryExecutor;
+	}
+
+	/**
+	 * Send a request to one node, or to all nodes that can be reached from the sender
+	 * @param sender the ID of the sending node
+	 * @param routingKey the node to send to, or {@link MessagingNetworkManager#BROADCAST_ROUTING_KEY}
+	 * @param request the request to send
+	 */
+	void publish(T sender, String routingKey, Request<T> request)
+	{
+		String senderKey = sender.toString();
+		if (MessagingNetworkManager.BROADCAST_ROUTING_KEY.equals(routingKey))
+		{
+			for (LocalNetworkManager<T> member : members.values())
+			{
+				send(senderKey, member, request);
+			}
+		}
+		else
+		{
+			LocalNetworkManager<T> member = members.get(routingKey);
+			if (member != null)
+			{
+				send(senderKey, member, request);
+			}
+		}
+	}
+
+	private void send(String senderKey, LocalNetworkManager<T> receiver, Request<T> request)
+	{
+		sent.incrementAndGet();
+		String receiverKey = receiver.getSelf().toString();
+		if (!partitions.getOrDefault(senderKey, DEFAULT_PARTITION).equals(partitions.getOrDefault(receiverKey, DEFAULT_PARTITION)))
+		{
+			dropped.incrementAndGet();
+			return;
+		}
+
+		long latency;
+		synchronized (random)
+		{
+			if (dropRate > 0 && random.nextDouble() < dropRate)
+			{
+				dropped.incrementAndGet();
+				return;
+			}
+			latency = minLatencyMS == maxLatencyMS ? minLatencyMS : minLatencyMS + (long) (random.nextDouble() * (maxLatencyMS - minLatencyMS));
+		}
+
+		if (latency == 0)
+		{
+			deliver(receiver, request);
+		}
+		else
+		{
+			latencyScheduler.schedule(() -> deliver(receiver, request), latency, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void deliver(LocalNetworkManager<T> receiver, Request<T> request)
+	{
+		if (receiver.deliver(request))
+		{
+			delivered.incrementAndGet();
+		}
+		else
+		{
+			dropped.incrementAndGet();
+		}
+	}
+
+	private static ThreadFactory daemonThreads(String name)
+	{
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,62 @@
+package jmace.LeaderElection.network;
+
+import jmace.LeaderElection.messages.Request;
+
+/**
+ * Network manager that talks over a {@link LocalMessageBus} inside the current JVM.
+ * Incoming requests are handled one at a time, in arrival order, on an event loop running on the bus's delivery threads.
+ */
+public class LocalNetworkManager<T extends Comparable<T>> extends MessagingNetworkManager<T>
+{
+	private final LocalMessageBus<T> bus;
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param bus the bus shared by every node on the network
+	 */
+	public LocalNetworkManager(T id, int numberOfLeaders, LocalMessageBus<T> bus)
+	{
+		super(id, numberOfLeaders, bus.getDeliveryExecutor());
+		this.bus = bus;
+	}
+
+	@Override
+	protected void connect()
+	{
+		if (isStopped() || bus.isRegistered(this))
+		{
+			return;
+		}
+		bus.register(this);
+	}
+
+	@Override
+	protected void disconnect()
+	{
+		bus.unregister(this);
+	}
+
+	@Override
+	protected void publish(String routingKey, Request<T> request)
+	{
+		bus.publish(getSelf(), routingKey, request);
+	}
+
+	/**
+	 * Queue a request for this node
+	 * @param request the incoming request
+	 * @return false if the node is stopped and the request was discarded
+	 */
+	boolean deliver(Request<T> request)
+	{
+		if (isStopped())
+		{
+			return false;
+		}
+		receive(request);
+		return true;
+	}
+}
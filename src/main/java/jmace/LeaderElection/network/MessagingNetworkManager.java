@@ -0,0 +1,837 @@
+package jmace.LeaderElection.network;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jmace.LeaderElection.detector.FailureDetector;
+import jmace.LeaderElection.messages.NodeLoad;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.RequestType;
+import jmace.LeaderElection.messages.codec.MessageCodec;
+import jmace.LeaderElection.metrics.ElectionMetrics;
+import jmace.LeaderElection.task.TaskScheduler;
+
+/**
+ * Transport independent implementation of the election protocol.
+ * Subclasses only need to know how to connect, disconnect and deliver a request to a routing key,
+ * and hand what they receive to {@link #receive(Request)}.
+ *
+ * Every message is handled on the manager's {@link #getEventLoop() event loop}, as are the election's timers,
+ * so the protocol state below is only ever touched by one thread at a time.
+ */
+public abstract class MessagingNetworkManager<T extends Comparable<T>> extends NetworkManager<T>
+{
+	private static final Logger LOG = LoggerFactory.getLogger(MessagingNetworkManager.class);
+	public static final String BROADCAST_ROUTING_KEY = "all";
+	private static final int DIGEST_MISMATCH_LIMIT = 2;
+
+	private final T id;
+	private final int numberOfLeaders;
+	boolean headIsUp;
+	private Set<T> pollReponders;
+	private volatile boolean stopped;
+	private long incarnation;
+	private int digestMismatches;
+	private long pollSentNanos;
+	private final Map<T, NodeLoad> loads;
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 */
+	public MessagingNetworkManager(T id, int numberOfLeaders)
+	{
+		this(id, numberOfLeaders, TaskScheduler.shared()::execute);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param eventExecutor the threads this node's event loop runs on
+	 */
+	protected MessagingNetworkManager(T id, int numberOfLeaders, Executor eventExecutor)
+	{
+		super(eventExecutor);
+		this.id = id;
+		this.numberOfLeaders = numberOfLeaders;
+		this.headIsUp = true;
+		this.pollReponders = null;
+		this.stopped = false;
+		//Start above any incarnation a previous run of this node could have used
+		this.incarnation = System.currentTimeMillis();
+		this.digestMismatches = 0;
+		this.pollSentNanos = 0;
+		this.loads = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Open the underlying transport. Must do nothing if it is already open.
+	 * @throws IOException
+	 */
+	protected abstract void connect() throws IOException;
+
+	/**
+	 * Close the underlying transport
+	 */
+	protected abstract void disconnect();
+
+	/**
+	 * Send a request through the underlying transport
+	 * @param routingKey the node to send the request to, or {@link #BROADCAST_ROUTING_KEY} for all nodes
+	 * @param request the request to send
+	 * @throws IOException
+	 */
+	protected abstract void publish(String routingKey, Request<T> request) throws IOException;
+
+	/**
+	 * Get the ID of this node
+	 */
+	public T getSelf()
+	{
+		return id;
+	}
+
+	/**
+	 * Get the number of leaders allowed on the network
+	 */
+	public int getNumberOfLeaders()
+	{
+		return numberOfLeaders;
+	}
+
+	/**
+	 * Get the ID of the current network head
+	 */
+	public T getHead()
+	{
+		return getNetwork().getHeadNode();
+	}
+
+	/**
+	 * Get whether or not this node is the head of the network
+	 * @return true if this node is the network head
+	 */
+	public Boolean isHead()
+	{
+		if (getNetwork().isEmpty())
+		{
+			return null;
+		}
+		return id.equals(getNetwork().getHeadNode());
+	}
+
+	/**
+	 * Check if this node currently a leader on the network
+	 * @return true if this node is a leader, null if the network hasn't been established, false otherwise
+	 */
+	public Boolean isLeader()
+	{
+		if (getNetwork().isEmpty())
+		{
+			return null;
+		}
+		return getNetwork().getLeaders(numberOfLeaders).contains(id);
+	}
+
+	/**
+	 * Checks if the head node has polled since the last time this method was called
+	 * @return true if the head node has polled, false otherwise
+	 */
+	public boolean isHeadUp()
+	{
+		boolean wasUp = headIsUp;
+		headIsUp = false;
+		return wasUp;
+	}
+
+	/**
+	 * Gets all nodes that have sent this node a still alive message
+	 * @return a set of all nodes that responded with a still alive message
+	 */
+	public Set<T> getUpNodes()
+	{
+		return new TreeSet<>(pollReponders);
+	}
+
+	/**
+	 * Check if the manager has been stopped
+	 * @return true if stop has been called without a subsequent start
+	 */
+	protected boolean isStopped()
+	{
+		return stopped;
+	}
+
+	public void start()
+	{
+		stopped = false;
+		//Back after leaving the network
+		getNetwork().addNode(id, incarnation);
+		try
+		{
+			connect();
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Shuts down the underlying transport
+	 */
+	public void stop()
+	{
+		stopped = true;
+		disconnect();
+	}
+
+	/**
+	 * Queue a message from the transport to be handled on the event loop, in arrival order
+	 * @param request the incoming message
+	 */
+	protected final void receive(Request<T> request)
+	{
+		getEventLoop().execute(() -> {
+			try
+			{
+				if (!isStopped())
+				{
+					handleMessage(request);
+				}
+			}
+			catch (Exception e)
+			{
+				LOG.warn("{} failed to handle {}", id, request, e);
+			}
+		});
+	}
+
+	/**
+	 * Routes messages to the proper functions. Runs on the event loop.
+	 * @param request the incoming message
+	 */
+	protected void handleMessage(Request<T> request)
+	{
+		//Formatted only when debug is on
+		LOG.debug("{} received {}", id, request);
+		getNetwork().observeEpoch(request.getEpoch());
+		recordContact(request.getRequestingID());
+		QuorumTracker<T> quorum = getQuorum();
+		if (quorum != null && request.isQuorum() && !id.equals(request.getRequestingID()) && request.getRequestingID().equals(getHead()))
+		{
+			quorum.headConfirmed();
+		}
+		if (!request.getLeaders().isEmpty() && !id.equals(request.getRequestingID()) && request.getRequestingID().equals(getHead()))
+		{
+			getNetwork().assignLeaders(request.getLeaders());
+		}
+		switch (request.getType())
+		{
+			case ADD_TO_NETWORK:
+				addToNetwork(request);
+			break;
+			case REMOVE_FROM_NETWORK:
+				removeFromNetwork(request.getMembers());
+			break;
+			case SYNC_NETWORK:
+				syncNetwork(request);
+			break;
+			case SYNC_REQUEST:
+				if (Boolean.TRUE.equals(isHead()))
+					sendNetwork(request.getRequestingID().toString());
+			break;
+			case POLL_NODES:
+				if (!id.equals(request.getRequestingID()))
+				{
+					//The head's own liveness is judged by its still alive responses
+					heartbeat(request.getRequestingID());
+				}
+				sendStillAlive(request);
+				checkDigest(request, request.getRequestingID());
+			break;
+			case HEARTBEAT:
+				receiveHeartbeat(request);
+			break;
+			case LEAVE:
+				Long leaving = request.getMembers().get(request.getRequestingID());
+				if (leaving != null && !id.equals(request.getRequestingID()))
+				{
+					//A node can only speak for itself
+					SortedMap<T, Long> toRemove = new TreeMap<>();
+					toRemove.put(request.getRequestingID(), leaving);
+					removeFromNetwork(toRemove);
+				}
+			break;
+			case SUSPECT:
+				confirmSuspects(request);
+			break;
+			case CONFIRM_SUSPECT:
+				if (quorum != null)
+				{
+					for (T node : request.getNodes())
+					{
+						quorum.confirm(node, request.getRequestingID());
+					}
+					removeConfirmed(quorum);
+				}
+			break;
+			case STILL_ALIVE:
+				if (getMetrics().isEnabled())
+				{
+					getMetrics().heartbeatRoundTrip(System.nanoTime() - pollSentNanos);
+				}
+				pollReponders.add(request.getRequestingID());
+				heartbeat(request.getRequestingID());
+				recordLoad(request);
+				addResponder(request);
+			break;
+		}
+		//After the message is applied, so a sync that makes its sender head counts
+		recordHeadContact(request.getRequestingID(), request.getDigest());
+	}
+
+	/**
+	 * Add nodes announced by another node to the network
+	 * @param request the add request
+	 */
+	private void addToNetwork(Request<T> request)
+	{
+		getNetwork().addAllMembers(request.getMembers());
+		Boolean isHead = isHead();
+		if (isHead != null && isHead)
+		{
+			if (pollReponders != null)
+			{
+				pollReponders.add(request.getRequestingID());
+			}
+			heartbeat(request.getRequestingID());
+			//If we have anything the sending process is missing, send over what we have
+			if (request.getRequestingID().equals(id) || request.getNodes().containsAll(getNetwork().getNodes()))
+			{
+				return;
+			}
+			sendNetwork(request.getRequestingID().toString());
+		}
+	}
+
+	/**
+	 * Add a node that responded to a poll or sent a heartbeat, in case it was unknown or has a new incarnation
+	 * @param request the still alive request or heartbeat
+	 */
+	private void addResponder(Request<T> request)
+	{
+		addResponder(request, true);
+	}
+
+	/**
+	 * Add a node that responded to a poll or sent a heartbeat, in case it was unknown or has a new incarnation
+	 * @param request the still alive request or heartbeat
+	 * @param sync whether to send the node this node's network; only the head should
+	 */
+	private void addResponder(Request<T> request, boolean sync)
+	{
+		SortedMap<T, Long> added = getNetwork().addAllMembers(request.getMembers());
+		if (added.isEmpty())
+		{
+			return;
+		}
+		try
+		{
+			//Let everyone know about the node, then bring it up to date
+			broadcastDelta(RequestType.ADD_TO_NETWORK, added);
+			if (sync)
+			{
+				sendNetwork(request.getRequestingID().toString());
+			}
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to announce responder {}", id, request.getRequestingID(), e);
+		}
+	}
+
+	/**
+	 * Handle a heartbeat pushed by another node
+	 * @param request the heartbeat, holding the sender's incarnation and digest
+	 */
+	private void receiveHeartbeat(Request<T> request)
+	{
+		if (id.equals(request.getRequestingID()))
+		{
+			return;
+		}
+		heartbeat(request.getRequestingID());
+		recordLoad(request);
+		//A node that was removed but is still alive only has its neighbour to bring it back.
+		//It will ask the head for the network once it notices its digest is off.
+		addResponder(request, Boolean.TRUE.equals(isHead()));
+		checkDigest(request, getHead());
+	}
+
+	/**
+	 * Adopt the network sent by the head
+	 * @param request the sync request holding the head's full network
+	 */
+	private void syncNetwork(Request<T> request)
+	{
+		SortedMap<T, Long> members = new TreeMap<>(request.getMembers());
+		Long selfIncarnation = members.get(id);
+		members.put(id, incarnation);
+		getNetwork().replaceMembers(members);
+		if (selfIncarnation == null || selfIncarnation < incarnation)
+		{
+			//The head doesn't know about this node (anymore), announce it again
+			broadcastNetwork();
+		}
+	}
+
+	/**
+	 * Compare another node's digest with ours and ask the head for a full copy of the network if they keep disagreeing.
+	 * A single mismatch is expected while adds and removes are still in flight.
+	 * @param request the poll or heartbeat holding the other node's digest
+	 * @param head the node to ask for the network
+	 */
+	private void checkDigest(Request<T> request, T head)
+	{
+		if (head == null || head.equals(id) || request.getDigest() == getNetwork().getDigest())
+		{
+			digestMismatches = 0;
+		}
+		else if (++digestMismatches >= DIGEST_MISMATCH_LIMIT)
+		{
+			digestMismatches = 0;
+			try
+			{
+				broadcastMessage(head.toString(), stamp(new Request<T>(id, RequestType.SYNC_REQUEST)));
+			}
+			catch (Exception e)
+			{
+				LOG.warn("{} failed to request the network from {}", id, head, e);
+			}
+		}
+	}
+
+	/**
+	 * Remove nodes from the network
+	 * @param toRemove the nodes to remove
+	 */
+	public void removeFromNetwork(Set<T> toRemove)
+	{
+		removeFromNetwork(withKnownIncarnations(toRemove));
+	}
+
+	/**
+	 * Remove nodes from the network
+	 * @param toRemove the nodes to remove mapped to the incarnation being removed
+	 */
+	private void removeFromNetwork(SortedMap<T, Long> toRemove)
+	{
+		Long removedIncarnation = toRemove.get(id);
+		if (removedIncarnation != null && removedIncarnation >= incarnation && !isStopped())
+		{
+			//This node is still alive, overrule the removal with a newer incarnation
+			incarnation = Math.max(incarnation + 1, System.currentTimeMillis());
+			toRemove = new TreeMap<>(toRemove);
+			toRemove.remove(id);
+			getNetwork().addNode(id, incarnation);
+			broadcastNetwork();
+		}
+		if (toRemove.containsKey(getHead()))
+		{
+			//If the head node is being remove, mark the new head as up
+			//so that it has time to respond
+			headIsUp = true;
+		}
+		int before = getNetwork().size();
+		if (getNetwork().removeAllMembers(toRemove))
+		{
+			getMetrics().nodesRemoved(before - getNetwork().size());
+			forgetRemoved(toRemove.keySet());
+		}
+	}
+
+	/**
+	 * Tell the nodes on the network to remove a set of nodes from the network
+	 * @param nodes the nodes to remove
+	 */
+	public void broadcastRemoveFromNetwork(Set<T> nodes)
+	{
+		try
+		{
+			broadcastDelta(RequestType.REMOVE_FROM_NETWORK, withKnownIncarnations(nodes));
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Tell every node this one is leaving, so they remove it straight away instead of waiting for it to go quiet.
+	 * Also drops this node from its own view, handing its roles to the next nodes in order.
+	 * The node is added back when the manager starts again.
+	 */
+	public void leave()
+	{
+		try
+		{
+			broadcastMessage(null, stamp(new Request<T>(id, RequestType.LEAVE, Collections.singletonMap(id, incarnation))));
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to announce it is leaving", id, e);
+		}
+		if (getNetwork().size() > 1)
+		{
+			//A lone node has no one to hand over to
+			getNetwork().removeAllMembers(Collections.singletonMap(id, incarnation));
+		}
+	}
+
+	public void removeSuspected(Set<T> nodes)
+	{
+		QuorumTracker<T> quorum = getQuorum();
+		if (quorum == null)
+		{
+			broadcastRemoveFromNetwork(nodes);
+			return;
+		}
+		SortedMap<T, Long> members = withKnownIncarnations(nodes);
+		quorum.propose(members.keySet(), id, getNetwork().size());
+		removeConfirmed(quorum);
+		try
+		{
+			broadcastMessage(null, stamp(new Request<T>(id, RequestType.SUSPECT, members)));
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to ask the network about {}", id, nodes, e);
+		}
+	}
+
+	/**
+	 * Tell a node which of the nodes it suspects this node has also stopped hearing from
+	 * @param request the suspect request
+	 */
+	private void confirmSuspects(Request<T> request)
+	{
+		QuorumTracker<T> quorum = getQuorum();
+		if (quorum == null || id.equals(request.getRequestingID()))
+		{
+			return;
+		}
+		FailureDetector<T> detector = getFailureDetector();
+		SortedMap<T, Long> confirmed = new TreeMap<>();
+		for (Map.Entry<T, Long> member : request.getMembers().entrySet())
+		{
+			T node = member.getKey();
+			//Nodes this one doesn't watch have only had to be heard from within the window
+			boolean quiet = detector != null && detector.isMonitoring(node) ? !detector.isAvailable(node) : quorum.isQuiet(node);
+			if (!node.equals(id) && quiet)
+			{
+				confirmed.put(node, member.getValue());
+			}
+		}
+		if (confirmed.isEmpty())
+		{
+			return;
+		}
+		try
+		{
+			broadcastMessage(request.getRequestingID().toString(), stamp(new Request<T>(id, RequestType.CONFIRM_SUSPECT, confirmed)));
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to confirm suspects to {}", id, request.getRequestingID(), e);
+		}
+	}
+
+	/**
+	 * Remove the suspected nodes a majority has agreed on
+	 * @param quorum the quorum tracker
+	 */
+	private void removeConfirmed(QuorumTracker<T> quorum)
+	{
+		Set<T> confirmed = quorum.takeConfirmed();
+		if (!confirmed.isEmpty())
+		{
+			LOG.debug("{} has a majority to remove {}", id, confirmed);
+			broadcastRemoveFromNetwork(confirmed);
+		}
+	}
+
+	/**
+	 * Send a message to the head node letting it know this node is still responsive
+	 * @param pollRequest the original poll request
+	 */
+	private void sendStillAlive(Request<T> pollRequest)
+	{
+		try
+		{
+			headIsUp = true;
+			Request<T> request = new Request<T>(id, RequestType.STILL_ALIVE, Collections.singletonMap(id, incarnation));
+			request.setLoad(currentLoad());
+			broadcastMessage(pollRequest.getRequestingID().toString(), stamp(request));
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to answer poll from {}", id, pollRequest.getRequestingID(), e);
+		}
+	}
+
+	/**
+	 * Announce this node to the network
+	 */
+	public void broadcastNetwork()
+	{
+		try
+		{
+			broadcastDelta(RequestType.ADD_TO_NETWORK, Collections.singletonMap(id, incarnation));
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to announce itself", id, e);
+		}
+	}
+
+	/**
+	 * Send a membership change to every node
+	 * @param type add or remove
+	 * @param members the nodes that changed mapped to their incarnations
+	 * @throws IOException
+	 */
+	private void broadcastDelta(RequestType type, Map<T, Long> members) throws IOException
+	{
+		broadcastMessage(null, stamp(new Request<T>(id, type, members)));
+	}
+
+	/**
+	 * Send this node's full copy of the network to a single node
+	 * @param routingKey the node to send the network to
+	 */
+	private void sendNetwork(String routingKey)
+	{
+		try
+		{
+			Request<T> request = new Request<T>(id, RequestType.SYNC_NETWORK, getNetwork().getMembers());
+			request.setDigest(getNetwork().getDigest());
+			broadcastMessage(routingKey, stamp(request));
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to send the network to {}", id, routingKey, e);
+		}
+	}
+
+	/**
+	 * Send a request to determine what nodes are still responsive
+	 */
+	public void pollForNodes()
+	{
+		try
+		{
+			if (pollReponders != null)
+			{
+				getMetrics().pollResponders(pollReponders.size());
+			}
+			pollReponders = new TreeSet<>();
+			pollSentNanos = System.nanoTime();
+			Request<T> request = new Request<T>(id, RequestType.POLL_NODES);
+			request.setDigest(getNetwork().getDigest());
+			broadcastMessage(null, stamp(request));
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to poll the network", id, e);
+		}
+	}
+
+	/**
+	 * Report a sign of life from a node to the failure detector
+	 * @param node the node that sent a message
+	 */
+	private void heartbeat(T node)
+	{
+		FailureDetector<T> detector = getFailureDetector();
+		if (detector != null)
+		{
+			detector.heartbeat(node);
+		}
+	}
+
+	/**
+	 * Stop watching heartbeats from nodes that have left the network, so they start afresh if they rejoin
+	 * @param nodes the nodes that may have been removed
+	 */
+	private void forgetRemoved(Set<T> nodes)
+	{
+		FailureDetector<T> detector = getFailureDetector();
+		QuorumTracker<T> quorum = getQuorum();
+		NetworkSnapshot<T> snapshot = getNetwork().getSnapshot();
+		for (T node : nodes)
+		{
+			if (!snapshot.contains(node))
+			{
+				if (detector != null) detector.remove(node);
+				if (quorum != null) quorum.remove(node);
+				loads.remove(node);
+			}
+		}
+	}
+
+	/**
+	 * Remember the load a node reported, for the head to place leaders by
+	 * @param request the still alive request or heartbeat
+	 */
+	private void recordLoad(Request<T> request)
+	{
+		NodeLoad load = request.getLoad();
+		if (load != null && !id.equals(request.getRequestingID()))
+		{
+			loads.put(request.getRequestingID(), load);
+		}
+	}
+
+	/**
+	 * Get the last load each node reported, including this one
+	 * @return the loads
+	 */
+	public Map<T, NodeLoad> getLoads()
+	{
+		Map<T, NodeLoad> current = new TreeMap<>(loads);
+		NodeLoad own = currentLoad();
+		if (own != null)
+		{
+			current.put(id, own);
+		}
+		return current;
+	}
+
+	/**
+	 * Encode a request, recording its size and encoding time
+	 * @param codec the wire format
+	 * @param request the outgoing request
+	 * @return the encoded request
+	 * @throws IOException
+	 */
+	protected final byte[] encode(MessageCodec<T> codec, Request<T> request) throws IOException
+	{
+		ElectionMetrics metrics = getMetrics();
+		if (!metrics.isEnabled())
+		{
+			return codec.encode(request);
+		}
+		long start = System.nanoTime();
+		byte[] body = codec.encode(request);
+		metrics.encoded(request.getType(), body.length, System.nanoTime() - start);
+		return body;
+	}
+
+	/**
+	 * Decode a request, recording its size and decoding time
+	 * @param codec the wire format
+	 * @param body the raw message body
+	 * @return the incoming request
+	 * @throws IOException
+	 */
+	protected final Request<T> decode(MessageCodec<T> codec, byte[] body) throws IOException
+	{
+		ElectionMetrics metrics = getMetrics();
+		if (!metrics.isEnabled())
+		{
+			return codec.decode(body);
+		}
+		long start = System.nanoTime();
+		Request<T> request = codec.decode(body);
+		metrics.decoded(request.getType(), body.length, System.nanoTime() - start);
+		return request;
+	}
+
+	/**
+	 * Push a heartbeat carrying this node's incarnation and digest
+	 * @param node the node to send it to, or null for every node
+	 */
+	public void sendHeartbeat(T node)
+	{
+		try
+		{
+			Request<T> request = new Request<T>(id, RequestType.HEARTBEAT, Collections.singletonMap(id, incarnation));
+			request.setDigest(getNetwork().getDigest());
+			request.setLoad(currentLoad());
+			broadcastMessage(node == null ? null : node.toString(), stamp(request));
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to send a heartbeat to {}", id, node, e);
+		}
+	}
+
+	/**
+	 * Pair nodes with the incarnation this node knows them by
+	 * @param nodes the nodes
+	 * @return the nodes mapped to their incarnations, 0 for unknown nodes
+	 */
+	private SortedMap<T, Long> withKnownIncarnations(Set<T> nodes)
+	{
+		SortedMap<T, Long> members = new TreeMap<>();
+		for (T node : nodes)
+		{
+			Long known = getNetwork().getIncarnation(node);
+			members.put(node, known == null ? 0L : known);
+		}
+		return members;
+	}
+
+	/**
+	 * Attach this node's membership epoch to an outgoing request
+	 * @param request the outgoing request
+	 * @return the request
+	 */
+	private Request<T> stamp(Request<T> request)
+	{
+		request.setEpoch(getNetwork().getEpoch());
+		if (getQuorum() != null && (request.getType() == RequestType.POLL_NODES || request.getType() == RequestType.HEARTBEAT)
+				&& Boolean.TRUE.equals(isHead()) && hasQuorum())
+		{
+			//Lets the other nodes know their head still speaks for a majority
+			request.setQuorum(true);
+		}
+		if (getNetwork().getLeaderSelectionPolicy() != null && (request.getType() == RequestType.POLL_NODES || request.getType() == RequestType.HEARTBEAT)
+				&& Boolean.TRUE.equals(isHead()))
+		{
+			//Place the leaders by the latest loads and tell everyone where they are
+			request.setLeaders(getNetwork().selectLeaders(numberOfLeaders, getLoads()));
+		}
+		return request;
+	}
+
+	/**
+	 * Send a message over the underlying transport, connecting first if needed
+	 * @param routingKey the key to send a message through (e.g. the node to send a message to)
+	 * @param request the request to send
+	 * @throws IOException
+	 */
+	private void broadcastMessage(String routingKey, Request<T> request) throws IOException
+	{
+		if (stopped)
+		{
+			return;
+		}
+
+		connect();
+		publish(routingKey == null ? BROADCAST_ROUTING_KEY : routingKey, request);
+	}
+}
@@ -0,0 +1,377 @@
+package jmace.LeaderElection.network;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.codec.MessageCodec;
+import jmace.LeaderElection.messages.codec.MessageCodecs;
+
+/**
+ * Network manager that talks over UDP inside one LAN, without a broker.
+ *
+ * Messages for every node, like polls and network broadcasts, go to a multicast group. Each node also has a unicast
+ * socket on an ephemeral port; it sends everything from that socket, so the source of any datagram tells the receiver
+ * where to answer, and messages for one node, like still alive responses, go straight there once it has been heard from.
+ * Until then they go to the group and the other nodes drop them.
+ *
+ * Datagram layout:
+ * <pre>
+ * byte     routing key length, 0 for every node
+ * bytes    routing key, UTF-8
+ * bytes    the encoded request
+ * </pre>
+ * Datagrams are sent from and read into direct buffers allocated once per connection.
+ * A request must fit in one datagram, so networks whose full membership doesn't fit need a broker instead.
+ */
+public class MulticastNetworkManager<T extends Comparable<T>> extends MessagingNetworkManager<T>
+{
+	private static final Logger LOG = LoggerFactory.getLogger(MulticastNetworkManager.class);
+	public static final int MAX_DATAGRAM = 65507;
+	private static final int MAX_KEY = 255;
+
+	private final InetSocketAddress group;
+	private final NetworkInterface networkInterface;
+	private final MessageCodec<T> codec;
+	private final byte[] selfKey;
+	private final Map<String, InetSocketAddress> addresses;
+	private final Map<String, byte[]> routingKeys;
+	private final ByteBuffer sendBuffer;
+	private final ByteBuffer receiveBuffer;
+	private final AtomicLong dropped;
+	private volatile DatagramChannel multicast;
+	private volatile DatagramChannel unicast;
+	private volatile Selector selector;
+	private Thread receiver;
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param group the multicast group address and port, the same on every node
+	 * @param networkInterface the interface to send and receive on
+	 */
+	public MulticastNetworkManager(T id, int numberOfLeaders, InetSocketAddress group, NetworkInterface networkInterface)
+	{
+		this(id, numberOfLeaders, group, networkInterface, MessageCodecs.forId(id));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param group the multicast group address and port, the same on every node
+	 * @param networkInterface the interface to send and receive on
+	 * @param codec the wire format, must be the same on every node
+	 */
+	public MulticastNetworkManager(T id, int numberOfLeaders, InetSocketAddress group, NetworkInterface networkInterface, MessageCodec<T> codec)
+	{
+		super(id, numberOfLeaders);
+		if (!group.getAddress().isMulticastAddress())
+		{
+			throw new IllegalArgumentException(group + " is not a multicast address");
+		}
+		this.group = group;
+		this.networkInterface = networkInterface;
+		this.codec = codec;
+		this.selfKey = id.toString().getBytes(StandardCharsets.UTF_8);
+		this.addresses = new ConcurrentHashMap<>();
+		this.routingKeys = new ConcurrentHashMap<>();
+		this.sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+		this.receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+		this.dropped = new AtomicLong();
+		this.multicast = null;
+		this.unicast = null;
+		this.selector = null;
+		this.receiver = null;
+	}
+
+	@Override
+	public boolean isConnected()
+	{
+		DatagramChannel current = unicast;
+		return current != null && current.isOpen();
+	}
+
+	/**
+	 * Get the address other nodes answer this one on
+	 * @return the unicast address, or null if not connected
+	 * @throws IOException
+	 */
+	public InetSocketAddress getLocalAddress() throws IOException
+	{
+		DatagramChannel current = unicast;
+		return current == null ? null : (InetSocketAddress) current.getLocalAddress();
+	}
+
+	/**
+	 * Get the unicast address a node was last heard from
+	 * @param node the node
+	 * @return the address, or null if the node hasn't been heard from
+	 */
+	public InetSocketAddress getAddress(T node)
+	{
+		return addresses.get(node.toString());
+	}
+
+	/**
+	 * @return the number of datagrams dropped because the socket's send buffer was full
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Join the group and open the unicast socket
+	 * @throws IOException
+	 */
+	@Override
+	protected synchronized void connect() throws IOException
+	{
+		if (unicast != null || isStopped())
+		{
+			return;
+		}
+		StandardProtocolFamily family = group.getAddress() instanceof Inet4Address ? StandardProtocolFamily.INET : StandardProtocolFamily.INET6;
+		DatagramChannel openedMulticast = null;
+		DatagramChannel openedUnicast = null;
+		Selector openedSelector = null;
+		try
+		{
+			openedMulticast = DatagramChannel.open(family);
+			//Lets every node on the host share the group port
+			openedMulticast.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			openedMulticast.bind(new InetSocketAddress(group.getPort()));
+			openedMulticast.join(group.getAddress(), networkInterface);
+			openedUnicast = DatagramChannel.open(family);
+			openedUnicast.bind(new InetSocketAddress(interfaceAddress(family), 0));
+			openedUnicast.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+			//Other nodes on the same host, and this one, must see what goes to the group
+			openedUnicast.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+			openedSelector = Selector.open();
+			openedMulticast.configureBlocking(false);
+			openedUnicast.configureBlocking(false);
+			openedMulticast.register(openedSelector, SelectionKey.OP_READ);
+			openedUnicast.register(openedSelector, SelectionKey.OP_READ);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			close(openedSelector, openedMulticast, openedUnicast);
+			throw e;
+		}
+		multicast = openedMulticast;
+		selector = openedSelector;
+		unicast = openedUnicast;
+		addresses.put(getSelf().toString(), (InetSocketAddress) openedUnicast.getLocalAddress());
+		Selector receiving = openedSelector;
+		receiver = new Thread(() -> receiveLoop(receiving), "multicast-" + getSelf());
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	/**
+	 * Leave the group and close both sockets
+	 */
+	@Override
+	protected synchronized void disconnect()
+	{
+		close(selector, multicast, unicast);
+		if (receiver != null && receiver != Thread.currentThread())
+		{
+			try
+			{
+				receiver.join(1000);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		selector = null;
+		multicast = null;
+		unicast = null;
+		receiver = null;
+		//The next connection has a new port, and so may the other nodes by then
+		addresses.clear();
+	}
+
+	/**
+	 * Send a message to its node directly if its address is known, otherwise to the group
+	 * @param routingKey the node to send the message to, or {@link #BROADCAST_ROUTING_KEY} for every node
+	 * @param request the request to send
+	 * @throws IOException if not connected or the message doesn't fit in a datagram
+	 */
+	@Override
+	protected void publish(String routingKey, Request<T> request) throws IOException
+	{
+		byte[] body = encode(codec, request);
+		boolean broadcast = BROADCAST_ROUTING_KEY.equals(routingKey);
+		InetSocketAddress target = broadcast ? null : addresses.get(routingKey);
+		byte[] key = broadcast ? null : routingKeys.computeIfAbsent(routingKey, k -> k.getBytes(StandardCharsets.UTF_8));
+		int keyLength = key == null ? 0 : key.length;
+		if (keyLength > MAX_KEY || 1 + keyLength + body.length > MAX_DATAGRAM)
+		{
+			throw new IOException(request.getType() + " to " + routingKey + " does not fit in a datagram");
+		}
+		DatagramChannel channel = unicast;
+		if (channel == null)
+		{
+			throw new IOException("Not connected");
+		}
+		synchronized (sendBuffer)
+		{
+			sendBuffer.clear();
+			sendBuffer.put((byte) keyLength);
+			if (key != null) sendBuffer.put(key);
+			sendBuffer.put(body);
+			sendBuffer.flip();
+			//A non-blocking send with the buffer full sends nothing; heartbeats and gossip are resent anyway
+			if (channel.send(sendBuffer, target == null ? group : target) == 0)
+			{
+				dropped.incrementAndGet();
+				LOG.debug("{} dropped {} to {}, the send buffer is full", getSelf(), request.getType(), routingKey);
+			}
+		}
+	}
+
+	private void receiveLoop(Selector selector)
+	{
+		try
+		{
+			while (selector.isOpen())
+			{
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid() && key.isReadable())
+					{
+						readAll((DatagramChannel) key.channel());
+					}
+				}
+			}
+		}
+		catch (ClosedSelectorException e)
+		{
+			//Disconnected
+		}
+		catch (IOException e)
+		{
+			if (selector.isOpen())
+			{
+				LOG.warn("{} stopped receiving", getSelf(), e);
+			}
+		}
+	}
+
+	private void readAll(DatagramChannel channel) throws IOException
+	{
+		SocketAddress from;
+		receiveBuffer.clear();
+		while ((from = channel.receive(receiveBuffer)) != null)
+		{
+			receiveBuffer.flip();
+			handleDatagram(receiveBuffer, from);
+			receiveBuffer.clear();
+		}
+	}
+
+	/**
+	 * Queue a datagram for the event loop if it is for this node, and remember where the sender can be reached
+	 * @param datagram the datagram
+	 * @param from the sender's unicast address
+	 */
+	private void handleDatagram(ByteBuffer datagram, SocketAddress from)
+	{
+		try
+		{
+			int keyLength = datagram.get() & 0xFF;
+			if (keyLength > datagram.remaining() || (keyLength != 0 && !isSelf(datagram, keyLength)))
+			{
+				return;
+			}
+			datagram.position(datagram.position() + keyLength);
+			byte[] body = new byte[datagram.remaining()];
+			datagram.get(body);
+			Request<T> request = decode(codec, body);
+			if (request.getRequestingID() != null && from instanceof InetSocketAddress)
+			{
+				addresses.put(request.getRequestingID().toString(), (InetSocketAddress) from);
+			}
+			receive(request);
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to handle a datagram from {}", getSelf(), from, e);
+		}
+	}
+
+	private boolean isSelf(ByteBuffer datagram, int keyLength)
+	{
+		if (keyLength != selfKey.length)
+		{
+			return false;
+		}
+		int start = datagram.position();
+		for (int i = 0; i < keyLength; i++)
+		{
+			if (datagram.get(start + i) != selfKey[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private InetAddress interfaceAddress(StandardProtocolFamily family) throws IOException
+	{
+		Enumeration<InetAddress> candidates = networkInterface.getInetAddresses();
+		while (candidates.hasMoreElements())
+		{
+			InetAddress candidate = candidates.nextElement();
+			if ((candidate instanceof Inet4Address) == (family == StandardProtocolFamily.INET))
+			{
+				return candidate;
+			}
+		}
+		throw new IOException(networkInterface.getName() + " has no address for " + group.getAddress());
+	}
+
+	private void close(AutoCloseable... closeables)
+	{
+		for (AutoCloseable closeable : closeables)
+		{
+			try
+			{
+				if (closeable != null) closeable.close();
+			}
+			catch (Exception e)
+			{
+				LOG.debug("{} failed to close {}", getSelf(), closeable, e);
+			}
+		}
+	}
+}
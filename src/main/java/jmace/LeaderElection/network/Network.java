@@ -4,87 +4,547 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import jmace.LeaderElection.messages.NodeLoad;
 import jmace.LeaderElection.task.ChangeSubscriber;
 
+/**
+ * The set of nodes on the network.
+ *
+ * Every node has an incarnation number that it raises when it needs to overrule an old removal of itself,
+ * so a removal only applies to the incarnation it was issued for.
+ * The epoch is a Lamport clock over membership changes, and the digest is an order independent hash
+ * of every node and incarnation that two nodes can compare to see if their networks agree.
+ *
+ * The membership is published as immutable {@link NetworkSnapshot}s. Reads never lock or copy;
+ * changes are serialized and build a new snapshot, so a reader always sees a consistent network.
+ *
+ * The leaders are the lowest nodes unless the head has assigned others with a {@link LeaderSelectionPolicy}.
+ */
 public class Network<T extends Comparable<T>>
 {
-	private final Set<T> network;
+	private final AtomicReference<NetworkSnapshot<T>> snapshot;
 	private final List<ChangeSubscriber> subscribers;
-	
+	private final AtomicLong epoch;
+	private final Object writeLock;
+	private volatile LeaderSelectionPolicy<T> leaderPolicy;
+	private volatile Assignment<T> assignment;
+
 	public Network()
 	{
-		this.network = new TreeSet<>();
-		this.subscribers = new ArrayList<>();
+		this.snapshot = new AtomicReference<>(new NetworkSnapshot<>());
+		this.subscribers = new CopyOnWriteArrayList<>();
+		this.epoch = new AtomicLong();
+		this.writeLock = new Object();
+		this.leaderPolicy = null;
+		this.assignment = null;
 	}
-	
+
 	public void addChangeSubscriber(ChangeSubscriber subscriber)
 	{
 		subscribers.add(subscriber);
 	}
-	
+
+	/**
+	 * Get the current state of the network
+	 * @return an immutable snapshot
+	 */
+	public NetworkSnapshot<T> getSnapshot()
+	{
+		return snapshot.get();
+	}
+
 	public boolean addNode(T node)
 	{
-		boolean changed = network.add(node);
-		if (changed) alertSubscribers();
-		return changed;
+		return addNode(node, 0);
 	}
-	
+
+	/**
+	 * Add a node, or update its incarnation if the given one is newer
+	 * @param node the node to add
+	 * @param incarnation the node's incarnation number
+	 * @return true if the network changed
+	 */
+	public boolean addNode(T node, long incarnation)
+	{
+		Long known = snapshot.get().getIncarnation(node);
+		if (known != null && known >= incarnation)
+		{
+			return false;
+		}
+		Edit edit;
+		synchronized (writeLock)
+		{
+			edit = new Edit();
+			edit.put(node, incarnation);
+			edit.commit();
+		}
+		return edit.publish();
+	}
+
 	public boolean addAllNodes(Collection<T> nodes)
 	{
-		boolean changed = network.addAll(nodes); 
-		if (changed) alertSubscribers();
+		Edit edit;
+		synchronized (writeLock)
+		{
+			edit = new Edit();
+			for (T node : nodes)
+			{
+				if (!edit.contains(node)) edit.put(node, 0);
+			}
+			edit.commit();
+		}
+		return edit.publish();
+	}
+
+	/**
+	 * Add nodes, or update their incarnations where the given ones are newer
+	 * @param members the nodes to add mapped to their incarnations
+	 * @return the entries that changed the network
+	 */
+	public SortedMap<T, Long> addAllMembers(Map<T, Long> members)
+	{
+		SortedMap<T, Long> changed = new TreeMap<>();
+		NetworkSnapshot<T> current = snapshot.get();
+		boolean stale = true;
+		for (Map.Entry<T, Long> member : members.entrySet())
+		{
+			Long known = current.getIncarnation(member.getKey());
+			stale &= known != null && known >= member.getValue();
+		}
+		if (stale)
+		{
+			//The common case for heartbeats, nothing to write
+			return changed;
+		}
+		Edit edit;
+		synchronized (writeLock)
+		{
+			edit = new Edit();
+			for (Map.Entry<T, Long> member : members.entrySet())
+			{
+				if (edit.put(member.getKey(), member.getValue()))
+				{
+					changed.put(member.getKey(), member.getValue());
+				}
+			}
+			edit.commit();
+		}
+		edit.publish();
 		return changed;
 	}
-	
+
 	public boolean removeAllNodes(Collection<T> nodes)
 	{
-		boolean changed = network.removeAll(nodes);
-		if (changed) alertSubscribers();
-		return changed;
+		Edit edit;
+		synchronized (writeLock)
+		{
+			edit = new Edit();
+			for (T node : nodes)
+			{
+				edit.remove(node, Long.MAX_VALUE);
+			}
+			edit.commit();
+		}
+		return edit.publish();
 	}
-	
+
+	/**
+	 * Remove nodes whose incarnation is not newer than the given one
+	 * @param members the nodes to remove mapped to the incarnation being removed
+	 * @return true if the network changed
+	 */
+	public boolean removeAllMembers(Map<T, Long> members)
+	{
+		Edit edit;
+		synchronized (writeLock)
+		{
+			edit = new Edit();
+			for (Map.Entry<T, Long> member : members.entrySet())
+			{
+				edit.remove(member.getKey(), member.getValue());
+			}
+			edit.commit();
+		}
+		return edit.publish();
+	}
+
 	public boolean removeNode(T node)
 	{
-		boolean changed = network.remove(node);
-		if (changed) alertSubscribers();
-		return changed;
+		Edit edit;
+		synchronized (writeLock)
+		{
+			edit = new Edit();
+			edit.remove(node, Long.MAX_VALUE);
+			edit.commit();
+		}
+		return edit.publish();
 	}
-	
+
 	public void replace(Collection<T> nodes)
 	{
-		network.clear();
-		addAllNodes(nodes);
+		NetworkSnapshot<T> current = snapshot.get();
+		SortedMap<T, Long> members = new TreeMap<>();
+		for (T node : nodes)
+		{
+			Long known = current.getIncarnation(node);
+			members.put(node, known == null ? 0L : known);
+		}
+		replaceMembers(members);
+	}
+
+	/**
+	 * Replace the whole network. Incarnations already known to be newer are kept.
+	 * @param members the new nodes mapped to their incarnations
+	 */
+	public void replaceMembers(Map<T, Long> members)
+	{
+		Edit edit;
+		synchronized (writeLock)
+		{
+			edit = new Edit();
+			for (T node : snapshot.get().getNodes())
+			{
+				if (!members.containsKey(node))
+				{
+					edit.remove(node, Long.MAX_VALUE);
+				}
+			}
+			for (Map.Entry<T, Long> member : members.entrySet())
+			{
+				edit.put(member.getKey(), member.getValue());
+			}
+			edit.commit();
+		}
+		edit.publish();
 	}
-	
+
+	/**
+	 * Get the nodes on the network
+	 * @return an unmodifiable, sorted view of the current snapshot
+	 */
 	public Set<T> getNodes()
 	{
-		return new TreeSet<>(network);
+		return snapshot.get().getNodes();
 	}
-	
+
+	/**
+	 * Get all nodes along with their incarnations
+	 * @return an unmodifiable, sorted view of the current snapshot
+	 */
+	public SortedMap<T, Long> getMembers()
+	{
+		return snapshot.get().getMembers();
+	}
+
+	/**
+	 * Get the known incarnation of a node
+	 * @param node the node
+	 * @return the incarnation, or null if the node is not on the network
+	 */
+	public Long getIncarnation(T node)
+	{
+		return snapshot.get().getIncarnation(node);
+	}
+
 	public T getHeadNode()
 	{
-		if (isEmpty())
+		return snapshot.get().getHeadNode();
+	}
+
+	public boolean isEmpty()
+	{
+		return snapshot.get().isEmpty();
+	}
+
+	public int size()
+	{
+		return snapshot.get().size();
+	}
+
+	/**
+	 * Get the leaders of the network: the ones the head assigned that are still on it, or else the lowest numberOfLeaders nodes.
+	 * The result is cached until a change affects the leaders, so repeated calls don't allocate.
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @return an unmodifiable set of the leaders
+	 */
+	public Set<T> getLeaders(int numberOfLeaders)
+	{
+		NetworkSnapshot<T> current = snapshot.get();
+		Assignment<T> assigned = assignment;
+		if (assigned == null)
+		{
+			return current.getLeaders(numberOfLeaders);
+		}
+		Set<T> leaders = assigned.on(current);
+		//Should every assigned leader have left, fall back until the head assigns new ones
+		return leaders.isEmpty() ? current.getLeaders(numberOfLeaders) : leaders;
+	}
+
+	public LeaderSelectionPolicy<T> getLeaderSelectionPolicy()
+	{
+		return leaderPolicy;
+	}
+
+	/**
+	 * Set how the head chooses leaders. Should be the same on every node, as any of them may become head.
+	 * Not for ring mode, where the head doesn't hear every node's load; {@link jmace.LeaderElection.LeaderElection} rejects it there.
+	 * @param policy the policy, or null for the lowest nodes
+	 */
+	public void setLeaderSelectionPolicy(LeaderSelectionPolicy<T> policy)
+	{
+		this.leaderPolicy = policy;
+		if (policy == null)
+		{
+			assignLeaders(null);
+		}
+	}
+
+	/**
+	 * Run the leader selection policy and assign the leaders it chooses. Called by the head.
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param loads the last load each node reported
+	 * @return the assigned leaders, or null if there is no policy
+	 */
+	public Set<T> selectLeaders(int numberOfLeaders, Map<T, NodeLoad> loads)
+	{
+		LeaderSelectionPolicy<T> policy = leaderPolicy;
+		NetworkSnapshot<T> current = snapshot.get();
+		if (policy == null || current.isEmpty())
 		{
 			return null;
 		}
-		return Collections.min(network);
+		Assignment<T> assigned = assignment;
+		Set<T> incumbents = assigned == null ? Collections.emptySet() : assigned.on(current);
+		Set<T> leaders = policy.selectLeaders(current, numberOfLeaders, loads, incumbents);
+		assignLeaders(leaders);
+		return leaders;
 	}
-	
-	public boolean isEmpty()
+
+	/**
+	 * Get the leaders last assigned by the head, including any that have since left
+	 * @return the leaders, or null if they are the lowest nodes
+	 */
+	public Set<T> getAssignedLeaders()
 	{
-		return network.isEmpty();
+		Assignment<T> assigned = assignment;
+		return assigned == null ? null : assigned.leaders;
 	}
-	
-	public Set<T> getLeaders(int numberOfLeaders)
+
+	/**
+	 * Adopt the leaders chosen by the head, alerting subscribers if they changed
+	 * @param leaders the leaders, or null to go back to the lowest nodes
+	 * @return true if the assignment changed
+	 */
+	public boolean assignLeaders(Set<T> leaders)
 	{
-		return new TreeSet<>(new ArrayList<>(network).subList(0, Math.min(network.size(), numberOfLeaders)));
+		synchronized (writeLock)
+		{
+			Assignment<T> assigned = assignment;
+			Set<T> previous = assigned == null ? null : assigned.leaders;
+			if (leaders == null ? previous == null : leaders.equals(previous))
+			{
+				return false;
+			}
+			assignment = leaders == null ? null : new Assignment<>(leaders);
+		}
+		if (!isEmpty())
+		{
+			alertSubscribers();
+		}
+		return true;
 	}
-	
+
+	/**
+	 * Get the membership epoch. It increases on every local change and never falls behind an epoch seen from another node.
+	 * @return the epoch
+	 */
+	public long getEpoch()
+	{
+		return epoch.get();
+	}
+
+	/**
+	 * Advance the epoch to at least the given one
+	 * @param remoteEpoch an epoch received from another node
+	 */
+	public void observeEpoch(long remoteEpoch)
+	{
+		if (remoteEpoch > epoch.get())
+		{
+			epoch.accumulateAndGet(remoteEpoch, Math::max);
+		}
+	}
+
+	/**
+	 * Get a hash of every node and incarnation, equal on two nodes when their networks match
+	 * @return the digest
+	 */
+	public long getDigest()
+	{
+		return snapshot.get().getDigest();
+	}
+
+	private static long memberHash(Object node, long incarnation)
+	{
+		return memberHash(node.hashCode(), incarnation);
+	}
+
+	static long memberHash(int nodeHash, long incarnation)
+	{
+		//Spread the bits so the sum is not dominated by a few hash codes
+		long hash = nodeHash * 0x9E3779B97F4A7C15L + incarnation;
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
 	private void alertSubscribers()
 	{
 		subscribers.forEach(s -> s.handleChange());
 	}
+
+	/**
+	 * Leaders assigned by the head, along with the ones still on the network as of the last snapshot they were checked against
+	 */
+	private static final class Assignment<T extends Comparable<T>>
+	{
+		private final Set<T> leaders;
+		private volatile Checked<T> checked;
+
+		private Assignment(Set<T> leaders)
+		{
+			this.leaders = Collections.unmodifiableSet(new TreeSet<>(leaders));
+		}
+
+		private Set<T> on(NetworkSnapshot<T> network)
+		{
+			Checked<T> last = checked;
+			if (last != null && last.network == network)
+			{
+				return last.present;
+			}
+			Set<T> present = new TreeSet<>();
+			for (T leader : leaders)
+			{
+				if (network.contains(leader)) present.add(leader);
+			}
+			present = present.size() == leaders.size() ? leaders : Collections.unmodifiableSet(present);
+			checked = new Checked<>(network, present);
+			return present;
+		}
+	}
+
+	private static final class Checked<T extends Comparable<T>>
+	{
+		private final NetworkSnapshot<T> network;
+		private final Set<T> present;
+
+		private Checked(NetworkSnapshot<T> network, Set<T> present)
+		{
+			this.network = network;
+			this.present = present;
+		}
+	}
+
+	/**
+	 * A set of changes to the current snapshot. The members are only copied once something actually changes.
+	 * Must be built and committed while holding the write lock.
+	 */
+	private class Edit
+	{
+		private final NetworkSnapshot<T> base;
+		private TreeMap<T, Long> members;
+		private long digest;
+		private final List<T> joinedOrLeft;
+
+		private Edit()
+		{
+			this.base = snapshot.get();
+			this.members = null;
+			this.digest = base.getDigest();
+			this.joinedOrLeft = new ArrayList<>();
+		}
+
+		private boolean contains(T node)
+		{
+			return get(node) != null;
+		}
+
+		private Long get(T node)
+		{
+			return members == null ? base.getIncarnation(node) : members.get(node);
+		}
+
+		private boolean put(T node, long incarnation)
+		{
+			Long known = get(node);
+			if (known != null && known >= incarnation)
+			{
+				return false;
+			}
+			copyOnWrite();
+			if (known != null) digest -= memberHash(node, known);
+			else joinedOrLeft.add(node);
+			members.put(node, incarnation);
+			digest += memberHash(node, incarnation);
+			return true;
+		}
+
+		private boolean remove(T node, long incarnation)
+		{
+			Long known = get(node);
+			if (known == null || known > incarnation)
+			{
+				return false;
+			}
+			copyOnWrite();
+			members.remove(node);
+			digest -= memberHash(node, known);
+			joinedOrLeft.add(node);
+			return true;
+		}
+
+		private void copyOnWrite()
+		{
+			if (members == null)
+			{
+				members = new TreeMap<>(base.getMembers());
+			}
+		}
+
+		private void commit()
+		{
+			if (members == null)
+			{
+				return;
+			}
+			epoch.incrementAndGet();
+			snapshot.set(new NetworkSnapshot<>(base.getVersion() + 1, members, digest, base.leadersUnaffectedBy(joinedOrLeft)));
+		}
+
+		/**
+		 * Alert subscribers if nodes joined or left. Called after the write lock is released.
+		 * @return true if the snapshot changed
+		 */
+		private boolean publish()
+		{
+			if (!joinedOrLeft.isEmpty())
+			{
+				alertSubscribers();
+			}
+			return members != null;
+		}
+	}
 }
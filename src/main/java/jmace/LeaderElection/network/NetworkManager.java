@@ -2,13 +2,57 @@ package jmace.LeaderElection.network;
 
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import jmace.LeaderElection.detector.FailureDetector;
+import jmace.LeaderElection.messages.NodeLoad;
+import jmace.LeaderElection.metrics.ElectionMetrics;
+import jmace.LeaderElection.task.EventLoop;
+import jmace.LeaderElection.task.TaskScheduler;
 
 public abstract class NetworkManager<T extends Comparable<T>>
 {
+	/**
+	 * Contact time before any message has been received
+	 */
+	public static final long NO_CONTACT = Long.MIN_VALUE;
+	
 	private Network<T> network;
+	private final EventLoop eventLoop;
+	private volatile ElectionMetrics metrics;
+	private volatile FailureDetector<T> failureDetector;
+	private volatile QuorumTracker<T> quorum;
+	private volatile Supplier<NodeLoad> loadReporter;
+	private volatile long lastHeadContactNanos;
+	//The head last heard from, the longest it has gone between messages,
+	//and when the previous head was last heard from if it failed over to this one; only touched on the event loop
+	private T contactedHead;
+	private long contactedHeadGapNanos;
+	private long failoverStartNanos;
+	private volatile long lastPeerContactNanos;
 	public NetworkManager()
+	{
+		this(TaskScheduler.shared()::execute);
+	}
+	
+	/**
+	 * Constructor
+	 * @param eventExecutor the threads this manager's event loop runs on
+	 */
+	protected NetworkManager(Executor eventExecutor)
 	{
 		this.network = new Network<>();
+		this.eventLoop = new EventLoop(eventExecutor);
+		this.metrics = ElectionMetrics.NOOP;
+		this.failureDetector = null;
+		this.quorum = null;
+		this.loadReporter = null;
+		this.lastHeadContactNanos = NO_CONTACT;
+		this.contactedHead = null;
+		this.contactedHeadGapNanos = 0;
+		this.failoverStartNanos = NO_CONTACT;
+		this.lastPeerContactNanos = NO_CONTACT;
 	}
 	
 	public final Network<T> getNetwork()
@@ -16,6 +60,218 @@ public abstract class NetworkManager<T extends Comparable<T>>
 		return this.network;
 	}
 	
+	/**
+	 * Get the loop every change to this node's election state runs on: incoming messages, timers,
+	 * and the application's calls, so none of them ever run at the same time
+	 * @return the event loop
+	 */
+	public final EventLoop getEventLoop()
+	{
+		return this.eventLoop;
+	}
+	
+	/**
+	 * Get where this manager, and the election using it, record their measurements
+	 * @return the metrics, no-op unless set
+	 */
+	public final ElectionMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	public final void setMetrics(ElectionMetrics metrics)
+	{
+		this.metrics = metrics == null ? ElectionMetrics.NOOP : metrics;
+	}
+	
+	/**
+	 * Get the failure detector fed with the heartbeats this manager receives
+	 * @return the failure detector, or null if none has been set
+	 */
+	public final FailureDetector<T> getFailureDetector()
+	{
+		return this.failureDetector;
+	}
+	
+	public final void setFailureDetector(FailureDetector<T> failureDetector)
+	{
+		this.failureDetector = failureDetector;
+	}
+	
+	/**
+	 * Get the tracker that makes removals and claims to lead need a majority
+	 * @return the tracker, or null if quorum mode is off
+	 */
+	public final QuorumTracker<T> getQuorum()
+	{
+		return this.quorum;
+	}
+	
+	/**
+	 * Turn quorum mode on or off. Must be the same on every node.
+	 * @param quorum the tracker, or null for no quorum
+	 */
+	public final void setQuorum(QuorumTracker<T> quorum)
+	{
+		this.quorum = quorum;
+	}
+	
+	/**
+	 * Get what this node reports about its capacity and load with its still alive responses and heartbeats
+	 * @return the reporter, or null if the node doesn't report a load
+	 */
+	public final Supplier<NodeLoad> getLoadReporter()
+	{
+		return this.loadReporter;
+	}
+	
+	/**
+	 * Report this node's capacity and load to the head, for a {@link LeaderSelectionPolicy} to place leaders by
+	 * @param loadReporter called whenever the node answers a poll or sends a heartbeat, so it should be cheap; or null
+	 */
+	public final void setLoadReporter(Supplier<NodeLoad> loadReporter)
+	{
+		this.loadReporter = loadReporter;
+	}
+	
+	/**
+	 * Get this node's current load
+	 * @return the load, or null if the node doesn't report one
+	 */
+	protected final NodeLoad currentLoad()
+	{
+		Supplier<NodeLoad> reporter = loadReporter;
+		return reporter == null ? null : reporter.get();
+	}
+	
+	/**
+	 * Get the last time this node knew its view of the network was backed by a majority:
+	 * when the head last heard from a majority, or when another node last heard the head say it had.
+	 * @return the time, or {@link #NO_CONTACT}. Always now when quorum mode is off.
+	 */
+	public final long getLastQuorumNanos()
+	{
+		QuorumTracker<T> current = quorum;
+		if (current == null)
+		{
+			return System.nanoTime();
+		}
+		if (Boolean.TRUE.equals(isHead()))
+		{
+			return current.getQuorumNanos(network.getNodes(), getSelf());
+		}
+		return current.getHeadConfirmedNanos();
+	}
+	
+	/**
+	 * Check that this node's view of the network is backed by a majority, so it may act as head or leader
+	 * @return true if so, or if quorum mode is off
+	 */
+	public final boolean hasQuorum()
+	{
+		QuorumTracker<T> current = quorum;
+		return current == null || current.isFresh(getLastQuorumNanos());
+	}
+	
+	/**
+	 * Note that a message arrived from another node
+	 * @param from the node that sent it
+	 */
+	protected final void recordContact(T from)
+	{
+		if (from == null || from.equals(getSelf()))
+		{
+			return;
+		}
+		lastPeerContactNanos = System.nanoTime();
+		QuorumTracker<T> current = quorum;
+		if (current != null)
+		{
+			current.contact(from);
+		}
+	}
+	
+	/**
+	 * Note a message from the head once it has been applied, and time failovers in every heartbeat mode.
+	 * A failover is a head that went quiet and left this node's view, and a new head taking over.
+	 * It is timed from the last message from the old head to the first message from the new one
+	 * that shows the same view as this node. Heads that change while nodes are still joining haven't gone quiet,
+	 * and a head that leaves gracefully hands over within a heartbeat, so neither counts.
+	 * @param from the node that sent it
+	 * @param digest the digest of the sender's view, or 0 if the message doesn't carry one
+	 */
+	protected final void recordHeadContact(T from, long digest)
+	{
+		NetworkSnapshot<T> snapshot = network.getSnapshot();
+		if (from == null || from.equals(getSelf()) || !from.equals(snapshot.getHeadNode()))
+		{
+			return;
+		}
+		long now = System.nanoTime();
+		if (!from.equals(contactedHead))
+		{
+			failoverStartNanos = contactedHead != null && !snapshot.contains(contactedHead) && contactedHeadGapNanos > 0
+					&& now - lastHeadContactNanos > 2 * contactedHeadGapNanos ? lastHeadContactNanos : NO_CONTACT;
+			contactedHead = from;
+			contactedHeadGapNanos = 0;
+		}
+		else
+		{
+			contactedHeadGapNanos = Math.max(contactedHeadGapNanos, now - lastHeadContactNanos);
+		}
+		if (failoverStartNanos != NO_CONTACT && digest != 0 && digest == snapshot.getDigest())
+		{
+			metrics.headFailover(now - failoverStartNanos);
+			failoverStartNanos = NO_CONTACT;
+		}
+		lastHeadContactNanos = now;
+	}
+	
+	/**
+	 * Check if the transport can currently reach the other nodes.
+	 * While it can't, missing heartbeats say nothing about them, so nobody should be removed.
+	 * @return false while the transport is down or reconnecting
+	 */
+	public boolean isConnected()
+	{
+		return true;
+	}
+	
+	/**
+	 * Drop what the failure detector knows about every node, e.g. after the transport reconnects,
+	 * so the silence while it was down doesn't count against them
+	 */
+	protected final void forgetContacts()
+	{
+		eventLoop.runInLoop(() -> {
+			FailureDetector<T> detector = failureDetector;
+			if (detector == null)
+			{
+				return;
+			}
+			for (T node : network.getNodes())
+			{
+				detector.remove(node);
+			}
+		});
+	}
+	
+	/**
+	 * @return the {@link System#nanoTime()} of the last message from the head, or {@link #NO_CONTACT}
+	 */
+	public final long getLastHeadContactNanos()
+	{
+		return lastHeadContactNanos;
+	}
+	
+	/**
+	 * @return the {@link System#nanoTime()} of the last message from any other node, or {@link #NO_CONTACT}
+	 */
+	public final long getLastPeerContactNanos()
+	{
+		return lastPeerContactNanos;
+	}
+	
 	public abstract T getSelf();
 	public abstract T getHead();
 	public abstract Boolean isHead();
@@ -23,8 +279,25 @@ public abstract class NetworkManager<T extends Comparable<T>>
 	public abstract boolean isHeadUp();
 	public abstract Set<T> getUpNodes();
 	public abstract void pollForNodes();
+	/**
+	 * Push an unsolicited heartbeat
+	 * @param node the node to send it to, or null for every node
+	 */
+	public abstract void sendHeartbeat(T node);
 	public abstract void broadcastNetwork();
 	public abstract void broadcastRemoveFromNetwork(Set<T> nodes);
+	
+	/**
+	 * Have nodes the failure detector suspects removed.
+	 * In quorum mode this first gathers the agreement of a majority; otherwise the nodes are removed straight away.
+	 * @param nodes the suspected nodes
+	 */
+	public abstract void removeSuspected(Set<T> nodes);
+	
+	/**
+	 * Announce that this node is leaving the network, so its roles pass on without waiting for it to be suspected
+	 */
+	public abstract void leave();
 	public abstract void start();
 	public abstract void stop();
 }
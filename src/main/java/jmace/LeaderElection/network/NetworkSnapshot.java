@@ -0,0 +1,192 @@
+package jmace.LeaderElection.network;
+
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An immutable view of the network at one point in time.
+ * Safe to share between threads and to hold on to; later changes to the network publish a new snapshot.
+ */
+public final class NetworkSnapshot<T extends Comparable<T>>
+{
+	private final long version;
+	private final SortedMap<T, Long> members;
+	private final NavigableMap<T, Long> navigable;
+	private final SortedSet<T> nodes;
+	private final long digest;
+	private final T head;
+	private volatile Leaders<T> leaders;
+	/**
+	 * The members as a {@link LongMembership} when the IDs are longs, built on first use
+	 */
+	volatile LongMembership longMembership;
+
+	NetworkSnapshot()
+	{
+		this(0, new TreeMap<>(), 0, null);
+	}
+	
+	/**
+	 * @return a snapshot of a network no node has joined, with version 0
+	 */
+	public static <T extends Comparable<T>> NetworkSnapshot<T> empty()
+	{
+		return new NetworkSnapshot<>();
+	}
+
+	NetworkSnapshot(long version, TreeMap<T, Long> members, long digest, Leaders<T> leaders)
+	{
+		this.version = version;
+		this.members = Collections.unmodifiableSortedMap(members);
+		this.navigable = members;
+		this.nodes = Collections.unmodifiableSortedSet(members.navigableKeySet());
+		this.digest = digest;
+		this.head = members.isEmpty() ? null : members.firstKey();
+		this.leaders = leaders;
+	}
+
+	/**
+	 * @return a number that increases with every change published by the network
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return the nodes mapped to their incarnations
+	 */
+	public SortedMap<T, Long> getMembers()
+	{
+		return members;
+	}
+
+	/**
+	 * @return the nodes, in order
+	 */
+	public SortedSet<T> getNodes()
+	{
+		return nodes;
+	}
+
+	public Long getIncarnation(T node)
+	{
+		return members.get(node);
+	}
+
+	public boolean contains(T node)
+	{
+		return members.containsKey(node);
+	}
+
+	public int size()
+	{
+		return members.size();
+	}
+
+	public boolean isEmpty()
+	{
+		return members.isEmpty();
+	}
+
+	public long getDigest()
+	{
+		return digest;
+	}
+
+	public T getHeadNode()
+	{
+		return head;
+	}
+
+	/**
+	 * Get the next node after the given one, wrapping around to the first, as in a ring of the sorted nodes
+	 * @param node any node, it doesn't need to be on the network
+	 * @return the successor, or null if the network is empty
+	 */
+	public T getSuccessor(T node)
+	{
+		T next = navigable.higherKey(node);
+		return next != null ? next : head;
+	}
+	
+	/**
+	 * Get the node before the given one, wrapping around to the last, as in a ring of the sorted nodes
+	 * @param node any node, it doesn't need to be on the network
+	 * @return the predecessor, or null if the network is empty
+	 */
+	public T getPredecessor(T node)
+	{
+		T previous = navigable.lowerKey(node);
+		return previous != null || navigable.isEmpty() ? previous : navigable.lastKey();
+	}
+	
+	/**
+	 * Get the lowest numberOfLeaders nodes. Computed once per snapshot and number of leaders.
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @return an unmodifiable set of the leaders
+	 */
+	public Set<T> getLeaders(int numberOfLeaders)
+	{
+		Leaders<T> current = leaders;
+		if (current == null || current.requested != numberOfLeaders)
+		{
+			current = new Leaders<>(members, numberOfLeaders);
+			leaders = current;
+		}
+		return current.nodes;
+	}
+
+	/**
+	 * Get the leaders this snapshot has computed, if they are still valid after the given nodes join or leave
+	 * @param changed the nodes that joined or left
+	 * @return the leaders, or null if they need to be computed again
+	 */
+	Leaders<T> leadersUnaffectedBy(Iterable<T> changed)
+	{
+		Leaders<T> current = leaders;
+		if (current == null || current.nodes.size() < current.requested)
+		{
+			return null;
+		}
+		for (T node : changed)
+		{
+			if (current.last != null && node.compareTo(current.last) <= 0)
+			{
+				return null;
+			}
+		}
+		return current;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "v" + version + " " + members.keySet();
+	}
+
+	static final class Leaders<T extends Comparable<T>>
+	{
+		private final int requested;
+		private final Set<T> nodes;
+		private final T last;
+
+		private Leaders(SortedMap<T, Long> members, int requested)
+		{
+			TreeSet<T> computed = new TreeSet<>();
+			for (T node : members.keySet())
+			{
+				if (computed.size() >= requested) break;
+				computed.add(node);
+			}
+			this.requested = requested;
+			this.nodes = Collections.unmodifiableSet(computed);
+			this.last = computed.isEmpty() ? null : computed.last();
+		}
+	}
+}
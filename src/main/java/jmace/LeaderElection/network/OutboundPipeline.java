@@ -0,0 +1,312 @@
+package jmace.LeaderElection.network;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jmace.LeaderElection.messages.RequestType;
+import jmace.LeaderElection.messages.codec.BatchFrame;
+import jmace.LeaderElection.task.TaskScheduler;
+
+/**
+ * Collects outgoing messages for a short window and sends everything queued for a routing key as one batch.
+ *
+ * Messages for a routing key keep their order. A message with a coalesce key replaces a queued message with
+ * the same key, e.g. a newer heartbeat to the same head. Membership changes are sent straight away, after
+ * everything queued before them, so they are never reordered or delayed. When the queue is full the caller
+ * flushes it on its own thread rather than messages being dropped.
+ *
+ * Batches are sent outside the lock, so a slow send never blocks a thread queueing a message. One thread sends
+ * at a time, in the order batches were flushed; a flush while another thread is sending hands its batches over
+ * to that thread instead of waiting for it.
+ */
+public class OutboundPipeline
+{
+	private static final Logger LOG = LoggerFactory.getLogger(OutboundPipeline.class);
+	/**
+	 * Where batches end up, e.g. a RabbitMQ channel
+	 */
+	public interface Sink
+	{
+		/**
+		 * Send queued messages for one routing key
+		 * @param routingKey the routing key
+		 * @param entries the messages, in the order they were queued
+		 * @throws IOException
+		 */
+		public void send(String routingKey, List<BatchFrame.Entry> entries) throws IOException;
+	}
+
+	private final Sink sink;
+	private final long windowMS;
+	private final int maxQueued;
+	private final TaskScheduler scheduler;
+	private final Map<String, Batch> queued;
+	private int queuedCount;
+	private boolean flushScheduled;
+	//Flushed batches waiting for the sending thread
+	private final Deque<Map.Entry<String, List<BatchFrame.Entry>>> ready;
+	private boolean sending;
+	private final AtomicLong enqueuedMessages;
+	private final AtomicLong coalescedMessages;
+	private final AtomicLong sentMessages;
+	private final AtomicLong sentBatches;
+	private final AtomicLong backPressureFlushes;
+	private final AtomicLong sendFailures;
+	private volatile int maxQueueDepth;
+
+	/**
+	 * Constructor
+	 *
+	 * @param sink where batches are sent
+	 * @param windowMS how long a message can wait for others to the same routing key
+	 * @param maxQueued the most messages that can wait at once before the caller has to flush
+	 * @param scheduler runs the window timer
+	 */
+	public OutboundPipeline(Sink sink, long windowMS, int maxQueued, TaskScheduler scheduler)
+	{
+		this.sink = sink;
+		this.windowMS = windowMS;
+		this.maxQueued = maxQueued;
+		this.scheduler = scheduler;
+		this.queued = new LinkedHashMap<>();
+		this.queuedCount = 0;
+		this.flushScheduled = false;
+		this.ready = new ArrayDeque<>();
+		this.sending = false;
+		this.enqueuedMessages = new AtomicLong();
+		this.coalescedMessages = new AtomicLong();
+		this.sentMessages = new AtomicLong();
+		this.sentBatches = new AtomicLong();
+		this.backPressureFlushes = new AtomicLong();
+		this.sendFailures = new AtomicLong();
+		this.maxQueueDepth = 0;
+	}
+
+	/**
+	 * Check if a type of message can wait for the batching window
+	 * @param type the request type
+	 * @return false for membership changes, which are always sent straight away
+	 */
+	public static boolean canDefer(RequestType type)
+	{
+		switch (type)
+		{
+			case POLL_NODES:
+			case STILL_ALIVE:
+			case SYNC_REQUEST:
+			case HEARTBEAT:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Queue a message
+	 * @param routingKey the routing key
+	 * @param channel the channel within the transport message, e.g. an election group, or null
+	 * @param coalesceKey replaces a queued message for the same routing key and channel with the same key, or null to never coalesce
+	 * @param message the encoded message
+	 * @param urgent true to send this and everything queued before it now
+	 * @throws IOException if a flush on the caller's thread fails
+	 */
+	public void enqueue(String routingKey, String channel, String coalesceKey, byte[] message, boolean urgent) throws IOException
+	{
+		boolean flushNow;
+		synchronized (this)
+		{
+			enqueuedMessages.incrementAndGet();
+			Batch batch = queued.computeIfAbsent(routingKey, k -> new Batch());
+			if (batch.add(new BatchFrame.Entry(channel, message), coalesceKey))
+			{
+				coalescedMessages.incrementAndGet();
+			}
+			else
+			{
+				queuedCount++;
+				maxQueueDepth = Math.max(maxQueueDepth, queuedCount);
+			}
+			flushNow = urgent || queuedCount >= maxQueued;
+			if (!urgent && flushNow)
+			{
+				backPressureFlushes.incrementAndGet();
+			}
+			if (!flushNow && !flushScheduled)
+			{
+				flushScheduled = true;
+				scheduler.schedule(this::flushQuietly, windowMS);
+			}
+		}
+		if (flushNow)
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Send everything queued, or hand it to the thread already sending
+	 * @throws IOException if any routing key could not be sent, the others are still sent
+	 */
+	public void flush() throws IOException
+	{
+		synchronized (this)
+		{
+			flushScheduled = false;
+			for (Map.Entry<String, Batch> batch : queued.entrySet())
+			{
+				ready.add(new AbstractMap.SimpleImmutableEntry<>(batch.getKey(), batch.getValue().entries()));
+			}
+			queued.clear();
+			queuedCount = 0;
+			if (sending)
+			{
+				return;
+			}
+			sending = true;
+		}
+		IOException failure = null;
+		while (true)
+		{
+			Map.Entry<String, List<BatchFrame.Entry>> batch;
+			synchronized (this)
+			{
+				batch = ready.poll();
+				if (batch == null)
+				{
+					sending = false;
+					break;
+				}
+			}
+			try
+			{
+				sink.send(batch.getKey(), batch.getValue());
+				sentMessages.addAndGet(batch.getValue().size());
+				sentBatches.incrementAndGet();
+			}
+			catch (IOException e)
+			{
+				sendFailures.incrementAndGet();
+				failure = e;
+			}
+			catch (RuntimeException e)
+			{
+				synchronized (this)
+				{
+					sending = false;
+				}
+				throw e;
+			}
+		}
+		if (failure != null)
+		{
+			throw failure;
+		}
+	}
+
+	private void flushQuietly()
+	{
+		try
+		{
+			flush();
+		}
+		catch (IOException e)
+		{
+			LOG.warn("Failed to flush outbound batches", e);
+		}
+	}
+
+	/**
+	 * @return the number of messages waiting to be sent
+	 */
+	public synchronized int getQueueDepth()
+	{
+		return queuedCount;
+	}
+
+	/**
+	 * @return the most messages that have waited at once
+	 */
+	public int getMaxQueueDepth()
+	{
+		return maxQueueDepth;
+	}
+
+	public long getEnqueuedMessages()
+	{
+		return enqueuedMessages.get();
+	}
+
+	/**
+	 * @return the number of messages replaced by a newer one before being sent
+	 */
+	public long getCoalescedMessages()
+	{
+		return coalescedMessages.get();
+	}
+
+	public long getSentMessages()
+	{
+		return sentMessages.get();
+	}
+
+	/**
+	 * @return the number of transport messages sent, each holding one or more messages
+	 */
+	public long getSentBatches()
+	{
+		return sentBatches.get();
+	}
+
+	/**
+	 * @return the number of times a full queue made the caller flush on its own thread
+	 */
+	public long getBackPressureFlushes()
+	{
+		return backPressureFlushes.get();
+	}
+
+	public long getSendFailures()
+	{
+		return sendFailures.get();
+	}
+
+	/**
+	 * Messages queued for one routing key, in the order they were queued
+	 */
+	private static final class Batch
+	{
+		//Messages that never coalesce are keyed by an object of their own
+		private final Map<Object, BatchFrame.Entry> entries;
+
+		private Batch()
+		{
+			this.entries = new LinkedHashMap<>();
+		}
+
+		/**
+		 * Queue an entry last. One that coalesces moves to the end in place of the queued one,
+		 * so it is not sent ahead of messages queued after the one it replaces.
+		 * @return true if the entry replaced a queued one instead of being added
+		 */
+		private boolean add(BatchFrame.Entry entry, String coalesceKey)
+		{
+			Object key = coalesceKey == null ? new Object() : entry.getChannel() + '\u0000' + coalesceKey;
+			boolean replaced = entries.remove(key) != null;
+			entries.put(key, entry);
+			return replaced;
+		}
+
+		private List<BatchFrame.Entry> entries()
+		{
+			return new ArrayList<>(entries.values());
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package jmace.LeaderElection.network;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the evidence a node needs to act for a majority of the network, guarding against split brain.
+ *
+ * It remembers when every node was last heard from, so the head can tell whether a majority is still reachable,
+ * and when the head last said it could reach a majority, so other nodes can tell whether their head still counts.
+ * It also collects the acknowledgements for removing suspected nodes: a removal only goes ahead once a majority
+ * of the membership it was proposed against, counting the proposer, agrees the nodes have gone quiet.
+ * On the minority side of a partition neither can happen, so it can't elect a head or leaders of its own.
+ */
+public class QuorumTracker<T extends Comparable<T>>
+{
+	private final long windowNanos;
+	private final LongSupplier clock;
+	private final Map<T, Long> lastContact;
+	private final Map<T, Suspicion<T>> suspicions;
+	private volatile long headConfirmedNanos;
+
+	/**
+	 * Constructor
+	 * @param windowMS how long contact with a node, or a head's word that it has a majority, stays fresh.
+	 *					Should cover a few heartbeat intervals.
+	 */
+	public QuorumTracker(long windowMS)
+	{
+		this(windowMS, System::nanoTime);
+	}
+
+	QuorumTracker(long windowMS, LongSupplier clock)
+	{
+		if (windowMS <= 0)
+		{
+			throw new IllegalArgumentException("The quorum window must be positive");
+		}
+		this.windowNanos = windowMS * 1000000L;
+		this.clock = clock;
+		this.lastContact = new ConcurrentHashMap<>();
+		this.suspicions = new ConcurrentHashMap<>();
+		this.headConfirmedNanos = NetworkManager.NO_CONTACT;
+	}
+
+	/**
+	 * Get the number of nodes that make a majority
+	 * @param size the number of nodes on the network
+	 * @return more than half of them
+	 */
+	public static int majority(int size)
+	{
+		return size / 2 + 1;
+	}
+
+	/**
+	 * Note that a message arrived from a node
+	 * @param node the sender
+	 */
+	public void contact(T node)
+	{
+		lastContact.put(node, clock.getAsLong());
+	}
+
+	/**
+	 * Note that the head sent a message saying it could reach a majority
+	 */
+	public void headConfirmed()
+	{
+		headConfirmedNanos = clock.getAsLong();
+	}
+
+	public long getHeadConfirmedNanos()
+	{
+		return headConfirmedNanos;
+	}
+
+	/**
+	 * Check that nothing has been heard from a node for a whole window
+	 * @param node the node
+	 * @return true if the node has gone quiet
+	 */
+	public boolean isQuiet(T node)
+	{
+		Long last = lastContact.get(node);
+		return last == null || clock.getAsLong() - last >= windowNanos;
+	}
+
+	/**
+	 * Get the last time a majority of the members was heard from: the contact time of the majority-th most recent node
+	 * @param members the membership, including this node
+	 * @param self this node, which is always in contact with itself
+	 * @return the time, or {@link NetworkManager#NO_CONTACT} if a majority has never been heard from
+	 */
+	public long getQuorumNanos(Collection<T> members, T self)
+	{
+		long now = clock.getAsLong();
+		long[] contacts = new long[members.size()];
+		int count = 0;
+		for (T member : members)
+		{
+			Long last = member.equals(self) ? Long.valueOf(now) : lastContact.get(member);
+			if (last != null)
+			{
+				contacts[count++] = last;
+			}
+		}
+		int needed = majority(members.size());
+		if (count < needed)
+		{
+			return NetworkManager.NO_CONTACT;
+		}
+		Arrays.sort(contacts, 0, count);
+		return contacts[count - needed];
+	}
+
+	/**
+	 * Check that a time is recent enough to vouch for a majority
+	 * @param nanos a time from {@link #getQuorumNanos} or {@link #getHeadConfirmedNanos()}
+	 * @return true if it is within the window
+	 */
+	public boolean isFresh(long nanos)
+	{
+		return nanos != NetworkManager.NO_CONTACT && clock.getAsLong() - nanos < windowNanos;
+	}
+
+	/**
+	 * Start, or keep alive, a proposal to remove nodes. Proposals that have gone stale start over.
+	 * @param nodes the suspected nodes
+	 * @param self the proposing node, which counts towards the majority
+	 * @param membershipSize the size of the network the nodes are being removed from
+	 */
+	public void propose(Collection<T> nodes, T self, int membershipSize)
+	{
+		long now = clock.getAsLong();
+		for (T node : nodes)
+		{
+			Suspicion<T> existing = suspicions.get(node);
+			if (existing == null || now - existing.startedNanos >= windowNanos)
+			{
+				suspicions.put(node, new Suspicion<>(self, membershipSize, now));
+			}
+		}
+	}
+
+	/**
+	 * Record another node's agreement that a node has gone quiet
+	 * @param node the suspected node
+	 * @param from the node agreeing
+	 */
+	public void confirm(T node, T from)
+	{
+		Suspicion<T> suspicion = suspicions.get(node);
+		if (suspicion != null)
+		{
+			synchronized (suspicion)
+			{
+				suspicion.confirmedBy.add(from);
+			}
+		}
+	}
+
+	/**
+	 * Take the suspected nodes a majority has agreed on, ending their proposals
+	 * @return the nodes to remove, in order
+	 */
+	public Set<T> takeConfirmed()
+	{
+		Set<T> confirmed = new TreeSet<>();
+		for (Iterator<Map.Entry<T, Suspicion<T>>> it = suspicions.entrySet().iterator(); it.hasNext();)
+		{
+			Map.Entry<T, Suspicion<T>> entry = it.next();
+			if (entry.getValue().isConfirmed())
+			{
+				it.remove();
+				confirmed.add(entry.getKey());
+			}
+		}
+		return confirmed;
+	}
+
+	/**
+	 * Forget a node that has left the network
+	 * @param node the node
+	 */
+	public void remove(T node)
+	{
+		lastContact.remove(node);
+		suspicions.remove(node);
+	}
+
+	private static final class Suspicion<T>
+	{
+		private final Set<T> confirmedBy;
+		private final int needed;
+		private final long startedNanos;
+
+		private Suspicion(T proposer, int membershipSize, long startedNanos)
+		{
+			this.confirmedBy = new HashSet<>();
+			this.confirmedBy.add(proposer);
+			this.needed = majority(membershipSize);
+			this.startedNanos = startedNanos;
+		}
+
+		private synchronized boolean isConfirmed()
+		{
+			return confirmedBy.size() >= needed;
+		}
+	}
+}
@@ -0,0 +1,409 @@
+package jmace.LeaderElection.network;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jmace.LeaderElection.messages.RequestType;
+import jmace.LeaderElection.messages.codec.BatchFrame;
+import jmace.LeaderElection.messages.codec.MessageCodec;
+import jmace.LeaderElection.messages.codec.MessageCodecs;
+import jmace.LeaderElection.task.TaskScheduler;
+
+/**
+ * A single RabbitMQ connection, queue and consumer shared by any number of independent election groups.
+ * Every message carries its group in the {@link #GROUP_HEADER} header and is handed to that group's manager.
+ */
+public class RabbitMQGroupConnection<T extends Comparable<T>>
+{
+	private static final Logger LOG = LoggerFactory.getLogger(RabbitMQGroupConnection.class);
+	public static final String GROUP_HEADER = "group";
+	private static final String CONSUMER_TAG = "groupConsumer";
+
+	private final T id;
+	private final String queueHost;
+	private final String exchangeName;
+	private final MessageCodec<T> codec;
+	private final TaskScheduler scheduler;
+	private final Map<String, RabbitMQGroupNetworkManager<T>> groups;
+	private volatile Connection connection;
+	private Channel channel;
+	private volatile RabbitMQPublisher publisher;
+	private OutboundPipeline pipeline;
+	private int publishChannels;
+	private int maxInFlight;
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node in every group
+	 * @param queueHost the RabbitMQ host
+	 * @param exchangeName the RabbitMQ exchange
+	 */
+	public RabbitMQGroupConnection(T id, String queueHost, String exchangeName)
+	{
+		this(id, queueHost, exchangeName, MessageCodecs.forId(id));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node in every group
+	 * @param queueHost the RabbitMQ host
+	 * @param exchangeName the RabbitMQ exchange
+	 * @param codec the wire format, must be the same on every node
+	 */
+	public RabbitMQGroupConnection(T id, String queueHost, String exchangeName, MessageCodec<T> codec)
+	{
+		this(id, queueHost, exchangeName, codec, TaskScheduler.shared());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node in every group
+	 * @param queueHost the RabbitMQ host
+	 * @param exchangeName the RabbitMQ exchange
+	 * @param codec the wire format, must be the same on every node
+	 * @param scheduler runs every group's event loop and the batching window
+	 */
+	public RabbitMQGroupConnection(T id, String queueHost, String exchangeName, MessageCodec<T> codec, TaskScheduler scheduler)
+	{
+		this.id = id;
+		this.queueHost = queueHost;
+		this.exchangeName = exchangeName;
+		this.codec = codec;
+		this.scheduler = scheduler;
+		this.groups = new ConcurrentHashMap<>();
+		this.connection = null;
+		this.channel = null;
+		this.publisher = null;
+		this.pipeline = null;
+		this.publishChannels = RabbitMQPublisher.DEFAULT_CHANNELS;
+		this.maxInFlight = RabbitMQPublisher.DEFAULT_MAX_IN_FLIGHT;
+	}
+
+	/**
+	 * Set how many channels publish concurrently and how many messages may wait for a publisher confirm.
+	 * Must be called before any group starts.
+	 * @param channels the size of the publishing channel pool, shared by every group
+	 * @param maxInFlight the most unconfirmed messages, publishes fail beyond that
+	 */
+	public void setPublishing(int channels, int maxInFlight)
+	{
+		this.publishChannels = channels;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * @return false while the connection is down or recovering
+	 */
+	public boolean isConnected()
+	{
+		Connection current = connection;
+		return current != null && current.isOpen();
+	}
+
+	/**
+	 * Get the number of published messages the broker has yet to confirm
+	 * @return the count, 0 if not connected
+	 */
+	public int getUnconfirmed()
+	{
+		RabbitMQPublisher current = publisher;
+		return current == null ? 0 : current.getInFlight();
+	}
+
+	/**
+	 * Batch outgoing heartbeats and polls of every group instead of publishing each one on its own.
+	 * Must be called before any group starts.
+	 * @param windowMS how long a message can wait for others to the same node
+	 * @param maxQueued the most messages that can wait at once
+	 */
+	public void enableBatching(long windowMS, int maxQueued)
+	{
+		this.pipeline = new OutboundPipeline(this::sendBatch, windowMS, maxQueued, scheduler);
+	}
+
+	/**
+	 * Get the outbound batching pipeline, e.g. to read its queue metrics
+	 * @return the pipeline, or null if batching is not enabled
+	 */
+	public OutboundPipeline getOutboundPipeline()
+	{
+		return pipeline;
+	}
+
+	/**
+	 * Create the network manager for one election group on this connection
+	 * @param groupId the group, must be the same on every node in the group
+	 * @param numberOfLeaders the number of leaders allowed in the group
+	 * @return the manager
+	 */
+	public RabbitMQGroupNetworkManager<T> createGroup(String groupId, int numberOfLeaders)
+	{
+		return new RabbitMQGroupNetworkManager<>(this, groupId, numberOfLeaders);
+	}
+
+	public T getSelf()
+	{
+		return id;
+	}
+
+	MessageCodec<T> getCodec()
+	{
+		return codec;
+	}
+
+	TaskScheduler getScheduler()
+	{
+		return scheduler;
+	}
+
+	/**
+	 * Start receiving messages for a group, connecting first if needed
+	 * @param group the group's manager
+	 * @throws IOException
+	 */
+	synchronized void register(RabbitMQGroupNetworkManager<T> group) throws IOException
+	{
+		if (connection == null)
+		{
+			try
+			{
+				establishQueueConnection();
+			}
+			catch (TimeoutException e)
+			{
+				throw new IOException(e);
+			}
+		}
+		route(group);
+	}
+
+	/**
+	 * Hand messages for a group to its manager, without connecting
+	 * @param group the group's manager
+	 */
+	void route(RabbitMQGroupNetworkManager<T> group)
+	{
+		groups.put(group.getGroupId(), group);
+	}
+
+	/**
+	 * Stop receiving messages for a group. The connection stays open for the other groups.
+	 * @param group the group's manager
+	 */
+	void unregister(RabbitMQGroupNetworkManager<T> group)
+	{
+		groups.remove(group.getGroupId(), group);
+	}
+
+	boolean isRegistered(RabbitMQGroupNetworkManager<T> group)
+	{
+		return groups.get(group.getGroupId()) == group;
+	}
+
+	/**
+	 * Establishes the connections to RabbitMQ and sets up a consumer
+	 * @throws IOException
+	 * @throws TimeoutException
+	 */
+	private void establishQueueConnection() throws IOException, TimeoutException
+	{
+		ConnectionFactory factory = RabbitMQPublisher.connectionFactory(queueHost);
+        Connection opened = factory.newConnection();
+        try
+        {
+            RabbitMQPublisher.onRecovery(opened, () -> {
+            		LOG.info("{} reconnected to RabbitMQ", getSelf());
+            		groups.values().forEach(RabbitMQGroupNetworkManager::reconnected);
+            });
+            channel = opened.createChannel();
+            channel.exchangeDeclare(exchangeName, "topic");
+            String queueName = channel.queueDeclare().getQueue();
+            channel.queueBind(queueName, exchangeName, id.toString());
+            channel.queueBind(queueName, exchangeName, MessagingNetworkManager.BROADCAST_ROUTING_KEY);
+
+            Consumer consumer = new DefaultConsumer(channel)
+            {
+            		@Override
+            		public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+            			RabbitMQGroupConnection.this.handleDelivery(properties, body);
+            		}
+            };
+            channel.basicConsume(queueName, true, CONSUMER_TAG, consumer);
+            publisher = new RabbitMQPublisher(opened, exchangeName, publishChannels, maxInFlight, RabbitMQPublisher.DEFAULT_PUBLISH_TIMEOUT_MS);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            //Don't leave a half set up connection recovering in the background
+            opened.abort();
+            throw e;
+        }
+        connection = opened;
+	}
+
+	/**
+	 * Hand a message delivered by RabbitMQ to its group, or each message in a batch to its own group
+	 * @param properties the message properties, with the group header unless the message is a batch
+	 * @param body the raw message body
+	 */
+	void handleDelivery(AMQP.BasicProperties properties, byte[] body)
+	{
+		if (BatchFrame.isBatch(body))
+		{
+			handleBatch(body);
+			return;
+		}
+		Object group = properties == null || properties.getHeaders() == null ? null : properties.getHeaders().get(GROUP_HEADER);
+		if (group != null)
+		{
+			handleDelivery(group.toString(), body);
+		}
+	}
+
+	/**
+	 * Hand each message in a batch to its group
+	 * @param body the raw batch
+	 */
+	private void handleBatch(byte[] body)
+	{
+		try
+		{
+			for (BatchFrame.Entry entry : BatchFrame.decode(body))
+			{
+				handleDelivery(entry.getChannel(), entry.getMessage());
+			}
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} received a malformed batch", getSelf(), e);
+		}
+	}
+
+	/**
+	 * Hand a message body to its group
+	 * @param groupId the group from the message header
+	 * @param body the raw message body
+	 */
+	void handleDelivery(String groupId, byte[] body)
+	{
+		RabbitMQGroupNetworkManager<T> group = groups.get(groupId);
+		if (group != null)
+		{
+			group.handleDelivery(body);
+		}
+	}
+
+	/**
+	 * Send a message for a group, through the batching pipeline if it is enabled
+	 * @param groupId the group the message belongs to
+	 * @param routingKey the key to send a message through (e.g. the node to send a message to)
+	 * @param type the type of the message
+	 * @param body the encoded message
+	 * @throws IOException
+	 */
+	void publish(String groupId, String routingKey, RequestType type, byte[] body) throws IOException
+	{
+		if (pipeline == null)
+		{
+			publish(groupId, routingKey, body);
+		}
+		else
+		{
+			boolean defer = OutboundPipeline.canDefer(type);
+			pipeline.enqueue(routingKey, groupId, defer ? type.name() : null, body, !defer);
+		}
+	}
+
+	/**
+	 * Publish messages queued by the batching pipeline
+	 * @param routingKey the key to send the messages through
+	 * @param entries the queued messages, with their groups as the channel
+	 * @throws IOException
+	 */
+	private void sendBatch(String routingKey, List<BatchFrame.Entry> entries) throws IOException
+	{
+		if (entries.size() == 1)
+		{
+			publish(entries.get(0).getChannel(), routingKey, entries.get(0).getMessage());
+			return;
+		}
+		publisher().publish(routingKey, null, BatchFrame.encode(entries));
+	}
+
+	/**
+	 * Send a message for a group over RabbitMQ
+	 * @param groupId the group the message belongs to
+	 * @param routingKey the key to send a message through (e.g. the node to send a message to)
+	 * @param body the encoded message
+	 * @throws IOException
+	 */
+	private void publish(String groupId, String routingKey, byte[] body) throws IOException
+	{
+		AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+				.headers(Collections.<String, Object>singletonMap(GROUP_HEADER, groupId))
+				.build();
+		publisher().publish(routingKey, properties, body);
+	}
+
+	private RabbitMQPublisher publisher() throws IOException
+	{
+		RabbitMQPublisher current = publisher;
+		if (current == null)
+		{
+			throw new IOException("Not connected");
+		}
+		return current;
+	}
+
+	/**
+	 * Shuts down the connection to RabbitMQ for every group
+	 */
+	public void close()
+	{
+		groups.clear();
+		try
+		{
+			//Outside the lock, the pipeline takes its own lock before ours when sending
+			if (pipeline != null) pipeline.flush();
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to flush before closing", getSelf(), e);
+		}
+		closeConnection();
+	}
+
+	private synchronized void closeConnection()
+	{
+		try
+		{
+			if (publisher != null) publisher.close();
+			if (connection != null) connection.close();
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to close the connection", getSelf(), e);
+		}
+		finally
+		{
+			//Closing the connection closes its channels, and a closed connection never recovers
+			publisher = null;
+			channel = null;
+			connection = null;
+		}
+	}
+}
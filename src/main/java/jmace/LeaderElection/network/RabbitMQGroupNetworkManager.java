@@ -0,0 +1,88 @@
+package jmace.LeaderElection.network;
+
+import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jmace.LeaderElection.messages.Request;
+
+/**
+ * Network manager for one election group sharing a {@link RabbitMQGroupConnection} with other groups
+ */
+public class RabbitMQGroupNetworkManager<T extends Comparable<T>> extends MessagingNetworkManager<T>
+{
+	private static final Logger LOG = LoggerFactory.getLogger(RabbitMQGroupNetworkManager.class);
+	private final RabbitMQGroupConnection<T> connection;
+	private final String groupId;
+
+	/**
+	 * Constructor, use {@link RabbitMQGroupConnection#createGroup(String, int)}
+	 *
+	 * @param connection the shared connection
+	 * @param groupId the group
+	 * @param numberOfLeaders the number of leaders allowed in the group
+	 */
+	RabbitMQGroupNetworkManager(RabbitMQGroupConnection<T> connection, String groupId, int numberOfLeaders)
+	{
+		super(connection.getSelf(), numberOfLeaders, connection.getScheduler()::execute);
+		this.connection = connection;
+		this.groupId = groupId;
+	}
+
+	public String getGroupId()
+	{
+		return groupId;
+	}
+
+	@Override
+	protected void connect() throws IOException
+	{
+		if (isStopped() || connection.isRegistered(this))
+		{
+			return;
+		}
+		connection.register(this);
+	}
+
+	@Override
+	protected void disconnect()
+	{
+		connection.unregister(this);
+	}
+
+	@Override
+	public boolean isConnected()
+	{
+		return connection.isConnected();
+	}
+
+	/**
+	 * Called when the shared connection has recovered from a drop
+	 */
+	void reconnected()
+	{
+		forgetContacts();
+	}
+
+	@Override
+	protected void publish(String routingKey, Request<T> request) throws IOException
+	{
+		connection.publish(groupId, routingKey, request.getType(), encode(connection.getCodec(), request));
+	}
+
+	/**
+	 * Decode a message body delivered for this group
+	 * and queue it for the event loop
+	 * @param body the raw message body
+	 */
+	void handleDelivery(byte[] body)
+	{
+		try
+		{
+			receive(decode(connection.getCodec(), body));
+		}
+		catch (Exception e)
+		{
+			LOG.warn("{} failed to handle a message for group {}", getSelf(), groupId, e);
+		}
+	}
+}
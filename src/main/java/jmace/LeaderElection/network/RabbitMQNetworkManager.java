@@ -1,12 +1,8 @@
 package jmace.LeaderElection.network;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
@@ -14,28 +10,34 @@ import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import jmace.LeaderElection.messages.Request;
-import jmace.LeaderElection.messages.RequestType;
+import jmace.LeaderElection.messages.codec.BatchFrame;
+import jmace.LeaderElection.messages.codec.MessageCodec;
+import jmace.LeaderElection.messages.codec.MessageCodecs;
+import jmace.LeaderElection.task.TaskScheduler;
 
-public class RabbitMQNetworkManager<T extends Comparable<T>> extends NetworkManager<T>
+public class RabbitMQNetworkManager<T extends Comparable<T>> extends MessagingNetworkManager<T>
 {
+	private static final Logger LOG = LoggerFactory.getLogger(RabbitMQNetworkManager.class);
 	private static final String CONSUMER_TAG = "basicConsumer";
-	
-	private final T id;
-	private final int numberOfLeaders;
+
 	private final String queueHost;
 	private final String exchangeName;
 	private String queueName;
-	private Connection connection;
+	private volatile Connection connection;
 	private Channel channel;
-	boolean headIsUp;
-	private Set<T> pollReponders;
-	private final Gson gson;
-	private boolean stopped;
-	
+	private volatile RabbitMQPublisher publisher;
+	private final MessageCodec<T> codec;
+	private final TaskScheduler scheduler;
+	private OutboundPipeline pipeline;
+	private int publishChannels;
+	private int maxInFlight;
+
 	/**
 	 * Constructor
-	 * 
+	 *
 	 * @param id the ID of this node
 	 * @param numberOfLeaders the number of leaders allowed on the network
 	 * @param queueHost the RabbitMQ host
@@ -43,327 +45,251 @@ public class RabbitMQNetworkManager<T extends Comparable<T>> extends NetworkMana
 	 */
 	public RabbitMQNetworkManager(T id, int numberOfLeaders, String queueHost, String exchangeName)
 	{
-		this.id = id;
-		this.numberOfLeaders = numberOfLeaders;
-		this.queueHost = queueHost;
-		this.exchangeName = exchangeName;
-		this.connection = null;
-		this.channel = null;
-		this.headIsUp = true;
-		this.pollReponders = null;
-		this.gson = new Gson();
-		this.stopped = false;
+		this(id, numberOfLeaders, queueHost, exchangeName, MessageCodecs.forId(id));
 	}
-	
+
 	/**
-	 * Get the ID of this node
+	 * Constructor
+	 *
+	 * @param id the ID of this node
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param queueHost the RabbitMQ host
+	 * @param exchangeName the RabbitMQ exchange
+	 * @param codec the wire format, must be the same on every node
 	 */
-	public T getSelf()
+	public RabbitMQNetworkManager(T id, int numberOfLeaders, String queueHost, String exchangeName, MessageCodec<T> codec)
 	{
-		return id;
+		this(id, numberOfLeaders, queueHost, exchangeName, codec, TaskScheduler.shared());
 	}
-	
+
 	/**
-	 * Get the ID of the current network head
+	 * Constructor
+	 *
+	 * @param id the ID of this node
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param queueHost the RabbitMQ host
+	 * @param exchangeName the RabbitMQ exchange
+	 * @param codec the wire format, must be the same on every node
+	 * @param scheduler runs the event loop and the batching window
 	 */
-	public T getHead()
+	public RabbitMQNetworkManager(T id, int numberOfLeaders, String queueHost, String exchangeName, MessageCodec<T> codec, TaskScheduler scheduler)
 	{
-		return getNetwork().getHeadNode();
+		super(id, numberOfLeaders, scheduler::execute);
+		this.scheduler = scheduler;
+		this.queueHost = queueHost;
+		this.exchangeName = exchangeName;
+		this.connection = null;
+		this.channel = null;
+		this.publisher = null;
+		this.codec = codec;
+		this.pipeline = null;
+		this.publishChannels = RabbitMQPublisher.DEFAULT_CHANNELS;
+		this.maxInFlight = RabbitMQPublisher.DEFAULT_MAX_IN_FLIGHT;
 	}
-	
+
 	/**
-	 * Get whether or not this node is the head of the network
-	 * @return true if this node is the network head
+	 * Set how many channels publish concurrently and how many messages may wait for a publisher confirm.
+	 * Must be called before the manager starts.
+	 * @param channels the size of the publishing channel pool
+	 * @param maxInFlight the most unconfirmed messages, publishes fail beyond that
 	 */
-	public Boolean isHead()
+	public void setPublishing(int channels, int maxInFlight)
 	{
-		if (getNetwork().isEmpty())
-		{
-			return null;
-		}
-		return id.equals(getNetwork().getHeadNode());
+		this.publishChannels = channels;
+		this.maxInFlight = maxInFlight;
 	}
-	
+
 	/**
-	 * Check if this node currently a leader on the network
-	 * @return true if this node is a leader, null if the network hasn't been established, false otherwise
+	 * Batch outgoing heartbeats and polls instead of publishing each one on its own.
+	 * Must be called before the manager starts.
+	 * @param windowMS how long a message can wait for others to the same node
+	 * @param maxQueued the most messages that can wait at once
 	 */
-	public Boolean isLeader()
+	public void enableBatching(long windowMS, int maxQueued)
 	{
-		if (getNetwork().isEmpty())
-		{
-			return null;
-		}
-		return getNetwork().getLeaders(numberOfLeaders).contains(id);
+		this.pipeline = new OutboundPipeline(this::sendBatch, windowMS, maxQueued, scheduler);
 	}
-	
+
 	/**
-	 * Checks if the head node has polled since the last time this method was called
-	 * @return true if the head node has polled, false otherwise
+	 * Get the outbound batching pipeline, e.g. to read its queue metrics
+	 * @return the pipeline, or null if batching is not enabled
 	 */
-	public boolean isHeadUp()
+	public OutboundPipeline getOutboundPipeline()
 	{
-		boolean wasUp = headIsUp;
-		headIsUp = false;
-		return wasUp;
+		return pipeline;
 	}
-	
+
 	/**
-	 * Gets all nodes that have sent this node a still alive message
-	 * @return a set of all nodes that responded with a still alive message
+	 * The connection recovers on its own after a drop, so it only counts as down until then
 	 */
-	public Set<T> getUpNodes()
+	@Override
+	public boolean isConnected()
 	{
-		return new TreeSet<>(pollReponders);
+		Connection current = connection;
+		return current != null && current.isOpen();
 	}
-	
+
+	/**
+	 * Get the number of published messages the broker has yet to confirm
+	 * @return the count, 0 if not connected
+	 */
+	public int getUnconfirmed()
+	{
+		RabbitMQPublisher current = publisher;
+		return current == null ? 0 : current.getInFlight();
+	}
+
 	/**
 	 * Establishes the connections to RabbitMQ and sets up a consumer
 	 * @throws IOException
-	 * @throws TimeoutException
 	 */
-	private void establishQueueConnection() throws IOException, TimeoutException
+	@Override
+	protected void connect() throws IOException
 	{
-		if (connection != null || stopped)
+		if (connection != null || isStopped())
 		{
 			return;
 		}
-		ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(queueHost);
-        connection = factory.newConnection();
-        channel = connection.createChannel();
-        channel.exchangeDeclare(exchangeName, "topic");
-        queueName = channel.queueDeclare().getQueue();
-        channel.queueBind(queueName, exchangeName, id.toString());
-        channel.queueBind(queueName, exchangeName, "all");
-        
-        Consumer consumer = new DefaultConsumer(channel)
-        {
-        		@Override
-        		public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-        			try
-        			{
-        				System.out.println(id + ":" + new String(body, "UTF-8"));
-        				Request<T> request = gson.fromJson(new String(body, "UTF-8"), new TypeToken<Request<T>>(){}.getType());
-        				handleMessage(request);
-        			}
-        			catch (Exception e)
-        			{
-        				e.printStackTrace();
-        			}
-        		}
-        };
-        channel.basicConsume(queueName, true, CONSUMER_TAG, consumer);
-	}
-	
-	public void start()
-	{
-		stopped = false;
 		try
 		{
 			establishQueueConnection();
 		}
-		catch (Exception e)
+		catch (TimeoutException e)
 		{
-			throw new RuntimeException(e);
+			throw new IOException(e);
 		}
 	}
 
 	/**
-	 * Shuts down the connection to RabbitMQ
-	 */
-	public void stop()
-	{
-		stopped = true;
-		try
-		{
-			if (channel != null) channel.close();
-			if (connection != null) connection.close();
-		}
-		catch (Exception e)
-		{
-			e.printStackTrace();
-		}
-		finally
-		{
-			if (channel != null && !channel.isOpen()) channel = null;
-			if (connection != null && !connection.isOpen()) connection = null;
-		}
-	}
-	
-	/**
-	 * Routes messages to the proper functions
-	 * @param request the incoming message
-	 */
-	private void handleMessage(Request<T> request)
-	{
-		switch (request.getType())
-		{
-			case ADD_TO_NETWORK:
-				Set<T> toAdd = gson.fromJson(request.getData(), new TypeToken<TreeSet<T>>(){}.getType());
-				addToNetwork(request.getRequestingID(), toAdd, request.getRequestingID().toString());
-			break;
-			case REMOVE_FROM_NETWORK:
-				Set<T> toRemove = gson.fromJson(request.getData(), new TypeToken<TreeSet<T>>(){}.getType());
-				removeFromNetwork(toRemove);
-			break;
-			case POLL_NODES:
-				sendStillAlive(request);
-			break;
-			case STILL_ALIVE:
-				pollReponders.add(request.getRequestingID());
-				if (getNetwork().addNode(request.getRequestingID()))
-					broadcastNetwork();
-			break;
-		}
-	}
-	
-	/**
-	 * Add a node to the network
-	 * @param sender the node that requested the addition
-	 * @param toAdd to nodes to add
-	 * @param resendRoutingKey the routing key if we need to send back missing nodes
-	 */
-	private void addToNetwork(T sender, Set<T> toAdd, String resendRoutingKey)
-	{
-		//If we have anything the sending process is missing, send over what we have
-		Boolean isHead = isHead();
-		boolean rebroadcast = isHead != null && isHead && toAdd.addAll(getNetwork().getNodes());
-		
-		getNetwork().addAllNodes(toAdd);
-		if (isHead() && pollReponders != null)
-		{
-			pollReponders.add(sender);
-		}
-		
-		if (rebroadcast)
-			broadcastNetwork(resendRoutingKey);
-	}
-	
-	/**
-	 * Remove nodes from the network
-	 * @param toRemove the nodes to remove
+	 * Establishes the connections to RabbitMQ and sets up a consumer
+	 * @throws IOException
+	 * @throws TimeoutException
 	 */
-	public void removeFromNetwork(Set<T> toRemove)
+	private void establishQueueConnection() throws IOException, TimeoutException
 	{
-		if (toRemove.contains(getHead()))
-		{
-			//If the head node is being remove, mark the new head as up
-			//so that it has time to respond
-			headIsUp = true;
-		}
-		getNetwork().removeAllNodes(toRemove);
+		ConnectionFactory factory = RabbitMQPublisher.connectionFactory(queueHost);
+        Connection opened = factory.newConnection();
+        try
+        {
+            RabbitMQPublisher.onRecovery(opened, () -> {
+            		LOG.info("{} reconnected to RabbitMQ", getSelf());
+            		forgetContacts();
+            });
+            channel = opened.createChannel();
+            channel.exchangeDeclare(exchangeName, "topic");
+            queueName = channel.queueDeclare().getQueue();
+            channel.queueBind(queueName, exchangeName, getSelf().toString());
+            channel.queueBind(queueName, exchangeName, BROADCAST_ROUTING_KEY);
+
+            Consumer consumer = new DefaultConsumer(channel)
+            {
+            		@Override
+            		public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+            			RabbitMQNetworkManager.this.handleDelivery(body);
+            		}
+            };
+            channel.basicConsume(queueName, true, CONSUMER_TAG, consumer);
+            publisher = new RabbitMQPublisher(opened, exchangeName, publishChannels, maxInFlight, RabbitMQPublisher.DEFAULT_PUBLISH_TIMEOUT_MS);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            //Don't leave a half set up connection recovering in the background
+            opened.abort();
+            throw e;
+        }
+        connection = opened;
 	}
-	
+
 	/**
-	 * Tell the nodes on the network to remove a set of nodes from the network
-	 * @param nodes the nodes to remove
+	 * Decode a message body delivered by RabbitMQ
+	 * and queue it for the event loop
+	 * @param body the raw message body
 	 */
-	public void broadcastRemoveFromNetwork(Set<T> nodes)
+	void handleDelivery(byte[] body)
 	{
 		try
 		{
-			Request<T> request = new Request<T>(id, RequestType.REMOVE_FROM_NETWORK, gson.toJson(nodes));
-			broadcastMessage(exchangeName, null, request);
+			if (BatchFrame.isBatch(body))
+			{
+				for (BatchFrame.Entry entry : BatchFrame.decode(body))
+				{
+					handleDelivery(entry.getMessage());
+				}
+				return;
+			}
+			receive(decode(codec, body));
 		}
 		catch (Exception e)
 		{
-			throw new RuntimeException(e);
+			LOG.warn("{} failed to handle a message", getSelf(), e);
 		}
 	}
-	
+
 	/**
-	 * Send a message to the head node letting it know this node is still responsive
-	 * @param pollRequest the original poll request
+	 * Shuts down the connection to RabbitMQ
 	 */
-	private void sendStillAlive(Request<T> pollRequest)
+	@Override
+	protected void disconnect()
 	{
 		try
 		{
-			headIsUp = true;
-			Request<T> request = new Request<T>(id, RequestType.STILL_ALIVE, null);
-			broadcastMessage(exchangeName, pollRequest.getRequestingID().toString(), request);
+			if (pipeline != null && publisher != null) pipeline.flush();
+			if (publisher != null) publisher.close();
+			if (connection != null) connection.close();
 		}
 		catch (Exception e)
 		{
-			e.printStackTrace();
-		}
-	}
-	
-	/**
-	 * Send out this node's copy of the network
-	 */
-	public void broadcastNetwork()
-	{
-		broadcastNetwork(null);
-	}
-	
-	/**
-	 * Send out this node's copy of the network
-	 * @param resendRoutingKey the node to send the network to
-	 */
-	private void broadcastNetwork(String resendRoutingKey)
-	{
-		try
-		{
-			Set<T> nodes;
-			if (!getNetwork().isEmpty())
-			{
-				nodes = getNetwork().getNodes();
-			}
-			else
-			{
-				nodes = new TreeSet<>();
-				nodes.add(id);
-			}
-			Request<T> request = new Request<T>(id, RequestType.ADD_TO_NETWORK, gson.toJson((nodes)));
-			broadcastMessage(exchangeName, resendRoutingKey, request);
+			LOG.warn("{} failed to close the connection", getSelf(), e);
 		}
-		catch (Exception e)
+		finally
 		{
-			e.printStackTrace();
+			//Closing the connection closes its channels, and a closed connection never recovers
+			publisher = null;
+			channel = null;
+			connection = null;
 		}
 	}
-	
+
 	/**
-	 * Send a request to determine what nodes are still responsive
+	 * Send a message over RabbitMQ
+	 * @param routingKey the key to send a message through (e.g. the node to send a message to)
+	 * @param request the request to send
+	 * @throws IOException
 	 */
-	public void pollForNodes()
+	@Override
+	protected void publish(String routingKey, Request<T> request) throws IOException
 	{
-		try
+		byte[] body = encode(codec, request);
+		if (pipeline == null)
 		{
-			pollReponders = new TreeSet<>();
-			Request<T> request = new Request<T>(id, RequestType.POLL_NODES, null);
-			broadcastMessage(exchangeName, null, request);
+			publisher().publish(routingKey, null, body);
 		}
-		catch (Exception e)
+		else
 		{
-			e.printStackTrace();
+			boolean defer = OutboundPipeline.canDefer(request.getType());
+			pipeline.enqueue(routingKey, null, defer ? request.getType().name() : null, body, !defer);
 		}
 	}
-	
+
 	/**
-	 * Send a message over RabbitMQ
-	 * @param queueName the name of the queue to send the message through
-	 * @param routingKey the key to send a message through (e.g. the node to send a message to)
-	 * @param request the request to send
-	 * @throws UnsupportedEncodingException
+	 * Publish messages queued by the batching pipeline
+	 * @param routingKey the key to send the messages through
+	 * @param entries the queued messages
 	 * @throws IOException
-	 * @throws TimeoutException
 	 */
-	private void broadcastMessage(String queueName, String routingKey, Request<T> request) throws UnsupportedEncodingException, IOException, TimeoutException
+	private void sendBatch(String routingKey, List<BatchFrame.Entry> entries) throws IOException
 	{
-		if (stopped)
-		{
-			return;
-		}
-		
-		if (channel == null)
+		byte[] body = entries.size() == 1 ? entries.get(0).getMessage() : BatchFrame.encode(entries);
+		publisher().publish(routingKey, null, body);
+	}
+
+	private RabbitMQPublisher publisher() throws IOException
+	{
+		RabbitMQPublisher current = publisher;
+		if (current == null)
 		{
-			establishQueueConnection();
+			throw new IOException("Not connected");
 		}
-
-		String message = gson.toJson(request);
-		channel.basicPublish(queueName, routingKey == null ? "all" : routingKey, null, message.getBytes("UTF-8"));
+		return current;
 	}
 }
@@ -0,0 +1,299 @@
+package jmace.LeaderElection.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jmace.LeaderElection.task.EventLoop;
+
+/**
+ * Publishes to an exchange over a pool of channels in confirm mode.
+ *
+ * Confirms are handled asynchronously. Each publish holds a permit until the broker acks or nacks it,
+ * so at most maxInFlight messages are ever unconfirmed, and a publish fails fast instead of queueing
+ * behind a broker that has stopped answering. When a channel drops, the confirms it owed are given up
+ * and its permits released; the connection's automatic recovery reopens it.
+ * Publishes from an event loop never wait for a permit or a channel, since the loop's thread is shared.
+ */
+final class RabbitMQPublisher
+{
+	private static final Logger LOG = LoggerFactory.getLogger(RabbitMQPublisher.class);
+	public static final int DEFAULT_CHANNELS = 2;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+	public static final long DEFAULT_PUBLISH_TIMEOUT_MS = 250;
+	/**
+	 * Short enough that a broker blip heals well within a failure detector's patience
+	 */
+	public static final long RECOVERY_INTERVAL_MS = 250;
+	public static final int HEARTBEAT_SECONDS = 5;
+
+	private final String exchangeName;
+	private final BlockingQueue<PooledChannel> idle;
+	private final List<PooledChannel> channels;
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+	private final long publishTimeoutMS;
+	private final AtomicLong nacked;
+
+	/**
+	 * Constructor, opens the channels
+	 * @param connection the connection to open channels on
+	 * @param exchangeName the exchange to publish to
+	 * @param channelCount the number of channels, i.e. how many threads can publish at once
+	 * @param maxInFlight the most messages waiting for a confirm
+	 * @param publishTimeoutMS how long a publish off the event loops waits for a channel or a permit before failing
+	 * @throws IOException if a channel can't be opened
+	 */
+	RabbitMQPublisher(Connection connection, String exchangeName, int channelCount, int maxInFlight, long publishTimeoutMS) throws IOException
+	{
+		if (channelCount <= 0 || maxInFlight <= 0)
+		{
+			throw new IllegalArgumentException("Need at least one channel and one message in flight");
+		}
+		this.exchangeName = exchangeName;
+		this.idle = new ArrayBlockingQueue<>(channelCount);
+		this.channels = new ArrayList<>(channelCount);
+		this.inFlight = new Semaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+		this.publishTimeoutMS = publishTimeoutMS;
+		this.nacked = new AtomicLong();
+		for (int i = 0; i < channelCount; i++)
+		{
+			PooledChannel channel = new PooledChannel(connection.createChannel());
+			channels.add(channel);
+			idle.add(channel);
+		}
+	}
+
+	/**
+	 * Create a connection factory with automatic connection, channel and topology recovery,
+	 * so server named queues, bindings and consumers come back on their own after a drop
+	 * @param host the RabbitMQ host
+	 * @return the factory
+	 */
+	static ConnectionFactory connectionFactory(String host)
+	{
+		ConnectionFactory factory = new ConnectionFactory();
+		factory.setHost(host);
+		factory.setAutomaticRecoveryEnabled(true);
+		factory.setTopologyRecoveryEnabled(true);
+		factory.setNetworkRecoveryInterval(RECOVERY_INTERVAL_MS);
+		factory.setRequestedHeartbeat(HEARTBEAT_SECONDS);
+		return factory;
+	}
+
+	/**
+	 * Call a listener whenever a connection from {@link #connectionFactory(String)} has recovered
+	 * @param connection the connection
+	 * @param listener what to run after recovery
+	 */
+	static void onRecovery(Connection connection, Runnable listener)
+	{
+		if (connection instanceof Recoverable)
+		{
+			((Recoverable) connection).addRecoveryListener(new RecoveryListener()
+			{
+				public void handleRecovery(Recoverable recoverable)
+				{
+					listener.run();
+				}
+
+				public void handleRecoveryStarted(Recoverable recoverable)
+				{
+				}
+			});
+		}
+	}
+
+	/**
+	 * Publish a message
+	 * @param routingKey the key to send the message through
+	 * @param properties the message properties, or null
+	 * @param body the message
+	 * @throws IOException if the channel is closed or recovering, or too many messages are unconfirmed
+	 */
+	void publish(String routingKey, AMQP.BasicProperties properties, byte[] body) throws IOException
+	{
+		PooledChannel channel = null;
+		boolean permit = false;
+		boolean wait = !EventLoop.isLoopThread();
+		try
+		{
+			if (wait ? !inFlight.tryAcquire(publishTimeoutMS, TimeUnit.MILLISECONDS) : !inFlight.tryAcquire())
+			{
+				throw new IOException(maxInFlight + " messages are still waiting for a confirm");
+			}
+			permit = true;
+			channel = wait ? idle.poll(publishTimeoutMS, TimeUnit.MILLISECONDS) : idle.poll();
+			if (channel == null)
+			{
+				throw new IOException("No channel free to publish on");
+			}
+			//The channel releases the permit from here on, whether the publish fails or is confirmed
+			permit = false;
+			channel.publish(routingKey, properties, body);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ShutdownSignalException e)
+		{
+			//Includes AlreadyClosedException, thrown while the connection is recovering
+			throw new IOException("Channel closed", e);
+		}
+		finally
+		{
+			if (permit) inFlight.release();
+			if (channel != null) idle.add(channel);
+		}
+	}
+
+	/**
+	 * @return the number of messages waiting for a confirm
+	 */
+	int getInFlight()
+	{
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	/**
+	 * @return the number of messages the broker has nacked
+	 */
+	long getNacked()
+	{
+		return nacked.get();
+	}
+
+	/**
+	 * Close every channel. The connection is left to the owner.
+	 */
+	void close()
+	{
+		for (PooledChannel channel : channels)
+		{
+			try
+			{
+				if (channel.channel.isOpen()) channel.channel.close();
+			}
+			catch (Exception e)
+			{
+				LOG.debug("Failed to close a publishing channel", e);
+			}
+			channel.releaseAll();
+		}
+	}
+
+	/**
+	 * A channel in confirm mode along with the sequence numbers it has yet to confirm
+	 */
+	private final class PooledChannel implements ConfirmListener
+	{
+		private final Channel channel;
+		private final ConcurrentSkipListSet<Long> unconfirmed;
+
+		private PooledChannel(Channel channel) throws IOException
+		{
+			this.channel = channel;
+			this.unconfirmed = new ConcurrentSkipListSet<>();
+			channel.confirmSelect();
+			channel.addConfirmListener(this);
+			//Sequence numbers start over on a new or recovered channel, so what was owed won't arrive
+			channel.addShutdownListener(cause -> releaseAll());
+			if (channel instanceof Recoverable)
+			{
+				((Recoverable) channel).addRecoveryListener(new RecoveryListener()
+				{
+					public void handleRecovery(Recoverable recoverable)
+					{
+						releaseAll();
+					}
+
+					public void handleRecoveryStarted(Recoverable recoverable)
+					{
+					}
+				});
+			}
+		}
+
+		/**
+		 * Publish while holding this channel exclusively, so the sequence number is the one the broker assigns.
+		 * Takes over the caller's permit.
+		 */
+		private void publish(String routingKey, AMQP.BasicProperties properties, byte[] body) throws IOException
+		{
+			long sequence = channel.getNextPublishSeqNo();
+			unconfirmed.add(sequence);
+			try
+			{
+				channel.basicPublish(exchangeName, routingKey, properties, body);
+			}
+			catch (IOException | RuntimeException e)
+			{
+				//Unless the channel closing under the publish already released it
+				release(sequence);
+				throw e;
+			}
+		}
+
+		public void handleAck(long deliveryTag, boolean multiple)
+		{
+			confirm(deliveryTag, multiple);
+		}
+
+		public void handleNack(long deliveryTag, boolean multiple)
+		{
+			//Only on an internal broker error; heartbeats and gossip are resent anyway, so just count it
+			nacked.addAndGet(confirm(deliveryTag, multiple));
+			LOG.debug("Broker nacked up to {}", deliveryTag);
+		}
+
+		private int confirm(long deliveryTag, boolean multiple)
+		{
+			if (!multiple)
+			{
+				return release(deliveryTag) ? 1 : 0;
+			}
+			int released = 0;
+			for (Long sequence : unconfirmed.headSet(deliveryTag, true))
+			{
+				if (release(sequence)) released++;
+			}
+			return released;
+		}
+
+		private void releaseAll()
+		{
+			for (Long sequence : unconfirmed)
+			{
+				release(sequence);
+			}
+		}
+
+		private boolean release(long sequence)
+		{
+			if (unconfirmed.remove(sequence))
+			{
+				inFlight.release();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,860 @@
+package jmace.LeaderElection.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.codec.MessageCodec;
+import jmace.LeaderElection.messages.codec.MessageCodecs;
+
+/**
+ * Network manager that keeps a TCP connection to every other node, with no broker in between.
+ *
+ * A message for {@link #BROADCAST_ROUTING_KEY} is encoded once and queued for every peer, a message for a node only
+ * for that node. Each node sends over the connections it opens and reads from the ones it accepts. The first frame
+ * on a new connection says who opened it, where it listens and which other nodes it knows, so nodes that weren't
+ * seeded are learned and connected to. Seeding every node with one other is enough for the full mesh to form.
+ *
+ * One selector thread does all the socket work. Frames queued between two wakeups are packed into the connection's
+ * write buffer and go out in a single write, and the read and write buffers are direct buffers from a shared pool.
+ * A frame bigger than the write buffer is streamed through it in chunks.
+ * A peer that can't be reached is retried with a growing backoff, and messages to it are dropped in the meantime,
+ * as the protocol resends heartbeats and repairs membership on its own.
+ *
+ * Frame layout:
+ * <pre>
+ * int      length of what follows
+ * byte     0 for hello, 1 for a message
+ * bytes    hello as below, or the encoded request
+ * </pre>
+ * Hello layout:
+ * <pre>
+ * short    listening port
+ * UTF      routing key, as written by {@link DataOutputStream#writeUTF}
+ * short    number of known nodes, then for each one
+ *   byte     address length
+ *   bytes    address
+ *   short    port
+ *   UTF      routing key
+ * </pre>
+ */
+public class TcpMeshNetworkManager<T extends Comparable<T>> extends MessagingNetworkManager<T>
+{
+	private static final Logger LOG = LoggerFactory.getLogger(TcpMeshNetworkManager.class);
+	public static final int BUFFER_SIZE = 16 * 1024;
+	public static final int MAX_FRAME = 16 * 1024 * 1024;
+	public static final int MAX_QUEUED_FRAMES = 1024;
+	private static final long RECONNECT_MIN_MS = 50;
+	private static final long RECONNECT_MAX_MS = 2000;
+	private static final byte FRAME_HELLO = 0;
+	private static final byte FRAME_MESSAGE = 1;
+	private static final int HEADER = 5;
+	private static final BufferPool POOL = new BufferPool(BUFFER_SIZE, 256);
+
+	private volatile InetSocketAddress bindAddress;
+	private final MessageCodec<T> codec;
+	private final String selfKey;
+	private final Map<String, Peer> peers;
+	private final Queue<Peer> dirty;
+	private final AtomicBoolean wakeupPending;
+	private final AtomicLong droppedFrames;
+	private volatile Selector selector;
+	private volatile ServerSocketChannel server;
+	private volatile boolean running;
+	private Thread selectorThread;
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param bindAddress where to listen for other nodes, port 0 for any free port
+	 * @param peers the other nodes to connect to and where they listen; nodes that connect later are learned
+	 */
+	public TcpMeshNetworkManager(T id, int numberOfLeaders, InetSocketAddress bindAddress, Map<T, InetSocketAddress> peers)
+	{
+		this(id, numberOfLeaders, bindAddress, peers, MessageCodecs.forId(id));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param id the ID of this node
+	 * @param numberOfLeaders the number of leaders allowed on the network
+	 * @param bindAddress where to listen for other nodes, port 0 for any free port
+	 * @param peers the other nodes to connect to and where they listen; nodes that connect later are learned
+	 * @param codec the wire format, must be the same on every node
+	 */
+	public TcpMeshNetworkManager(T id, int numberOfLeaders, InetSocketAddress bindAddress, Map<T, InetSocketAddress> peers, MessageCodec<T> codec)
+	{
+		super(id, numberOfLeaders);
+		this.bindAddress = bindAddress;
+		this.codec = codec;
+		this.selfKey = id.toString();
+		this.peers = new ConcurrentHashMap<>();
+		this.dirty = new ConcurrentLinkedQueue<>();
+		this.wakeupPending = new AtomicBoolean(false);
+		this.droppedFrames = new AtomicLong();
+		this.selector = null;
+		this.server = null;
+		this.running = false;
+		this.selectorThread = null;
+		for (Map.Entry<T, InetSocketAddress> peer : peers.entrySet())
+		{
+			addPeer(peer.getKey(), peer.getValue());
+		}
+	}
+
+	/**
+	 * Connect to another node, e.g. one that joined after this manager was created
+	 * @param node the node
+	 * @param address where it listens
+	 */
+	public void addPeer(T node, InetSocketAddress address)
+	{
+		addPeer(node.toString(), address);
+	}
+
+	private void addPeer(String key, InetSocketAddress address)
+	{
+		if (key.equals(selfKey) || peers.putIfAbsent(key, new Peer(key, address)) != null)
+		{
+			return;
+		}
+		wakeup();
+	}
+
+	/**
+	 * Get where this node listens
+	 * @return the bound address, or null if not connected
+	 * @throws IOException
+	 */
+	public InetSocketAddress getListenAddress() throws IOException
+	{
+		ServerSocketChannel current = server;
+		return current == null ? null : (InetSocketAddress) current.getLocalAddress();
+	}
+
+	/**
+	 * Check if there is an open connection to a node
+	 * @param node the node
+	 * @return true if messages to the node are being sent
+	 */
+	public boolean isConnectedTo(T node)
+	{
+		Peer peer = peers.get(node.toString());
+		return peer != null && peer.connected;
+	}
+
+	/**
+	 * @return the number of messages dropped because their node was unreachable or too far behind
+	 */
+	public long getDroppedFrames()
+	{
+		return droppedFrames.get();
+	}
+
+	@Override
+	public boolean isConnected()
+	{
+		return running;
+	}
+
+	/**
+	 * Start listening, connect to the known peers and start the selector thread
+	 * @throws IOException
+	 */
+	@Override
+	protected synchronized void connect() throws IOException
+	{
+		if (running || isStopped())
+		{
+			return;
+		}
+		Selector opened = Selector.open();
+		ServerSocketChannel listening = null;
+		try
+		{
+			listening = ServerSocketChannel.open();
+			listening.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			listening.bind(bindAddress);
+			listening.configureBlocking(false);
+			listening.register(opened, SelectionKey.OP_ACCEPT);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			if (listening != null) listening.close();
+			opened.close();
+			throw e;
+		}
+		//Peers know this node by its port, so keep it across restarts
+		bindAddress = (InetSocketAddress) listening.getLocalAddress();
+		selector = opened;
+		server = listening;
+		running = true;
+		for (Peer peer : peers.values())
+		{
+			peer.reset();
+		}
+		selectorThread = new Thread(this::selectLoop, "mesh-" + getSelf());
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * Close every connection and stop the selector thread. Known peers are kept for the next connect.
+	 */
+	@Override
+	protected synchronized void disconnect()
+	{
+		if (!running)
+		{
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		if (selectorThread != Thread.currentThread())
+		{
+			try
+			{
+				selectorThread.join(1000);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		selectorThread = null;
+		server = null;
+		selector = null;
+	}
+
+	/**
+	 * Queue a message for every peer or for one node. Messages for this node are handled without touching the network.
+	 * @param routingKey the node to send the message to, or {@link #BROADCAST_ROUTING_KEY} for every node
+	 * @param request the request to send
+	 * @throws IOException if the node isn't known
+	 */
+	@Override
+	protected void publish(String routingKey, Request<T> request) throws IOException
+	{
+		if (selfKey.equals(routingKey))
+		{
+			receive(request);
+			return;
+		}
+		if (BROADCAST_ROUTING_KEY.equals(routingKey))
+		{
+			byte[] body = encode(codec, request);
+			checkSize(body);
+			for (Peer peer : peers.values())
+			{
+				enqueue(peer, body);
+			}
+			receive(request);
+			return;
+		}
+		Peer peer = peers.get(routingKey);
+		if (peer == null)
+		{
+			throw new IOException("No address for " + routingKey);
+		}
+		byte[] body = encode(codec, request);
+		checkSize(body);
+		enqueue(peer, body);
+	}
+
+	private static void checkSize(byte[] body) throws IOException
+	{
+		if (body.length + 1 > MAX_FRAME)
+		{
+			throw new IOException("Message of " + body.length + " bytes is too large");
+		}
+	}
+
+	private void enqueue(Peer peer, byte[] body)
+	{
+		if (!peer.reachable || peer.queued.get() >= MAX_QUEUED_FRAMES)
+		{
+			droppedFrames.incrementAndGet();
+			return;
+		}
+		peer.queued.incrementAndGet();
+		peer.outbox.add(body);
+		if (peer.dirty.compareAndSet(false, true))
+		{
+			dirty.add(peer);
+			wakeup();
+		}
+	}
+
+	/**
+	 * Wake the selector thread, once however many threads ask before it gets round to it
+	 */
+	private void wakeup()
+	{
+		Selector current = selector;
+		if (current != null && wakeupPending.compareAndSet(false, true))
+		{
+			current.wakeup();
+		}
+	}
+
+	private void selectLoop()
+	{
+		Selector current = selector;
+		try
+		{
+			while (running)
+			{
+				current.select(connectDelayMS());
+				wakeupPending.set(false);
+				connectDuePeers(current);
+				Peer peer;
+				while ((peer = dirty.poll()) != null)
+				{
+					peer.dirty.set(false);
+					if (peer.connection != null && peer.connected)
+					{
+						flushPeer(peer.connection);
+					}
+				}
+				Iterator<SelectionKey> keys = current.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					handleKey(current, key);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			if (running)
+			{
+				LOG.warn("{} stopped selecting", getSelf(), e);
+				//Let the next connect start over instead of reporting a dead mesh as connected
+				running = false;
+			}
+		}
+		finally
+		{
+			closeAll(current);
+		}
+	}
+
+	/**
+	 * Write what is queued for a peer, closing only its connection if that fails
+	 */
+	private void flushPeer(Connection connection)
+	{
+		try
+		{
+			flush(connection);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			LOG.debug("{} lost a connection to {}", getSelf(), connection.peer.key, e);
+			close(connection);
+		}
+	}
+
+	private void handleKey(Selector current, SelectionKey key)
+	{
+		if (!key.isValid())
+		{
+			return;
+		}
+		if (key.isAcceptable())
+		{
+			accept(current);
+			return;
+		}
+		Connection connection = (Connection) key.attachment();
+		try
+		{
+			if (key.isConnectable())
+			{
+				if (!connection.channel.finishConnect())
+				{
+					return;
+				}
+				connection.peer.connected = true;
+				connection.peer.backoffMS = RECONNECT_MIN_MS;
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			if (key.isReadable())
+			{
+				read(connection);
+			}
+			if (key.isValid() && key.isWritable())
+			{
+				flush(connection);
+			}
+		}
+		catch (IOException | CancelledKeyException e)
+		{
+			LOG.debug("{} lost a connection to {}", getSelf(), connection.peer == null ? "an inbound peer" : connection.peer.key, e);
+			close(connection);
+		}
+	}
+
+	private void accept(Selector current)
+	{
+		try
+		{
+			SocketChannel channel;
+			while ((channel = server.accept()) != null)
+			{
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Connection connection = new Connection(channel, null);
+				connection.key = channel.register(current, SelectionKey.OP_READ, connection);
+			}
+		}
+		catch (IOException e)
+		{
+			LOG.warn("{} failed to accept a connection", getSelf(), e);
+		}
+	}
+
+	/**
+	 * Open connections to the peers that are due another attempt
+	 */
+	private void connectDuePeers(Selector current)
+	{
+		long now = System.nanoTime();
+		for (Peer peer : peers.values())
+		{
+			if (peer.connection != null || now - peer.nextAttemptNanos < 0)
+			{
+				continue;
+			}
+			SocketChannel channel = null;
+			peer.reachable = true;
+			try
+			{
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Connection connection = new Connection(channel, peer);
+				connection.hello(helloFrame(peer));
+				peer.connection = connection;
+				boolean connected = channel.connect(peer.address);
+				connection.key = channel.register(current, connected ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, connection);
+				peer.connected = connected;
+			}
+			catch (IOException e)
+			{
+				LOG.debug("{} failed to connect to {}", getSelf(), peer.key, e);
+				if (peer.connection != null)
+				{
+					close(peer.connection);
+				}
+				else
+				{
+					closeQuietly(channel);
+					peer.failed();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return how long the selector may sleep before a peer is due another connection attempt, 0 for as long as it likes
+	 */
+	private long connectDelayMS()
+	{
+		long now = System.nanoTime();
+		long delay = Long.MAX_VALUE;
+		for (Peer peer : peers.values())
+		{
+			if (peer.connection == null)
+			{
+				delay = Math.min(delay, peer.nextAttemptNanos - now);
+			}
+		}
+		if (delay == Long.MAX_VALUE)
+		{
+			return 0;
+		}
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay));
+	}
+
+	private void read(Connection connection) throws IOException
+	{
+		ByteBuffer in = connection.in;
+		if (connection.channel.read(in) < 0)
+		{
+			throw new IOException("Closed by peer");
+		}
+		in.flip();
+		while (in.remaining() >= 4)
+		{
+			int length = in.getInt(in.position());
+			if (length <= 0 || length > MAX_FRAME)
+			{
+				throw new IOException("Invalid frame length " + length);
+			}
+			if (in.remaining() < 4 + length)
+			{
+				if (4 + length > in.capacity())
+				{
+					//Rare, e.g. the full membership of a big network; read it into a buffer of its own
+					ByteBuffer larger = ByteBuffer.allocate(4 + length);
+					larger.put(in);
+					POOL.release(in);
+					connection.in = larger;
+					return;
+				}
+				break;
+			}
+			in.getInt();
+			byte type = in.get();
+			byte[] body = new byte[length - 1];
+			in.get(body);
+			handleFrame(connection, type, body);
+		}
+		in.compact();
+		if (!in.isDirect() && in.position() <= POOL.getBufferSize())
+		{
+			//Back to a pooled buffer once the large frame is through
+			ByteBuffer pooled = POOL.acquire();
+			in.flip();
+			pooled.put(in);
+			connection.in = pooled;
+		}
+	}
+
+	private void handleFrame(Connection connection, byte type, byte[] body) throws IOException
+	{
+		if (type == FRAME_HELLO)
+		{
+			handleHello(connection, body);
+			return;
+		}
+		if (type != FRAME_MESSAGE)
+		{
+			throw new IOException("Unknown frame type " + type);
+		}
+		try
+		{
+			receive(decode(codec, body));
+		}
+		catch (IOException e)
+		{
+			LOG.warn("{} failed to decode a message", getSelf(), e);
+		}
+	}
+
+	/**
+	 * Build the frame that opens a connection to a peer
+	 * @param target the peer, left out of the nodes it is told about
+	 * @return the whole frame, header included
+	 */
+	private byte[] helloFrame(Peer target) throws IOException
+	{
+		ByteArrayOutputStream known = new ByteArrayOutputStream(peers.size() * 32);
+		DataOutputStream knownOut = new DataOutputStream(known);
+		int count = 0;
+		for (Peer peer : peers.values())
+		{
+			InetAddress address = peer.address.getAddress();
+			if (peer == target || address == null || count == 0xFFFF)
+			{
+				continue;
+			}
+			byte[] raw = address.getAddress();
+			knownOut.writeByte(raw.length);
+			knownOut.write(raw);
+			knownOut.writeShort(peer.address.getPort());
+			knownOut.writeUTF(peer.key);
+			count++;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + known.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeByte(FRAME_HELLO);
+		out.writeShort(bindAddress.getPort());
+		out.writeUTF(selfKey);
+		out.writeShort(count);
+		known.writeTo(out);
+		byte[] frame = bytes.toByteArray();
+		ByteBuffer.wrap(frame).putInt(frame.length - 4);
+		return frame;
+	}
+
+	/**
+	 * Learn the node that opened a connection and the nodes it knows, and connect to any that are new
+	 */
+	private void handleHello(Connection connection, byte[] body) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		int port = in.readUnsignedShort();
+		String key = in.readUTF();
+		InetSocketAddress remote = (InetSocketAddress) connection.channel.getRemoteAddress();
+		addPeer(key, new InetSocketAddress(remote.getAddress(), port));
+		int count = in.readUnsignedShort();
+		for (int i = 0; i < count; i++)
+		{
+			byte[] raw = new byte[in.readUnsignedByte()];
+			in.readFully(raw);
+			int knownPort = in.readUnsignedShort();
+			addPeer(in.readUTF(), new InetSocketAddress(InetAddress.getByAddress(raw), knownPort));
+		}
+	}
+
+	/**
+	 * Pack as many queued frames as fit into the write buffer and write them in one go,
+	 * until everything is written or the socket is full
+	 */
+	private void flush(Connection connection) throws IOException
+	{
+		Peer peer = connection.peer;
+		if (peer == null)
+		{
+			return;
+		}
+		while (true)
+		{
+			ByteBuffer out = connection.out;
+			connection.fillPending();
+			byte[] body;
+			while (connection.pending == null && (body = peer.outbox.peek()) != null)
+			{
+				int frame = HEADER + body.length;
+				if (frame <= out.remaining())
+				{
+					putFrame(out, body);
+				}
+				else if (frame > out.capacity() && out.remaining() >= HEADER)
+				{
+					//Too big for the buffer, the header goes in now and the body follows in chunks
+					out.putInt(body.length + 1);
+					out.put(FRAME_MESSAGE);
+					connection.pending = body;
+					connection.pendingOffset = 0;
+					connection.fillPending();
+				}
+				else
+				{
+					break;
+				}
+				peer.outbox.poll();
+				peer.queued.decrementAndGet();
+			}
+			out.flip();
+			connection.channel.write(out);
+			boolean blocked = out.hasRemaining();
+			out.compact();
+			if (blocked)
+			{
+				connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			if (connection.pending == null && peer.outbox.isEmpty())
+			{
+				connection.key.interestOps(SelectionKey.OP_READ);
+				return;
+			}
+		}
+	}
+
+	private static void putFrame(ByteBuffer buffer, byte[] body)
+	{
+		buffer.putInt(body.length + 1);
+		buffer.put(FRAME_MESSAGE);
+		buffer.put(body);
+	}
+
+	private void close(Connection connection)
+	{
+		if (connection.key != null) connection.key.cancel();
+		closeQuietly(connection.channel);
+		connection.release();
+		Peer peer = connection.peer;
+		if (peer != null && peer.connection == connection)
+		{
+			peer.failed();
+		}
+	}
+
+	private void closeAll(Selector current)
+	{
+		for (SelectionKey key : current.keys())
+		{
+			if (key.attachment() instanceof Connection)
+			{
+				Connection connection = (Connection) key.attachment();
+				closeQuietly(connection.channel);
+				connection.release();
+			}
+		}
+		dirty.clear();
+		for (Peer peer : peers.values())
+		{
+			peer.drop();
+			peer.reset();
+		}
+		closeQuietly(server);
+		closeQuietly(current);
+	}
+
+	private void closeQuietly(AutoCloseable closeable)
+	{
+		try
+		{
+			if (closeable != null) closeable.close();
+		}
+		catch (Exception e)
+		{
+			LOG.debug("{} failed to close {}", getSelf(), closeable, e);
+		}
+	}
+
+	/**
+	 * Another node, the frames waiting for it and the connection this node sends them over.
+	 * The connection and backoff are only used by the selector thread.
+	 */
+	private static final class Peer
+	{
+		private final String key;
+		private final InetSocketAddress address;
+		private final Queue<byte[]> outbox;
+		private final AtomicInteger queued;
+		private final AtomicBoolean dirty;
+		private volatile boolean reachable;
+		private volatile boolean connected;
+		private Connection connection;
+		private long nextAttemptNanos;
+		private long backoffMS;
+
+		private Peer(String key, InetSocketAddress address)
+		{
+			this.key = key;
+			this.address = address;
+			this.outbox = new ConcurrentLinkedQueue<>();
+			this.queued = new AtomicInteger();
+			this.dirty = new AtomicBoolean(false);
+			reset();
+		}
+
+		/**
+		 * Connect straight away, queueing messages until then
+		 */
+		private void reset()
+		{
+			connection = null;
+			connected = false;
+			reachable = true;
+			dirty.set(false);
+			nextAttemptNanos = System.nanoTime();
+			backoffMS = RECONNECT_MIN_MS;
+		}
+
+		/**
+		 * Drop what is queued and messages sent until the next attempt, which comes later each time
+		 */
+		private void failed()
+		{
+			connection = null;
+			connected = false;
+			reachable = false;
+			nextAttemptNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMS);
+			backoffMS = Math.min(backoffMS * 2, RECONNECT_MAX_MS);
+			drop();
+		}
+
+		private void drop()
+		{
+			while (outbox.poll() != null)
+			{
+				queued.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * A socket with its pooled buffers. Inbound connections have no peer and are only read from.
+	 */
+	private static final class Connection
+	{
+		private final SocketChannel channel;
+		private final Peer peer;
+		private SelectionKey key;
+		private ByteBuffer in;
+		private ByteBuffer out;
+		//The rest of a frame too big for the write buffer, and how much of it is already in the buffer
+		private byte[] pending;
+		private int pendingOffset;
+
+		private Connection(SocketChannel channel, Peer peer)
+		{
+			this.channel = channel;
+			this.peer = peer;
+			this.in = POOL.acquire();
+			this.out = peer == null ? null : POOL.acquire();
+			this.pending = null;
+			this.pendingOffset = 0;
+		}
+
+		/**
+		 * Send the frame introducing this node before anything else
+		 */
+		private void hello(byte[] frame)
+		{
+			pending = frame;
+			pendingOffset = 0;
+			fillPending();
+		}
+
+		/**
+		 * Copy as much of the pending frame as fits into the write buffer
+		 */
+		private void fillPending()
+		{
+			if (pending == null)
+			{
+				return;
+			}
+			int chunk = Math.min(out.remaining(), pending.length - pendingOffset);
+			out.put(pending, pendingOffset, chunk);
+			pendingOffset += chunk;
+			if (pendingOffset == pending.length)
+			{
+				pending = null;
+			}
+		}
+
+		private void release()
+		{
+			POOL.release(in);
+			POOL.release(out);
+			in = null;
+			out = null;
+		}
+	}
+}
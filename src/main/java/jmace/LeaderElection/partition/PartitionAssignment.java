@@ -0,0 +1,170 @@
+package jmace.LeaderElection.partition;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import jmace.LeaderElection.network.NetworkSnapshot;
+
+/**
+ * The owner of every partition for one snapshot of the network. Immutable.
+ *
+ * Owners are chosen by rendezvous (highest random weight) hashing: every node gets a weight for every partition
+ * and the heaviest node owns it. A node joining only takes the partitions it outweighs the current owner on,
+ * and a node leaving only gives up its own, so each change moves about partitions / nodes partitions.
+ */
+public final class PartitionAssignment<T extends Comparable<T>>
+{
+	private final NetworkSnapshot<T> snapshot;
+	private final Object[] owners;
+	private final long[] weights;
+	
+	private PartitionAssignment(NetworkSnapshot<T> snapshot, Object[] owners, long[] weights)
+	{
+		this.snapshot = snapshot;
+		this.owners = owners;
+		this.weights = weights;
+	}
+	
+	/**
+	 * Assign every partition from scratch
+	 * @param snapshot the network
+	 * @param partitionCount the number of partitions
+	 * @return the assignment
+	 */
+	static <T extends Comparable<T>> PartitionAssignment<T> compute(NetworkSnapshot<T> snapshot, int partitionCount)
+	{
+		PartitionAssignment<T> assignment = new PartitionAssignment<>(snapshot, new Object[partitionCount], new long[partitionCount]);
+		assignment.offerAll(snapshot.getNodes());
+		return assignment;
+	}
+	
+	/**
+	 * Move only the partitions affected by the nodes that joined or left since this assignment
+	 * @param next the newer snapshot
+	 * @return the assignment for the newer snapshot
+	 */
+	PartitionAssignment<T> update(NetworkSnapshot<T> next)
+	{
+		Set<T> left = new HashSet<>();
+		for (T node : snapshot.getNodes())
+		{
+			if (!next.contains(node)) left.add(node);
+		}
+		Set<T> joined = new HashSet<>();
+		for (T node : next.getNodes())
+		{
+			if (!snapshot.contains(node)) joined.add(node);
+		}
+		PartitionAssignment<T> updated = new PartitionAssignment<>(next, owners.clone(), weights.clone());
+		if (!left.isEmpty())
+		{
+			for (int partition = 0; partition < owners.length; partition++)
+			{
+				if (left.contains(updated.owners[partition]))
+				{
+					updated.owners[partition] = null;
+					for (T node : next.getNodes())
+					{
+						updated.offer(node, hash(node), partition);
+					}
+				}
+			}
+		}
+		if (!joined.isEmpty())
+		{
+			updated.offerAll(joined);
+		}
+		return updated;
+	}
+	
+	private void offerAll(Iterable<T> nodes)
+	{
+		for (T node : nodes)
+		{
+			long nodeHash = hash(node);
+			for (int partition = 0; partition < owners.length; partition++)
+			{
+				offer(node, nodeHash, partition);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void offer(T node, long nodeHash, int partition)
+	{
+		long weight = weight(nodeHash, partition);
+		T owner = (T) owners[partition];
+		//Ties are broken by node order so every node agrees on the owner
+		if (owner == null || weight > weights[partition] || (weight == weights[partition] && node.compareTo(owner) < 0))
+		{
+			owners[partition] = node;
+			weights[partition] = weight;
+		}
+	}
+	
+	/**
+	 * Get the owner of a partition in constant time
+	 * @param partition the partition, from 0 to the partition count
+	 * @return the owner, or null if the network is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T getOwner(int partition)
+	{
+		return (T) owners[partition];
+	}
+	
+	/**
+	 * Get every partition a node owns. Scans all partitions.
+	 * @param node the node
+	 * @return the partitions in ascending order
+	 */
+	public int[] getPartitions(T node)
+	{
+		int count = 0;
+		for (Object owner : owners)
+		{
+			if (node.equals(owner)) count++;
+		}
+		int[] partitions = new int[count];
+		int i = 0;
+		for (int partition = 0; partition < owners.length; partition++)
+		{
+			if (node.equals(owners[partition])) partitions[i++] = partition;
+		}
+		return partitions;
+	}
+	
+	public int getPartitionCount()
+	{
+		return owners.length;
+	}
+	
+	/**
+	 * @return the snapshot this assignment was made for
+	 */
+	public NetworkSnapshot<T> getSnapshot()
+	{
+		return snapshot;
+	}
+	
+	static long hash(Object node)
+	{
+		//hashCode is specified for strings, numbers and UUIDs, so every node computes the same weights
+		return mix(node.hashCode() * 0x9E3779B97F4A7C15L);
+	}
+	
+	static long weight(long nodeHash, int partition)
+	{
+		return mix(nodeHash ^ (partition * 0xC2B2AE3D27D4EB4FL));
+	}
+	
+	static long mix(long hash)
+	{
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,107 @@
+package jmace.LeaderElection.partition;
+
+import jmace.LeaderElection.network.Network;
+import jmace.LeaderElection.network.NetworkSnapshot;
+
+/**
+ * Spreads a fixed number of partitions over every node on the network, instead of handing all work to the leaders.
+ *
+ * The assignment is cached per network snapshot, so lookups are a version check and an array read.
+ * When the membership changes the next lookup updates the assignment, moving only the partitions of the nodes
+ * that left and those the new nodes win. Every node with the same membership computes the same owners.
+ */
+public class PartitionTable<T extends Comparable<T>>
+{
+	private final Network<T> network;
+	private final int partitionCount;
+	private volatile PartitionAssignment<T> assignment;
+	private final Object updateLock;
+	
+	/**
+	 * Constructor
+	 *
+	 * @param network the network whose nodes own the partitions
+	 * @param partitionCount the number of partitions, should be well above the number of nodes for an even spread
+	 */
+	public PartitionTable(Network<T> network, int partitionCount)
+	{
+		if (partitionCount <= 0)
+		{
+			throw new IllegalArgumentException("Partition count must be positive");
+		}
+		this.network = network;
+		this.partitionCount = partitionCount;
+		this.assignment = PartitionAssignment.compute(network.getSnapshot(), partitionCount);
+		this.updateLock = new Object();
+	}
+	
+	/**
+	 * Get the assignment for the current network
+	 * @return the assignment, computed at most once per snapshot
+	 */
+	public PartitionAssignment<T> getAssignment()
+	{
+		NetworkSnapshot<T> snapshot = network.getSnapshot();
+		PartitionAssignment<T> current = assignment;
+		if (current.getSnapshot() == snapshot)
+		{
+			return current;
+		}
+		synchronized (updateLock)
+		{
+			current = assignment;
+			if (current.getSnapshot().getVersion() < snapshot.getVersion())
+			{
+				current = current.update(snapshot);
+				assignment = current;
+			}
+			return current;
+		}
+	}
+	
+	/**
+	 * Get the owner of a partition
+	 * @param partition the partition, from 0 to the partition count
+	 * @return the owner, or null if the network is empty
+	 */
+	public T getOwner(int partition)
+	{
+		return getAssignment().getOwner(partition);
+	}
+	
+	/**
+	 * Get the owner of the partition a key falls in
+	 * @param key any key with a stable hash code, e.g. a string
+	 * @return the owner, or null if the network is empty
+	 */
+	public T getOwnerOf(Object key)
+	{
+		return getOwner(partitionOf(key));
+	}
+	
+	/**
+	 * Check if a node owns a partition
+	 * @param node the node
+	 * @param partition the partition
+	 * @return true if the node owns the partition
+	 */
+	public boolean isOwner(T node, int partition)
+	{
+		return node.equals(getOwner(partition));
+	}
+	
+	/**
+	 * Get the partition a key falls in
+	 * @param key any key with a stable hash code, e.g. a string
+	 * @return the partition, from 0 to the partition count
+	 */
+	public int partitionOf(Object key)
+	{
+		return (int) Long.remainderUnsigned(PartitionAssignment.mix(key.hashCode()), partitionCount);
+	}
+	
+	public int getPartitionCount()
+	{
+		return partitionCount;
+	}
+}
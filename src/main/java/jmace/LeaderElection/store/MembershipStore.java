@@ -0,0 +1,190 @@
+package jmace.LeaderElection.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import jmace.LeaderElection.messages.codec.NodeIdCodec;
+import jmace.LeaderElection.messages.codec.NodeIdCodecs;
+import jmace.LeaderElection.messages.codec.WireReader;
+import jmace.LeaderElection.messages.codec.WireWriter;
+
+/**
+ * Keeps the last known membership, epoch and fencing token in a memory mapped file,
+ * so a restarted node can rejoin with a warm view instead of waiting for the head to send everything back.
+ *
+ * Layout:
+ * <pre>
+ * int      magic
+ * int      body length, 0 while a save is in progress
+ * int      CRC32 of the body
+ * body     byte version, varint epoch, varint fencing token, varint member count,
+ *          members as id followed by varint incarnation
+ * </pre>
+ * Saves that only change the members copy into the mapping and leave flushing to the OS, so they are cheap enough
+ * to make on every change. A save torn by a crash fails the checksum and is ignored, which is no worse than a cold start.
+ * A save that raises the epoch or the fencing token is forced to disk, since handing either out again after a crash
+ * would let a stale leader pass the fence.
+ */
+public class MembershipStore<T extends Comparable<T>> implements Closeable
+{
+	private static final int MAGIC = 0x4C454D53;
+	private static final int VERSION = 1;
+	private static final int HEADER = 12;
+	private static final int INITIAL_SIZE = 4096;
+
+	private final NodeIdCodec<T> idCodec;
+	private final FileChannel file;
+	private MappedByteBuffer mapped;
+	private long forcedEpoch;
+	private long forcedToken;
+	private int forces;
+
+	/**
+	 * Open, or create, a store
+	 * @param path the file
+	 * @param idCodec how node IDs are written
+	 * @throws IOException if the file can't be opened or mapped
+	 */
+	public MembershipStore(Path path, NodeIdCodec<T> idCodec) throws IOException
+	{
+		this.idCodec = idCodec;
+		this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.mapped = file.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_SIZE, file.size()));
+		StoredMembership<T> stored = load();
+		this.forcedEpoch = stored == null ? -1 : stored.getEpoch();
+		this.forcedToken = stored == null ? -1 : stored.getFencingToken();
+		this.forces = 0;
+	}
+
+	/**
+	 * Open, or create, a store for a type of node ID the binary wire format supports
+	 * @param path the file
+	 * @param id any node ID, used for its type
+	 * @return the store
+	 * @throws IOException if the file can't be opened or mapped
+	 * @throws IllegalArgumentException if the ID type isn't supported
+	 */
+	public static <T extends Comparable<T>> MembershipStore<T> open(Path path, T id) throws IOException
+	{
+		NodeIdCodec<T> idCodec = NodeIdCodecs.forType(id.getClass());
+		if (idCodec == null)
+		{
+			throw new IllegalArgumentException("No binary codec for node IDs of " + id.getClass());
+		}
+		return new MembershipStore<>(path, idCodec);
+	}
+
+	/**
+	 * Save the membership, replacing what was there
+	 * @param members the nodes mapped to their incarnations
+	 * @param epoch the membership epoch
+	 * @param fencingToken the highest fencing token handed out
+	 * @throws IOException if the file can't be grown
+	 */
+	public synchronized void save(Map<T, Long> members, long epoch, long fencingToken) throws IOException
+	{
+		WireWriter out = new WireWriter(16 + members.size() * 16);
+		out.writeByte(VERSION);
+		out.writeVarLong(epoch);
+		out.writeVarLong(fencingToken);
+		out.writeVarLong(members.size());
+		for (Map.Entry<T, Long> member : members.entrySet())
+		{
+			idCodec.write(out, member.getKey());
+			out.writeVarLong(member.getValue());
+		}
+		byte[] body = out.toByteArray();
+		if (HEADER + body.length > mapped.capacity())
+		{
+			mapped = file.map(FileChannel.MapMode.READ_WRITE, 0, Integer.highestOneBit(HEADER + body.length) * 2L);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		mapped.putInt(4, 0);
+		ByteBuffer target = mapped.duplicate();
+		target.position(HEADER);
+		target.put(body);
+		mapped.putInt(8, (int) crc.getValue());
+		mapped.putInt(4, body.length);
+		mapped.putInt(0, MAGIC);
+		if (epoch > forcedEpoch || fencingToken > forcedToken)
+		{
+			mapped.force();
+			forcedEpoch = Math.max(forcedEpoch, epoch);
+			forcedToken = Math.max(forcedToken, fencingToken);
+			forces++;
+		}
+	}
+	
+	/**
+	 * @return how many saves were forced to disk since the store was opened
+	 */
+	synchronized int getForces()
+	{
+		return forces;
+	}
+
+	/**
+	 * Read the last saved membership
+	 * @return the membership, or null if nothing valid was saved
+	 */
+	public synchronized StoredMembership<T> load()
+	{
+		int length = mapped.getInt(4);
+		if (mapped.getInt(0) != MAGIC || length <= 0 || HEADER + length > mapped.capacity())
+		{
+			return null;
+		}
+		byte[] body = new byte[length];
+		ByteBuffer source = mapped.duplicate();
+		source.position(HEADER);
+		source.get(body);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		if ((int) crc.getValue() != mapped.getInt(8))
+		{
+			return null;
+		}
+		try
+		{
+			WireReader in = new WireReader(body);
+			if (in.readByte() != VERSION)
+			{
+				return null;
+			}
+			long epoch = in.readVarLong();
+			long fencingToken = in.readVarLong();
+			int count = in.readLength();
+			SortedMap<T, Long> members = new TreeMap<>();
+			for (int i = 0; i < count; i++)
+			{
+				T node = idCodec.read(in);
+				members.put(node, in.readVarLong());
+			}
+			return new StoredMembership<>(members, epoch, fencingToken);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Flush the mapping to disk and close the file
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		mapped.force();
+		file.close();
+	}
+}
@@ -0,0 +1,51 @@
+package jmace.LeaderElection.store;
+
+import java.util.Collections;
+import java.util.SortedMap;
+
+/**
+ * The membership and leader state read back from a {@link MembershipStore}
+ */
+public final class StoredMembership<T extends Comparable<T>>
+{
+	private final SortedMap<T, Long> members;
+	private final long epoch;
+	private final long fencingToken;
+
+	StoredMembership(SortedMap<T, Long> members, long epoch, long fencingToken)
+	{
+		this.members = Collections.unmodifiableSortedMap(members);
+		this.epoch = epoch;
+		this.fencingToken = fencingToken;
+	}
+
+	/**
+	 * @return the nodes mapped to their incarnations
+	 */
+	public SortedMap<T, Long> getMembers()
+	{
+		return members;
+	}
+
+	/**
+	 * @return the membership epoch when the snapshot was saved
+	 */
+	public long getEpoch()
+	{
+		return epoch;
+	}
+
+	/**
+	 * @return the highest fencing token the node had handed out, 0 if it never led
+	 */
+	public long getFencingToken()
+	{
+		return fencingToken;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "epoch " + epoch + ", token " + fencingToken + " " + members.keySet();
+	}
+}
@@ -0,0 +1,200 @@
+package jmace.LeaderElection.task;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs events one at a time, in the order they were submitted, on a shared executor.
+ *
+ * Any thread can submit. The mailbox is a lock free queue and at most one drain is scheduled at a time,
+ * so whatever the events touch is only ever used by one thread at a time, without locks.
+ * A drain runs a bounded batch of events before handing its thread back, so many loops can share a small pool.
+ */
+public final class EventLoop
+{
+	private static final Logger LOG = LoggerFactory.getLogger(EventLoop.class);
+	public static final int DEFAULT_BATCH = 64;
+	private static final ThreadLocal<EventLoop> CURRENT = new ThreadLocal<>();
+
+	private final Executor executor;
+	private final Queue<Runnable> mailbox;
+	private final AtomicBoolean scheduled;
+	private final int batch;
+	private volatile Thread runner;
+
+	public EventLoop(Executor executor)
+	{
+		this(executor, DEFAULT_BATCH);
+	}
+
+	/**
+	 * Constructor
+	 * @param executor runs the drains, can be shared by any number of loops
+	 * @param batch the most events a drain runs before letting other loops have the thread
+	 */
+	public EventLoop(Executor executor, int batch)
+	{
+		if (batch <= 0)
+		{
+			throw new IllegalArgumentException("The batch must be positive");
+		}
+		this.executor = executor;
+		this.mailbox = new ConcurrentLinkedQueue<>();
+		this.scheduled = new AtomicBoolean(false);
+		this.batch = batch;
+		this.runner = null;
+	}
+
+	/**
+	 * Queue an event
+	 * @param event the event
+	 */
+	public void execute(Runnable event)
+	{
+		mailbox.add(event);
+		schedule();
+	}
+
+	/**
+	 * Run an event straight away if called from the loop, so it keeps its place among the events already running,
+	 * otherwise queue it
+	 * @param event the event
+	 */
+	public void runInLoop(Runnable event)
+	{
+		if (isInLoop())
+		{
+			event.run();
+		}
+		else
+		{
+			execute(event);
+		}
+	}
+
+	/**
+	 * Run an event on the loop and wait for it to finish, e.g. for calls from application threads that change state.
+	 * Runs straight away if called from the loop. Must not be called from another loop sharing the executor.
+	 * @param event the event
+	 * @throws RuntimeException whatever the event threw
+	 */
+	public void runAndWait(Runnable event)
+	{
+		if (isInLoop())
+		{
+			event.run();
+			return;
+		}
+		FutureTask<Void> future = new FutureTask<>(event, null);
+		execute(future);
+		boolean interrupted = false;
+		try
+		{
+			while (true)
+			{
+				try
+				{
+					future.get();
+					return;
+				}
+				catch (InterruptedException e)
+				{
+					//The event is already queued, so see it through
+					interrupted = true;
+				}
+				catch (ExecutionException e)
+				{
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+					if (cause instanceof Error) throw (Error) cause;
+					throw new RuntimeException(cause);
+				}
+			}
+		}
+		finally
+		{
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return true if the calling thread is running this loop's events
+	 */
+	public boolean isInLoop()
+	{
+		return runner == Thread.currentThread();
+	}
+
+	/**
+	 * @return true if the calling thread is running any loop's events, so must not block
+	 */
+	public static boolean isLoopThread()
+	{
+		return CURRENT.get() != null;
+	}
+
+	/**
+	 * @return the number of events waiting to run
+	 */
+	public int getBacklog()
+	{
+		return mailbox.size();
+	}
+
+	private void schedule()
+	{
+		if (scheduled.compareAndSet(false, true))
+		{
+			try
+			{
+				executor.execute(this::drain);
+			}
+			catch (RejectedExecutionException e)
+			{
+				//The executor has shut down, finish on this thread so nobody waits forever
+				drain();
+			}
+		}
+	}
+
+	private void drain()
+	{
+		//A loop whose executor has shut down drains inside whatever event queued to it
+		EventLoop outer = CURRENT.get();
+		CURRENT.set(this);
+		runner = Thread.currentThread();
+		try
+		{
+			Runnable event;
+			for (int i = 0; i < batch && (event = mailbox.poll()) != null; i++)
+			{
+				try
+				{
+					event.run();
+				}
+				catch (RuntimeException e)
+				{
+					LOG.warn("Event failed", e);
+				}
+			}
+		}
+		finally
+		{
+			runner = null;
+			if (outer == null) CURRENT.remove();
+			else CURRENT.set(outer);
+			scheduled.set(false);
+		}
+		if (!mailbox.isEmpty())
+		{
+			schedule();
+		}
+	}
+}
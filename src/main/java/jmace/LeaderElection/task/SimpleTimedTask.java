@@ -1,36 +1,48 @@
 package jmace.LeaderElection.task;
 
-public class SimpleTimedTask extends Thread
+import java.util.concurrent.ScheduledFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs an execution repeatedly, waiting a fixed time before each run.
+ * Runs on a {@link TaskScheduler} rather than a thread of its own.
+ */
+public class SimpleTimedTask
 {
-	private boolean isDead;
-	private boolean isPaused;
+	private static final Logger LOG = LoggerFactory.getLogger(SimpleTimedTask.class);
+	
+	private volatile boolean isDead;
+	private volatile boolean isPaused;
 	private final long time;
 	private final SimpleTimedTaskExecution exec;
+	private final TaskScheduler scheduler;
+	private ScheduledFuture<?> next;
+	private long generation;
 	
 	public SimpleTimedTask(long time, SimpleTimedTaskExecution exec)
+	{
+		this(TaskScheduler.shared(), time, exec);
+	}
+	
+	public SimpleTimedTask(TaskScheduler scheduler, long time, SimpleTimedTaskExecution exec)
 	{
 		this.isDead = false;
+		this.isPaused = false;
 		this.time = time;
 		this.exec = exec;
+		this.scheduler = scheduler;
+		this.next = null;
+		this.generation = 0;
 	}
 	
-	public void run()
+	/**
+	 * Schedule the first run
+	 */
+	public void start()
 	{
-		do
-		{
-			try
-			{
-				Thread.sleep(time);
-				if (!isDead && !isPaused)
-				{
-					exec.run();
-				}
-			}
-			catch (Exception e)
-			{
-			}
-		}
-		while (!isDead);
+		restart();
 	}
 	
 	public void pause()
@@ -41,18 +53,65 @@ public class SimpleTimedTask extends Thread
 	public void unpause()
 	{
 		isPaused = false;
-		super.interrupt();
+		restart();
 	}
 	
-	public void restart()
+	/**
+	 * Wait the full time again before the next run
+	 */
+	public synchronized void restart()
 	{
-		super.interrupt();
+		if (next != null) next.cancel(false);
+		scheduleNext();
 	}
 	
-	public void interrupt()
+	/**
+	 * Stop the task for good
+	 */
+	public synchronized void interrupt()
 	{
 		isDead = true;
-		super.interrupt();
+		if (next != null) next.cancel(false);
+		next = null;
+	}
+	
+	public boolean isDead()
+	{
+		return isDead;
+	}
+	
+	private synchronized void scheduleNext()
+	{
+		if (isDead)
+		{
+			return;
+		}
+		long scheduled = ++generation;
+		next = scheduler.schedule(() -> run(scheduled), time);
+	}
+	
+	private void run(long scheduled)
+	{
+		try
+		{
+			if (!isDead && !isPaused)
+			{
+				exec.run();
+			}
+		}
+		catch (Exception e)
+		{
+			//Keeps running, the next run may well succeed
+			LOG.warn("Timed task failed", e);
+		}
+		synchronized (this)
+		{
+			//A restart while running has already scheduled the next run
+			if (scheduled == generation)
+			{
+				scheduleNext();
+			}
+		}
 	}
 	
 	public interface SimpleTimedTaskExecution
@@ -0,0 +1,138 @@
+package jmace.LeaderElection.task;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link SimpleTimedTask}s for any number of elections on a small, shared pool of timer threads.
+ * Task bodies can optionally be handed off to virtual threads (Java 21+) so a slow body never holds up a timer thread.
+ */
+public class TaskScheduler
+{
+	private static volatile TaskScheduler shared;
+	
+	private final ScheduledExecutorService timer;
+	private final Executor worker;
+	
+	/**
+	 * Constructor
+	 * @param timerThreads the number of platform threads that run timers
+	 * @param virtualThreads true to run task bodies on virtual threads instead of the timer threads
+	 * @throws UnsupportedOperationException if virtual threads are requested but the JVM does not support them
+	 */
+	public TaskScheduler(int timerThreads, boolean virtualThreads)
+	{
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(timerThreads, daemonThreads("election-timer"));
+		//Restarted tasks cancel their pending run, don't keep thousands of them queued
+		executor.setRemoveOnCancelPolicy(true);
+		this.timer = executor;
+		this.worker = virtualThreads ? newVirtualThreadExecutor() : null;
+	}
+	
+	/**
+	 * Get the scheduler used by tasks that aren't given one
+	 * @return the shared scheduler, one timer thread per processor
+	 */
+	public static TaskScheduler shared()
+	{
+		if (shared == null)
+		{
+			synchronized (TaskScheduler.class)
+			{
+				if (shared == null)
+				{
+					shared = new TaskScheduler(Runtime.getRuntime().availableProcessors(), false);
+				}
+			}
+		}
+		return shared;
+	}
+	
+	/**
+	 * @return true if this JVM can run task bodies on virtual threads
+	 */
+	public static boolean isVirtualThreadSupported()
+	{
+		try
+		{
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}
+		catch (NoSuchMethodException e)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Run a task once after a delay
+	 * @param task the task to run
+	 * @param delayMS the delay in milliseconds
+	 * @return a future that can cancel the task until it starts
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delayMS)
+	{
+		Runnable run = worker == null ? task : () -> worker.execute(task);
+		return timer.schedule(run, delayMS, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Run a task as soon as a thread is free
+	 * @param task the task to run
+	 */
+	public void execute(Runnable task)
+	{
+		if (worker == null)
+		{
+			timer.execute(task);
+		}
+		else
+		{
+			worker.execute(task);
+		}
+	}
+	
+	/**
+	 * Stop the timer threads. Pending tasks never run.
+	 */
+	public void shutdown()
+	{
+		timer.shutdownNow();
+		if (worker instanceof ExecutorService)
+		{
+			((ExecutorService) worker).shutdownNow();
+		}
+	}
+	
+	private static Executor newVirtualThreadExecutor()
+	{
+		try
+		{
+			//Looked up reflectively so the library still builds and runs on Java 8
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor) factory.invoke(null);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later", e);
+		}
+	}
+	
+	private static ThreadFactory daemonThreads(String name)
+	{
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,129 @@
+package jmace.LeaderElection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import jmace.LeaderElection.network.Network;
+import junit.framework.TestCase;
+
+public class ElectionEventDispatcherTest extends TestCase
+{
+	private Queue<Runnable> queued;
+	private Network<String> network;
+	private Boolean head;
+	private LeaderLease<String> lease;
+	private List<String> events;
+	private ElectionEventDispatcher<String> dispatcher;
+
+	@Override
+	protected void setUp()
+	{
+		queued = new ArrayDeque<>();
+		network = new Network<>();
+		head = null;
+		lease = null;
+		events = new ArrayList<>();
+		dispatcher = new ElectionEventDispatcher<>(queued::add, network::getSnapshot, () -> head, () -> lease);
+		dispatcher.addListener(new ElectionListener<String>()
+		{
+			@Override
+			public void onBecameHead()
+			{
+				events.add("head");
+			}
+
+			@Override
+			public void onLostHead()
+			{
+				events.add("lost head");
+			}
+
+			@Override
+			public void onBecameLeader(LeaderLease<String> lease)
+			{
+				events.add("leader " + lease.getFencingToken());
+			}
+
+			@Override
+			public void onLostLeadership()
+			{
+				events.add("lost leader");
+			}
+
+			@Override
+			public void onMembershipChanged(MembershipDelta<String> delta)
+			{
+				events.add(delta.toString());
+			}
+		});
+	}
+
+	public void testChangesAreCoalesced()
+	{
+		network.addNode("b");
+		dispatcher.signal();
+		network.addNode("a");
+		dispatcher.signal();
+		head = true;
+		lease = new LeaderLease<>("a", 1, System.nanoTime() + 1000000000L);
+		dispatcher.signal();
+		assertEquals(1, queued.size());
+		runQueued();
+		assertEquals(3, events.size());
+		assertEquals("joined [a, b] left []", events.get(0));
+		assertEquals("head", events.get(1));
+		assertEquals("leader 1", events.get(2));
+	}
+
+	public void testNothingDeliveredWithoutChange()
+	{
+		network.addNode("a");
+		dispatcher.signal();
+		runQueued();
+		events.clear();
+		network.addNode("a", 5);
+		dispatcher.signal();
+		runQueued();
+		assertTrue(events.isEmpty());
+	}
+
+	public void testNewTokenIsNewLeadership()
+	{
+		lease = new LeaderLease<>("a", 1, System.nanoTime() + 1000000000L);
+		dispatcher.signal();
+		runQueued();
+		lease = lease.renew(System.nanoTime() + 2000000000L);
+		dispatcher.signal();
+		runQueued();
+		lease = new LeaderLease<>("a", 2, System.nanoTime() + 1000000000L);
+		dispatcher.signal();
+		runQueued();
+		lease = null;
+		dispatcher.signal();
+		runQueued();
+		assertEquals("[leader 1, lost leader, leader 2, lost leader]", events.toString());
+	}
+
+	public void testLeftNodes()
+	{
+		network.addNode("a");
+		network.addNode("b");
+		dispatcher.signal();
+		runQueued();
+		network.removeNode("a");
+		dispatcher.signal();
+		runQueued();
+		assertEquals("joined [] left [a]", events.get(events.size() - 1));
+	}
+
+	private void runQueued()
+	{
+		Runnable next;
+		while ((next = queued.poll()) != null)
+		{
+			next.run();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package jmace.LeaderElection;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+import jmace.LeaderElection.network.Network;
+import jmace.LeaderElection.network.NetworkSnapshot;
+import junit.framework.TestCase;
+
+public class MembershipDeltaTest extends TestCase
+{
+	public void testLongIds()
+	{
+		Network<Long> network = new Network<>();
+		NetworkSnapshot<Long> empty = network.getSnapshot();
+		network.addNode(1L);
+		network.addNode(2L);
+		network.addNode(3L);
+		NetworkSnapshot<Long> before = network.getSnapshot();
+		assertEquals(new TreeSet<>(Arrays.asList(1L, 2L, 3L)), new MembershipDelta<>(empty, before).getJoined());
+		network.removeNode(2L);
+		network.addNode(-5L);
+		MembershipDelta<Long> delta = new MembershipDelta<>(before, network.getSnapshot());
+		assertEquals(new TreeSet<>(Arrays.asList(-5L)), delta.getJoined());
+		assertEquals(new TreeSet<>(Arrays.asList(2L)), delta.getLeft());
+		assertTrue(new MembershipDelta<>(before, before).isEmpty());
+	}
+
+	public void testOtherIds()
+	{
+		Network<String> network = new Network<>();
+		network.addNode("a");
+		network.addNode("b");
+		NetworkSnapshot<String> before = network.getSnapshot();
+		network.removeNode("a");
+		network.addNode("c");
+		MembershipDelta<String> delta = new MembershipDelta<>(before, network.getSnapshot());
+		assertEquals(new TreeSet<>(Arrays.asList("c")), delta.getJoined());
+		assertEquals(new TreeSet<>(Arrays.asList("a")), delta.getLeft());
+	}
+}
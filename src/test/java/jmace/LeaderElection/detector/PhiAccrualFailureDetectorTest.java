@@ -0,0 +1,88 @@
+package jmace.LeaderElection.detector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+public class PhiAccrualFailureDetectorTest extends TestCase
+{
+	private static final long MS = 1000000;
+
+	private AtomicLong clock;
+	private PhiAccrualFailureDetector<String> detector;
+
+	@Override
+	protected void setUp()
+	{
+		clock = new AtomicLong();
+		detector = new PhiAccrualFailureDetector<>(8.0, 100, 10, 0, 100, clock::get);
+	}
+
+	public void testUnknownNodeIsAvailable()
+	{
+		assertTrue(detector.isAvailable("a"));
+		assertFalse(detector.isMonitoring("a"));
+		assertEquals(0.0, detector.phi("a"));
+	}
+
+	public void testRegularHeartbeatsStayAvailable()
+	{
+		beat("a", 20, 100);
+		clock.addAndGet(100 * MS);
+		assertTrue(detector.isAvailable("a"));
+		assertTrue(detector.phi("a") < 1);
+	}
+
+	public void testSilentNodeIsSuspected()
+	{
+		beat("a", 20, 100);
+		clock.addAndGet(200 * MS);
+		assertFalse(detector.isAvailable("a"));
+	}
+
+	public void testJitteryNodeGetsMoreSlack()
+	{
+		beat("a", 20, 100);
+		for (int i = 0; i < 20; i++)
+		{
+			clock.addAndGet((i % 2 == 0 ? 20 : 180) * MS);
+			detector.heartbeat("b");
+		}
+		clock.addAndGet(200 * MS);
+		assertFalse(detector.isAvailable("a"));
+		assertTrue(detector.isAvailable("b"));
+	}
+
+	public void testNodeWithoutSecondHeartbeatIsSuspected()
+	{
+		detector.heartbeat("a");
+		clock.addAndGet(100 * MS);
+		assertTrue(detector.isAvailable("a"));
+		clock.addAndGet(1000 * MS);
+		assertFalse(detector.isAvailable("a"));
+	}
+
+	public void testRemoveForgetsHistory()
+	{
+		detector.heartbeat("a");
+		clock.addAndGet(1000 * MS);
+		detector.remove("a");
+		assertFalse(detector.isMonitoring("a"));
+		assertTrue(detector.isAvailable("a"));
+	}
+
+	public void testPhiIncreasesWithSilence()
+	{
+		assertTrue(PhiAccrualFailureDetector.phi(50, 100, 10) < PhiAccrualFailureDetector.phi(100, 100, 10));
+		assertTrue(PhiAccrualFailureDetector.phi(100, 100, 10) < PhiAccrualFailureDetector.phi(150, 100, 10));
+		assertEquals(Math.log10(2), PhiAccrualFailureDetector.phi(100, 100, 10), 0.01);
+	}
+
+	private void beat(String node, int count, long intervalMS)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			clock.addAndGet(intervalMS * MS);
+			detector.heartbeat(node);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import jmace.LeaderElection.messages.NodeLoad;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.RequestType;
+import junit.framework.TestCase;
+
+public class BinaryMessageCodecTest extends TestCase
+{
+	public void testStringRoundTrip() throws IOException
+	{
+		SortedMap<String, Long> members = members(Arrays.asList("a", "node-é", UUID.randomUUID().toString()));
+		Request<String> request = new Request<>("self", RequestType.ADD_TO_NETWORK, members);
+		request.setEpoch(12345);
+		request.setDigest(-42);
+		request.setQuorum(true);
+		Request<String> decoded = roundTrip(new BinaryMessageCodec<>(NodeIdCodecs.STRING), request);
+		assertEquals("self", decoded.getRequestingID());
+		assertEquals(RequestType.ADD_TO_NETWORK, decoded.getType());
+		assertEquals(members, decoded.getMembers());
+		assertEquals(12345, decoded.getEpoch());
+		assertEquals(-42, decoded.getDigest());
+		assertTrue(decoded.isQuorum());
+	}
+
+	public void testLongRoundTrip() throws IOException
+	{
+		SortedMap<Long, Long> members = members(Arrays.asList(Long.MIN_VALUE, -1L, 0L, 300L, Long.MAX_VALUE));
+		Request<Long> decoded = roundTrip(new BinaryMessageCodec<>(NodeIdCodecs.LONG), new Request<>(7L, RequestType.REMOVE_FROM_NETWORK, members));
+		assertEquals(Long.valueOf(7), decoded.getRequestingID());
+		assertEquals(members, decoded.getMembers());
+	}
+
+	public void testLoadAndLeadersRoundTrip() throws IOException
+	{
+		Request<String> request = new Request<>("a", RequestType.HEARTBEAT, members(Arrays.asList("a")));
+		request.setDigest(9);
+		request.setLoad(NodeLoad.ofUtilization(16, 0.375));
+		request.setLeaders(new TreeSet<>(Arrays.asList("b", "c")));
+		Request<String> decoded = roundTrip(new BinaryMessageCodec<>(NodeIdCodecs.STRING), request);
+		assertEquals(NodeLoad.ofThousandths(16, 375), decoded.getLoad());
+		assertEquals(request.getLeaders(), decoded.getLeaders());
+		assertEquals(9, decoded.getDigest());
+		assertEquals(request.getMembers(), decoded.getMembers());
+		decoded = roundTrip(new BinaryMessageCodec<>(NodeIdCodecs.STRING), new Request<>("a", RequestType.STILL_ALIVE));
+		assertNull(decoded.getLoad());
+		assertTrue(decoded.getLeaders().isEmpty());
+	}
+
+	public void testHeartbeatIsSmall()
+	{
+		BinaryMessageCodec<String> codec = new BinaryMessageCodec<>(NodeIdCodecs.STRING);
+		String id = UUID.randomUUID().toString();
+		//version, type, id length, id, epoch, flags, member count
+		assertEquals(2 + 1 + id.length() + 3, codec.encode(new Request<>(id, RequestType.STILL_ALIVE)).length);
+	}
+
+	public void testDecodesVersion1() throws IOException
+	{
+		WireWriter out = new WireWriter(32);
+		out.writeByte(1);
+		out.writeByte(RequestType.ADD_TO_NETWORK.getCode());
+		out.writeString("self");
+		out.writeVarLong(2);
+		out.writeString("a");
+		out.writeString("b");
+		Request<String> decoded = new BinaryMessageCodec<>(NodeIdCodecs.STRING).decode(out.toByteArray());
+		assertEquals("self", decoded.getRequestingID());
+		assertEquals(Long.valueOf(0), decoded.getMembers().get("a"));
+		assertEquals(Long.valueOf(0), decoded.getMembers().get("b"));
+		assertEquals(2, decoded.getMembers().size());
+	}
+
+	public void testRejectsUnknownVersion()
+	{
+		BinaryMessageCodec<String> codec = new BinaryMessageCodec<>(NodeIdCodecs.STRING);
+		byte[] bytes = codec.encode(new Request<>("self", RequestType.POLL_NODES));
+		bytes[0] = (byte) (BinaryMessageCodec.VERSION + 1);
+		try
+		{
+			codec.decode(bytes);
+			fail();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+
+	public void testRejectsTruncatedMessage()
+	{
+		BinaryMessageCodec<String> codec = new BinaryMessageCodec<>(NodeIdCodecs.STRING);
+		byte[] bytes = codec.encode(new Request<>("self", RequestType.ADD_TO_NETWORK, members(Arrays.asList("a", "b"))));
+		try
+		{
+			codec.decode(Arrays.copyOf(bytes, bytes.length - 1));
+			fail();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+
+	private static <T> SortedMap<T, Long> members(Iterable<T> nodes)
+	{
+		SortedMap<T, Long> members = new TreeMap<>();
+		long incarnation = 1;
+		for (T node : nodes)
+		{
+			members.put(node, incarnation++ * 1000000007L);
+		}
+		return members;
+	}
+
+	private static <T> Request<T> roundTrip(MessageCodec<T> codec, Request<T> request) throws IOException
+	{
+		return codec.decode(codec.encode(request));
+	}
+}
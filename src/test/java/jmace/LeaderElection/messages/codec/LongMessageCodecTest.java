@@ -0,0 +1,85 @@
+package jmace.LeaderElection.messages.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import jmace.LeaderElection.messages.NodeLoad;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.RequestType;
+import junit.framework.TestCase;
+
+public class LongMessageCodecTest extends TestCase
+{
+	public void testRoundTripAcrossTheWholeRange() throws IOException
+	{
+		SortedMap<Long, Long> members = new TreeMap<>();
+		for (long node : Arrays.asList(Long.MIN_VALUE, -1L, 0L, 300L, Long.MAX_VALUE))
+		{
+			members.put(node, node == 0 ? 0 : 17L);
+		}
+		Request<Long> request = new Request<>(-7L, RequestType.SYNC_NETWORK, members);
+		request.setEpoch(99);
+		request.setDigest(12);
+		request.setQuorum(true);
+		request.setLoad(NodeLoad.ofThousandths(Integer.MAX_VALUE, NodeLoad.FULL));
+		request.setLeaders(new TreeSet<>(Arrays.asList(Long.MIN_VALUE, 300L)));
+		LongMessageCodec codec = new LongMessageCodec();
+		Request<Long> decoded = codec.decode(codec.encode(request));
+		assertEquals(Long.valueOf(-7), decoded.getRequestingID());
+		assertEquals(RequestType.SYNC_NETWORK, decoded.getType());
+		assertEquals(members, decoded.getMembers());
+		assertEquals(99, decoded.getEpoch());
+		assertEquals(12, decoded.getDigest());
+		assertTrue(decoded.isQuorum());
+		assertEquals(request.getLoad(), decoded.getLoad());
+		assertEquals(request.getLeaders(), decoded.getLeaders());
+	}
+
+	public void testLargeDenseNetworkIsCompact() throws IOException
+	{
+		SortedMap<Long, Long> members = new TreeMap<>();
+		for (long node = 0; node < 20000; node++)
+		{
+			members.put(1000000000L + node * 3, 0L);
+		}
+		LongMessageCodec codec = new LongMessageCodec();
+		byte[] bytes = codec.encode(new Request<>(1L, RequestType.SYNC_NETWORK, members));
+		assertTrue(bytes.length + " bytes", bytes.length < members.size() + 32);
+		assertTrue(bytes.length * 4 < new BinaryMessageCodec<>(NodeIdCodecs.LONG).encode(new Request<>(1L, RequestType.SYNC_NETWORK, members)).length);
+		assertEquals(members, codec.decode(bytes).getMembers());
+	}
+
+	public void testDecodesVersion2() throws IOException
+	{
+		SortedMap<Long, Long> members = new TreeMap<>();
+		members.put(5L, 2L);
+		byte[] bytes = new BinaryMessageCodec<>(NodeIdCodecs.LONG).encode(new Request<>(5L, RequestType.ADD_TO_NETWORK, members));
+		assertEquals(members, new LongMessageCodec().decode(bytes).getMembers());
+	}
+
+	public void testRejectsImpossibleMemberCount()
+	{
+		WireWriter out = new WireWriter(16);
+		out.writeByte(LongMessageCodec.VERSION);
+		out.writeByte(RequestType.SYNC_NETWORK.getCode());
+		out.writeVarLong(0);
+		out.writeVarLong(0);
+		out.writeByte(0);
+		out.writeVarLong(Integer.MAX_VALUE);
+		try
+		{
+			new LongMessageCodec().decode(out.toByteArray());
+			fail();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+
+	public void testDefaultForLongIds()
+	{
+		assertTrue(MessageCodecs.forId(1L) instanceof LongMessageCodec);
+	}
+}
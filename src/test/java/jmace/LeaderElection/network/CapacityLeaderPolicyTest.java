@@ -0,0 +1,84 @@
+package jmace.LeaderElection.network;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import jmace.LeaderElection.messages.NodeLoad;
+import junit.framework.TestCase;
+
+public class CapacityLeaderPolicyTest extends TestCase
+{
+	private Network<String> network;
+	private Map<String, NodeLoad> loads;
+	private CapacityLeaderPolicy<String> policy;
+
+	@Override
+	protected void setUp()
+	{
+		network = new Network<>();
+		network.addAllNodes(Arrays.asList("a", "b", "c", "d"));
+		loads = new HashMap<>();
+		policy = new CapacityLeaderPolicy<>(0.25);
+	}
+
+	public void testPicksMostHeadroom()
+	{
+		loads.put("a", NodeLoad.ofUtilization(4, 0.5));
+		loads.put("b", NodeLoad.ofUtilization(8, 0.9));
+		loads.put("c", NodeLoad.ofUtilization(8, 0.25));
+		loads.put("d", NodeLoad.ofUtilization(2, 0.0));
+		assertEquals(leaders("a", "c"), select(2, Collections.emptySet()));
+	}
+
+	public void testUnreportedNodesLeadLast()
+	{
+		loads.put("d", NodeLoad.ofUtilization(1, 0.5));
+		assertEquals(leaders("a", "d"), select(2, Collections.emptySet()));
+	}
+
+	public void testIncumbentsKeptWithinMargin()
+	{
+		loads.put("a", NodeLoad.ofUtilization(10, 0.0));
+		loads.put("b", NodeLoad.ofUtilization(10, 0.0));
+		loads.put("c", NodeLoad.ofUtilization(12, 0.0));
+		loads.put("d", NodeLoad.ofUtilization(12, 0.0));
+		//20% more headroom is not enough to take over
+		assertEquals(leaders("a", "b"), select(2, leaders("a", "b")));
+		loads.put("d", NodeLoad.ofUtilization(13, 0.0));
+		assertEquals(leaders("a", "d"), select(2, leaders("a", "b")));
+	}
+
+	public void testReplacesDepartedAndExtraLeaders()
+	{
+		loads.put("a", NodeLoad.ofUtilization(1, 0.0));
+		loads.put("b", NodeLoad.ofUtilization(2, 0.0));
+		loads.put("c", NodeLoad.ofUtilization(3, 0.0));
+		loads.put("d", NodeLoad.ofUtilization(4, 0.0));
+		assertEquals(leaders("c", "d"), select(2, leaders("a", "c", "d")));
+		assertEquals(leaders("b", "c", "d"), select(3, leaders("c")));
+	}
+
+	public void testNetworkKeepsSelectionAcrossRounds()
+	{
+		network.setLeaderSelectionPolicy(policy);
+		loads.put("c", NodeLoad.ofUtilization(10, 0.0));
+		loads.put("d", NodeLoad.ofUtilization(10, 0.1));
+		assertEquals(leaders("c", "d"), network.selectLeaders(2, loads));
+		loads.put("a", NodeLoad.ofUtilization(10, 0.0));
+		assertEquals(leaders("c", "d"), network.selectLeaders(2, loads));
+		assertEquals(leaders("c", "d"), network.getLeaders(2));
+	}
+
+	private Set<String> select(int numberOfLeaders, Set<String> current)
+	{
+		return policy.selectLeaders(network.getSnapshot(), numberOfLeaders, loads, current);
+	}
+
+	private static Set<String> leaders(String... nodes)
+	{
+		return new TreeSet<>(Arrays.asList(nodes));
+	}
+}
@@ -0,0 +1,62 @@
+package jmace.LeaderElection.network;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import jmace.LeaderElection.LeaderElection;
+
+/**
+ * Waits shared by the tests that run whole clusters
+ */
+final class Clusters
+{
+	static final long TIMEOUT_MS = 10000;
+
+	private Clusters()
+	{
+	}
+
+	/**
+	 * Poll a condition until it holds
+	 * @param condition the condition
+	 * @return false if it still didn't hold after {@link #TIMEOUT_MS}
+	 */
+	static boolean await(BooleanSupplier condition) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!condition.getAsBoolean())
+		{
+			if (System.currentTimeMillis() > deadline)
+			{
+				return false;
+			}
+			Thread.sleep(20);
+		}
+		return true;
+	}
+
+	/**
+	 * Check that every running node sees the same network size and head, and that exactly one of them is head
+	 * @param nodes the elections
+	 * @param managers their network managers, in the same order
+	 * @param size the expected network size
+	 * @param head the expected head
+	 * @return true if they all agree
+	 */
+	static boolean agreeOn(List<LeaderElection<String>> nodes, List<? extends MessagingNetworkManager<String>> managers, int size, String head)
+	{
+		int heads = 0;
+		for (int i = 0; i < managers.size(); i++)
+		{
+			if (managers.get(i).isStopped())
+			{
+				continue;
+			}
+			if (managers.get(i).getNetwork().size() != size || !head.equals(managers.get(i).getHead()))
+			{
+				return false;
+			}
+			if (Boolean.TRUE.equals(nodes.get(i).isHead())) heads++;
+		}
+		return heads == 1;
+	}
+}
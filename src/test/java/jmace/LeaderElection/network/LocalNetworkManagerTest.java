@@ -0,0 +1,477 @@
+package jmace.LeaderElection.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import jmace.LeaderElection.ElectionListener;
+import jmace.LeaderElection.HeartbeatMode;
+import jmace.LeaderElection.LeaderElection;
+import jmace.LeaderElection.LeaderLease;
+import jmace.LeaderElection.MembershipDelta;
+import jmace.LeaderElection.messages.NodeLoad;
+import jmace.LeaderElection.metrics.ElectionMetrics;
+import jmace.LeaderElection.metrics.SimpleMetricRegistry;
+import jmace.LeaderElection.task.TaskScheduler;
+import junit.framework.TestCase;
+
+/**
+ * Runs whole clusters over the in-process bus
+ */
+public class LocalNetworkManagerTest extends TestCase
+{
+	private static final int NUM_NODES = 30;
+	private static final int NUM_LEADERS = 3;
+	private static final long HEAD_POLL_DELAY_MS = 100;
+	private static final long NODE_POLL_DELAY_MS = 300;
+	private static final long TIMEOUT_MS = 10000;
+
+	private LocalMessageBus<String> bus;
+	private List<LeaderElection<String>> nodes;
+	private List<LocalNetworkManager<String>> managers;
+	private SimpleMetricRegistry registry;
+
+	@Override
+	protected void setUp()
+	{
+		bus = new LocalMessageBus<>(1, 5, 0.0, 42);
+		nodes = new ArrayList<>();
+		managers = new ArrayList<>();
+		registry = new SimpleMetricRegistry();
+	}
+
+	private void startNodes(HeartbeatMode mode)
+	{
+		startNodes(mode, false);
+	}
+
+	private void startNodes(HeartbeatMode mode, boolean quorum)
+	{
+		startNodes(mode, quorum, manager -> {});
+	}
+
+	private void startNodes(HeartbeatMode mode, boolean quorum, Consumer<LocalNetworkManager<String>> configure)
+	{
+		ElectionMetrics metrics = new ElectionMetrics(registry);
+		for (int i = 0; i < NUM_NODES; i++)
+		{
+			LocalNetworkManager<String> manager = new LocalNetworkManager<>(String.format("node-%03d", i), NUM_LEADERS, bus);
+			manager.setMetrics(metrics);
+			configure.accept(manager);
+			LeaderElection<String> node = new LeaderElection<>(manager, HEAD_POLL_DELAY_MS, NODE_POLL_DELAY_MS, TaskScheduler.shared(), mode);
+			if (quorum) node.enableQuorum();
+			nodes.add(node);
+			managers.add(manager);
+			node.start();
+		}
+	}
+
+	@Override
+	protected void tearDown()
+	{
+		for (LeaderElection<String> node : nodes)
+		{
+			node.interrupt();
+		}
+		bus.shutdown();
+	}
+
+	public void testClusterElectsSingleHead() throws InterruptedException
+	{
+		startNodes(HeartbeatMode.POLL);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+	}
+
+	public void testHeadFailover() throws Exception
+	{
+		startNodes(HeartbeatMode.POLL);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		LeaderElection<String> head = nodes.remove(0);
+		head.pause();
+		assertTrue(awaitSingleHead(nodes, "node-001"));
+	}
+
+	public void testMetricsRecordFailover() throws Exception
+	{
+		startNodes(HeartbeatMode.POLL);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		//Responders are counted when the next poll goes out
+		assertTrue(awaitMax("election.poll.responders", NUM_NODES));
+		assertTrue(registry.get("election.heartbeat.rtt").getCount() > 0);
+		pauseSettledHead();
+		assertTrue(awaitSingleHead(nodes, "node-001"));
+		//Recorded just after the change that the head check above may have already seen
+		assertTrue(awaitCount("election.nodes.removed", 1));
+		assertTrue(awaitCount("election.role.changes{change=BECAME_HEAD}", 2));
+		assertFailoverRecorded();
+	}
+
+	public void testPausedNodeRejoins() throws Exception
+	{
+		startNodes(HeartbeatMode.POLL);
+		assertPausedNodeRejoins();
+	}
+
+	public void testLeaderLeasesAreFenced() throws Exception
+	{
+		startNodes(HeartbeatMode.POLL);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		LeaderElection<String> leader = nodes.get(1);
+		LeaderLease<String> lease = leader.getLease();
+		assertNotNull(lease);
+		assertTrue(leader.holdsLease(lease.getFencingToken()));
+		assertNull(nodes.get(NUM_LEADERS).getLease());
+		//Renewed before it runs out
+		Thread.sleep(HEAD_POLL_DELAY_MS * 8);
+		assertTrue(leader.holdsLease(lease.getFencingToken()));
+
+		nodes.remove(1).pause();
+		assertFalse(leader.holdsLease(lease.getFencingToken()));
+		LeaderElection<String> successor = nodes.get(NUM_LEADERS - 1);
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (successor.getLease() == null && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(20);
+		}
+		assertNotNull(successor.getLease());
+		assertTrue(successor.getLease().getFencingToken() > lease.getFencingToken());
+	}
+
+	public void testIsolatedLeaderLeaseExpires() throws Exception
+	{
+		startNodes(HeartbeatMode.POLL);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		LeaderElection<String> leader = nodes.get(1);
+		LeaderLease<String> lease = leader.getLease();
+		assertNotNull(lease);
+
+		//Cut off without pausing, so the lease is never revoked and has to run out
+		bus.partition(Collections.singleton("node-001"));
+		assertTrue(Clusters.await(() -> !leader.holdsLease(lease.getFencingToken())));
+		LeaderElection<String> successor = nodes.get(NUM_LEADERS);
+		assertTrue(Clusters.await(() -> successor.getLease() != null));
+		assertTrue(successor.getLease().getFencingToken() > lease.getFencingToken());
+	}
+
+	public void testTokensOnlyRiseOnceTheEpochArrives() throws Exception
+	{
+		LocalMessageBus<String> otherBus = new LocalMessageBus<>();
+		try
+		{
+			LocalNetworkManager<String> aheadManager = createAlone("node-000", bus);
+			LeaderElection<String> ahead = nodes.get(0);
+			aheadManager.getNetwork().observeEpoch(100);
+			ahead.start();
+			assertTrue(Clusters.await(() -> ahead.getLease() != null));
+			long token = ahead.getLease().getFencingToken();
+			assertTrue(token >= 100);
+
+			//Never saw the raised epoch, so its token can be lower
+			LocalNetworkManager<String> staleManager = createAlone("node-001", otherBus);
+			LeaderElection<String> stale = nodes.get(1);
+			stale.start();
+			assertTrue(Clusters.await(() -> stale.getLease() != null));
+			assertTrue(stale.getLease().getFencingToken() < token);
+
+			//Removing the old leader raises the epoch past its token; once that arrives, the next lease is higher
+			staleManager.getNetwork().observeEpoch(token + 1);
+			stale.pause();
+			assertNull(stale.getLease());
+			stale.unpause();
+			assertTrue(Clusters.await(() -> stale.getLease() != null));
+			assertTrue(stale.getLease().getFencingToken() > token);
+		}
+		finally
+		{
+			otherBus.shutdown();
+		}
+	}
+
+	public void testListenersAreToldOfFailover() throws Exception
+	{
+		startNodes(HeartbeatMode.POLL);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		CountDownLatch becameHead = new CountDownLatch(1);
+		CountDownLatch sawHeadLeave = new CountDownLatch(1);
+		nodes.get(1).addListener(new ElectionListener<String>()
+		{
+			@Override
+			public void onBecameHead()
+			{
+				becameHead.countDown();
+			}
+
+			@Override
+			public void onMembershipChanged(MembershipDelta<String> delta)
+			{
+				if (delta.getLeft().contains("node-000")) sawHeadLeave.countDown();
+			}
+		});
+		//A listener that never returns must not hold up the election
+		CountDownLatch release = new CountDownLatch(1);
+		nodes.get(2).addListener(new ElectionListener<String>()
+		{
+			@Override
+			public void onMembershipChanged(MembershipDelta<String> delta)
+			{
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		nodes.remove(0).pause();
+		assertTrue(awaitSingleHead(nodes, "node-001"));
+		assertTrue(becameHead.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		assertTrue(sawHeadLeave.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		release.countDown();
+	}
+
+	public void testPushHeadFailover() throws Exception
+	{
+		startNodes(HeartbeatMode.PUSH);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		pauseSettledHead();
+		assertTrue(awaitSingleHead(nodes, "node-001"));
+		assertTrue(awaitNetworkSize(NUM_NODES - 1));
+		assertFailoverRecorded();
+	}
+
+	public void testRingHeadFailover() throws Exception
+	{
+		startNodes(HeartbeatMode.RING);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		pauseSettledHead();
+		assertTrue(awaitSingleHead(nodes, "node-001"));
+		assertTrue(awaitNetworkSize(NUM_NODES - 1));
+		assertFailoverRecorded();
+	}
+
+	public void testRingPausedNodeRejoins() throws Exception
+	{
+		startNodes(HeartbeatMode.RING);
+		assertPausedNodeRejoins();
+	}
+
+	public void testGracefulShutdownHandsOverWithinAHeartbeat() throws Exception
+	{
+		startNodes(HeartbeatMode.POLL);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		long start = System.nanoTime();
+		nodes.get(0).shutdownGracefully();
+		assertTrue(awaitSingleHead(nodes.subList(1, NUM_NODES), "node-001"));
+		assertTrue(awaitNetworkSize(NUM_NODES - 1));
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(HEAD_POLL_DELAY_MS));
+		assertFalse(nodes.get(0).isHead());
+	}
+
+	public void testResignedNodeRejoins() throws Exception
+	{
+		startNodes(HeartbeatMode.PUSH);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		nodes.get(0).resign();
+		assertTrue(awaitSingleHead(nodes.subList(1, NUM_NODES), "node-001"));
+		assertNull(nodes.get(0).getLease());
+		nodes.get(0).unpause();
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+	}
+
+	public void testQuorumHeadFailover() throws Exception
+	{
+		startNodes(HeartbeatMode.POLL, true);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		nodes.get(0).pause();
+		assertTrue(awaitSingleHead(nodes.subList(1, NUM_NODES), "node-001"));
+		assertTrue(awaitNetworkSize(NUM_NODES - 1));
+	}
+
+	public void testQuorumMinorityCannotLead() throws Exception
+	{
+		startNodes(HeartbeatMode.PUSH, true);
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		List<LeaderElection<String>> minority = nodes.subList(0, 3);
+		List<String> minorityIds = new ArrayList<>();
+		for (LeaderElection<String> node : minority)
+		{
+			minorityIds.add(node.getSelfId());
+		}
+		bus.partition(minorityIds);
+		assertTrue(awaitSingleHead(nodes.subList(3, NUM_NODES), "node-003"));
+		assertTrue(Clusters.await(() -> {
+			for (LeaderElection<String> node : minority)
+			{
+				if (node.isHead() || node.isLeader()) return false;
+			}
+			return true;
+		}));
+		//The minority could not remove anyone
+		assertEquals(NUM_NODES, managers.get(0).getNetwork().size());
+		bus.heal();
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+	}
+
+	public void testLeadersPlacedByCapacity() throws Exception
+	{
+		startNodes(HeartbeatMode.PUSH, false, manager -> {
+			//The highest nodes have the most room, by more than the margin, whatever order the loads arrive in
+			int capacity = 1 << Integer.parseInt(manager.getSelf().substring(5)) / NUM_LEADERS;
+			manager.setLoadReporter(() -> NodeLoad.ofUtilization(capacity, 0.5));
+			manager.getNetwork().setLeaderSelectionPolicy(new CapacityLeaderPolicy<>());
+		});
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(Clusters.await(() -> {
+			for (int i = 0; i < NUM_NODES; i++)
+			{
+				if (!Boolean.valueOf(i >= NUM_NODES - NUM_LEADERS).equals(nodes.get(i).isLeader())) return false;
+			}
+			return true;
+		}));
+		//The head no longer leads, but still coordinates
+		assertFalse(nodes.get(0).isLeader());
+		assertTrue(nodes.get(0).isHead());
+	}
+
+	public void testRingRejectsLeaderPolicy()
+	{
+		LocalNetworkManager<String> manager = new LocalNetworkManager<>("node-000", NUM_LEADERS, bus);
+		LeaderElection<String> node = new LeaderElection<>(manager, HEAD_POLL_DELAY_MS, NODE_POLL_DELAY_MS, TaskScheduler.shared(), HeartbeatMode.RING);
+		try
+		{
+			node.setLeaderSelectionPolicy(new CapacityLeaderPolicy<>());
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+		}
+		assertNull(manager.getNetwork().getLeaderSelectionPolicy());
+		manager.getNetwork().setLeaderSelectionPolicy(new CapacityLeaderPolicy<>());
+		try
+		{
+			new LeaderElection<>(manager, HEAD_POLL_DELAY_MS, NODE_POLL_DELAY_MS, TaskScheduler.shared(), HeartbeatMode.RING);
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+		}
+	}
+
+	private void assertPausedNodeRejoins() throws Exception
+	{
+		assertTrue(awaitSingleHead(nodes, "node-000"));
+		assertTrue(awaitNetworkSize(NUM_NODES));
+		LeaderElection<String> paused = nodes.get(NUM_NODES / 2);
+		paused.pause();
+		assertTrue(awaitNetworkSize(NUM_NODES - 1));
+		paused.unpause();
+		assertTrue(awaitNetworkSize(NUM_NODES));
+	}
+
+	/**
+	 * Create a node on a bus of its own, so it leads by itself
+	 * @return its network manager, the election is added to the nodes
+	 */
+	private LocalNetworkManager<String> createAlone(String id, LocalMessageBus<String> nodeBus)
+	{
+		LocalNetworkManager<String> manager = new LocalNetworkManager<>(id, NUM_LEADERS, nodeBus);
+		nodes.add(new LeaderElection<>(manager, HEAD_POLL_DELAY_MS, NODE_POLL_DELAY_MS, TaskScheduler.shared(), HeartbeatMode.POLL));
+		return manager;
+	}
+
+	/**
+	 * Pause node-000 once every node has heard from it as head a few times,
+	 * since a node only counts it as gone quiet against how often it used to hear from it
+	 */
+	private void pauseSettledHead() throws Exception
+	{
+		Thread.sleep(HEAD_POLL_DELAY_MS * 3);
+		nodes.remove(0).pause();
+	}
+
+	/**
+	 * Check that every node but the two heads measured the failover from node-000 to node-001 once,
+	 * and that nothing before it, like nodes joining at startup, was taken for one
+	 */
+	private void assertFailoverRecorded() throws InterruptedException
+	{
+		assertTrue(awaitCount("election.head.failover", NUM_NODES - 2));
+		assertEquals(NUM_NODES - 2, registry.get("election.head.failover").getCount());
+		//node-000 was last heard from at least a heartbeat before it could be suspected
+		assertTrue(registry.get("election.head.failover").getMax() >= HEAD_POLL_DELAY_MS * 1000000);
+	}
+
+	private boolean awaitCount(String meter, long count) throws InterruptedException
+	{
+		return Clusters.await(() -> registry.get(meter).getCount() >= count);
+	}
+
+	private boolean awaitMax(String meter, long max) throws InterruptedException
+	{
+		return Clusters.await(() -> registry.get(meter).getMax() >= max);
+	}
+
+	private boolean awaitNetworkSize(int size) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (System.currentTimeMillis() < deadline)
+		{
+			boolean agreed = true;
+			for (LocalNetworkManager<String> manager : managers)
+			{
+				agreed &= manager.isStopped() || manager.getNetwork().size() == size;
+			}
+			if (agreed)
+			{
+				return true;
+			}
+			Thread.sleep(20);
+		}
+		return false;
+	}
+
+	private static boolean awaitSingleHead(List<LeaderElection<String>> nodes, String expectedHead) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (System.currentTimeMillis() < deadline)
+		{
+			int heads = 0;
+			boolean agreed = true;
+			for (LeaderElection<String> node : nodes)
+			{
+				Boolean isHead = node.isHead();
+				if (isHead == null)
+				{
+					agreed = false;
+					break;
+				}
+				if (isHead)
+				{
+					heads++;
+					agreed &= node.getSelfId().equals(expectedHead);
+				}
+			}
+			if (agreed && heads == 1)
+			{
+				return true;
+			}
+			Thread.sleep(20);
+		}
+		return false;
+	}
+}
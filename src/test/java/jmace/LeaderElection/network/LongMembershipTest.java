@@ -0,0 +1,51 @@
+package jmace.LeaderElection.network;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class LongMembershipTest extends TestCase
+{
+	public void testMatchesTheSnapshot()
+	{
+		Network<Long> network = new Network<>();
+		network.addNode(30L, 2);
+		network.addNode(-4L);
+		network.addNode(10L, 1);
+		LongMembership membership = LongMembership.of(network.getSnapshot());
+		assertTrue(Arrays.equals(new long[] {-4, 10, 30}, membership.toArray()));
+		assertEquals(-4, membership.getHead());
+		assertEquals(2, membership.getIncarnation(30));
+		assertEquals(LongMembership.NOT_A_MEMBER, membership.getIncarnation(11));
+		assertTrue(membership.contains(10));
+		assertFalse(membership.contains(11));
+		assertEquals(network.getDigest(), membership.getDigest());
+		assertSame(membership, LongMembership.of(network.getSnapshot()));
+	}
+
+	public void testWithout()
+	{
+		LongMembership before = LongMembership.of(new long[] {1, 2, 3, 5}, new long[4]);
+		LongMembership after = LongMembership.of(new long[] {2, 4, 5, 6}, new long[4]);
+		assertTrue(Arrays.equals(new long[] {4, 6}, after.without(before)));
+		assertTrue(Arrays.equals(new long[] {1, 3}, before.without(after)));
+		assertEquals(0, after.without(after).length);
+	}
+
+	public void testEquality()
+	{
+		assertEquals(LongMembership.of(new long[] {1, 2}, new long[] {0, 1}), LongMembership.of(new long[] {1, 2}, new long[] {0, 1}));
+		assertFalse(LongMembership.of(new long[] {1, 2}, new long[] {0, 1}).equals(LongMembership.of(new long[] {1, 2}, new long[] {0, 2})));
+	}
+
+	public void testRejectsUnsortedIds()
+	{
+		try
+		{
+			LongMembership.of(new long[] {2, 1}, new long[2]);
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+}
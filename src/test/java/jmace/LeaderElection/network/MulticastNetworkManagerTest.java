@@ -0,0 +1,86 @@
+package jmace.LeaderElection.network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import jmace.LeaderElection.LeaderElection;
+import jmace.LeaderElection.task.TaskScheduler;
+import junit.framework.TestCase;
+
+/**
+ * Runs a small cluster over multicast on the loopback interface
+ */
+public class MulticastNetworkManagerTest extends TestCase
+{
+	private static final int NUM_NODES = 5;
+	private static final int NUM_LEADERS = 2;
+	private static final long HEAD_POLL_DELAY_MS = 100;
+	private static final long NODE_POLL_DELAY_MS = 300;
+
+	private List<LeaderElection<String>> nodes;
+	private List<MulticastNetworkManager<String>> managers;
+
+	@Override
+	protected void setUp()
+	{
+		nodes = new ArrayList<>();
+		managers = new ArrayList<>();
+	}
+
+	private void startNodes() throws Exception
+	{
+		NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+		//A group and port of its own, so concurrent runs don't hear each other
+		Random random = new Random();
+		InetSocketAddress group = new InetSocketAddress(InetAddress.getByName("239.255." + random.nextInt(256) + "." + (1 + random.nextInt(254))), 40000 + random.nextInt(20000));
+		for (int i = 0; i < NUM_NODES; i++)
+		{
+			MulticastNetworkManager<String> manager = new MulticastNetworkManager<>(String.format("node-%03d", i), NUM_LEADERS, group, loopback);
+			LeaderElection<String> node = new LeaderElection<>(manager, HEAD_POLL_DELAY_MS, NODE_POLL_DELAY_MS, TaskScheduler.shared());
+			nodes.add(node);
+			managers.add(manager);
+			node.start();
+		}
+	}
+
+	@Override
+	protected void tearDown()
+	{
+		for (LeaderElection<String> node : nodes)
+		{
+			node.interrupt();
+		}
+	}
+
+	public void testElectsAndFailsOver() throws Exception
+	{
+		startNodes();
+		assertTrue(Clusters.await(() -> Clusters.agreeOn(nodes, managers, NUM_NODES, "node-000")));
+		//Still alive responses found their way back directly
+		for (MulticastNetworkManager<String> manager : managers)
+		{
+			assertEquals(managers.get(0).getLocalAddress(), manager.getAddress("node-000"));
+		}
+		assertEquals(managers.get(1).getLocalAddress(), managers.get(0).getAddress("node-001"));
+		nodes.get(0).pause();
+		assertFalse(managers.get(0).isConnected());
+		assertTrue(Clusters.await(() -> Clusters.agreeOn(nodes, managers, NUM_NODES - 1, "node-001")));
+		nodes.get(0).unpause();
+		assertTrue(Clusters.await(() -> Clusters.agreeOn(nodes, managers, NUM_NODES, "node-000")));
+	}
+
+	public void testRejectsUnicastGroup() throws Exception
+	{
+		try
+		{
+			new MulticastNetworkManager<>("a", 1, new InetSocketAddress(InetAddress.getLoopbackAddress(), 4000), null);
+			fail();
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+}
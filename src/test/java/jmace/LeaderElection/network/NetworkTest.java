@@ -0,0 +1,151 @@
+package jmace.LeaderElection.network;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import junit.framework.TestCase;
+
+public class NetworkTest extends TestCase
+{
+	public void testDigestIgnoresOrder()
+	{
+		Network<String> first = new Network<>();
+		first.addNode("a", 1);
+		first.addNode("b", 2);
+		first.addNode("c", 3);
+		Network<String> second = new Network<>();
+		second.addNode("c", 3);
+		second.addNode("b", 1);
+		second.addNode("a", 1);
+		assertFalse(first.getDigest() == second.getDigest());
+		second.addNode("b", 2);
+		assertEquals(first.getDigest(), second.getDigest());
+		second.removeNode("c");
+		second.addNode("c", 3);
+		assertEquals(first.getDigest(), second.getDigest());
+	}
+
+	public void testStaleRemovalIgnored()
+	{
+		Network<String> network = new Network<>();
+		network.addNode("a", 5);
+		assertFalse(network.removeAllMembers(Collections.singletonMap("a", 4L)));
+		assertEquals(Long.valueOf(5), network.getIncarnation("a"));
+		assertTrue(network.removeAllMembers(Collections.singletonMap("a", 5L)));
+		assertTrue(network.isEmpty());
+	}
+
+	public void testOlderIncarnationIgnored()
+	{
+		Network<String> network = new Network<>();
+		network.addNode("a", 5);
+		assertFalse(network.addNode("a", 4));
+		assertTrue(network.addNode("a", 6));
+	}
+
+	public void testEpochAdvances()
+	{
+		Network<String> network = new Network<>();
+		network.addNode("a", 1);
+		long epoch = network.getEpoch();
+		network.observeEpoch(epoch + 10);
+		assertEquals(epoch + 10, network.getEpoch());
+		network.addNode("b", 1);
+		assertTrue(network.getEpoch() > epoch + 10);
+		network.observeEpoch(0);
+		assertTrue(network.getEpoch() > epoch + 10);
+	}
+
+	public void testReplaceMembersAlertsOnRemoval()
+	{
+		Network<String> network = new Network<>();
+		network.addAllNodes(Arrays.asList("a", "b", "c"));
+		int[] changes = new int[1];
+		network.addChangeSubscriber(() -> changes[0]++);
+		SortedMap<String, Long> members = new TreeMap<>();
+		members.put("a", 0L);
+		members.put("b", 0L);
+		network.replaceMembers(members);
+		assertEquals(1, changes[0]);
+		assertEquals(members.keySet(), network.getNodes());
+	}
+
+	public void testHeadAndLeadersFollowChanges()
+	{
+		Network<String> network = new Network<>();
+		assertNull(network.getHeadNode());
+		assertTrue(network.getLeaders(2).isEmpty());
+		network.addAllNodes(Arrays.asList("c", "d", "e"));
+		assertEquals("c", network.getHeadNode());
+		assertEquals(new TreeSet<>(Arrays.asList("c", "d")), network.getLeaders(2));
+		assertSame(network.getLeaders(2), network.getLeaders(2));
+		Set<String> leaders = network.getLeaders(2);
+		network.addNode("f");
+		assertSame(leaders, network.getLeaders(2));
+		network.addNode("a");
+		assertEquals("a", network.getHeadNode());
+		assertEquals(new TreeSet<>(Arrays.asList("a", "c")), network.getLeaders(2));
+		network.removeNode("c");
+		assertEquals(new TreeSet<>(Arrays.asList("a", "d")), network.getLeaders(2));
+		assertEquals(new TreeSet<>(Arrays.asList("a", "d", "e")), network.getLeaders(3));
+		network.removeAllNodes(Arrays.asList("a", "d", "e", "f"));
+		assertNull(network.getHeadNode());
+		assertTrue(network.getLeaders(3).isEmpty());
+	}
+
+	public void testAssignedLeadersOverrideLowest()
+	{
+		Network<String> network = new Network<>();
+		network.addAllNodes(Arrays.asList("a", "b", "c", "d"));
+		int[] changes = {0};
+		network.addChangeSubscriber(() -> changes[0]++);
+		assertTrue(network.assignLeaders(new TreeSet<>(Arrays.asList("c", "d"))));
+		assertFalse(network.assignLeaders(new TreeSet<>(Arrays.asList("c", "d"))));
+		assertEquals(1, changes[0]);
+		assertEquals(new TreeSet<>(Arrays.asList("c", "d")), network.getLeaders(2));
+		assertSame(network.getLeaders(2), network.getLeaders(2));
+		network.removeNode("c");
+		assertEquals(Collections.singleton("d"), network.getLeaders(2));
+		network.removeNode("d");
+		//Every assigned leader is gone, back to the lowest nodes
+		assertEquals(new TreeSet<>(Arrays.asList("a", "b")), network.getLeaders(2));
+		network.assignLeaders(Collections.singleton("b"));
+		network.setLeaderSelectionPolicy(null);
+		assertNull(network.getAssignedLeaders());
+		assertEquals(new TreeSet<>(Arrays.asList("a", "b")), network.getLeaders(2));
+	}
+
+	public void testSnapshotsAreImmutable()
+	{
+		Network<String> network = new Network<>();
+		network.addAllNodes(Arrays.asList("a", "b"));
+		NetworkSnapshot<String> before = network.getSnapshot();
+		network.addNode("c");
+		network.removeNode("a");
+		assertEquals(new TreeSet<>(Arrays.asList("a", "b")), before.getNodes());
+		assertEquals("a", before.getHeadNode());
+		assertEquals("b", network.getHeadNode());
+		assertEquals(before.getVersion() + 2, network.getSnapshot().getVersion());
+		try
+		{
+			network.getNodes().add("d");
+			fail();
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+	}
+
+	public void testNoOpWriteKeepsSnapshot()
+	{
+		Network<String> network = new Network<>();
+		network.addNode("a", 3);
+		NetworkSnapshot<String> before = network.getSnapshot();
+		assertTrue(network.addAllMembers(Collections.singletonMap("a", 2L)).isEmpty());
+		assertFalse(network.removeNode("b"));
+		assertSame(before, network.getSnapshot());
+	}
+}
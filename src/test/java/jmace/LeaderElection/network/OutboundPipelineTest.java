@@ -0,0 +1,161 @@
+package jmace.LeaderElection.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import jmace.LeaderElection.messages.codec.BatchFrame;
+import jmace.LeaderElection.task.TaskScheduler;
+import junit.framework.TestCase;
+
+public class OutboundPipelineTest extends TestCase
+{
+	private TaskScheduler scheduler;
+	private List<String> sent;
+	private OutboundPipeline pipeline;
+
+	@Override
+	protected void setUp()
+	{
+		scheduler = new TaskScheduler(1, false);
+		sent = new ArrayList<>();
+		pipeline = new OutboundPipeline(this::record, 60000, 4, scheduler);
+	}
+
+	@Override
+	protected void tearDown()
+	{
+		scheduler.shutdown();
+	}
+
+	private synchronized void record(String routingKey, List<BatchFrame.Entry> entries)
+	{
+		StringBuilder batch = new StringBuilder(routingKey).append(':');
+		for (BatchFrame.Entry entry : entries)
+		{
+			batch.append(entry.getChannel()).append('/').append(new String(entry.getMessage())).append(' ');
+		}
+		sent.add(batch.toString().trim());
+	}
+
+	public void testBatchesPerRoutingKeyInOrder() throws IOException
+	{
+		pipeline.enqueue("head", "g1", null, "a".getBytes(), false);
+		pipeline.enqueue("all", "g1", null, "b".getBytes(), false);
+		pipeline.enqueue("head", "g2", null, "c".getBytes(), false);
+		assertTrue(sent.isEmpty());
+		pipeline.flush();
+		assertEquals(2, sent.size());
+		assertEquals("head:g1/a g2/c", sent.get(0));
+		assertEquals("all:g1/b", sent.get(1));
+		assertEquals(3, pipeline.getSentMessages());
+		assertEquals(2, pipeline.getSentBatches());
+	}
+
+	public void testCoalescesSameKeyAndChannel() throws IOException
+	{
+		pipeline.enqueue("head", "g1", "STILL_ALIVE", "old".getBytes(), false);
+		pipeline.enqueue("head", "g2", "STILL_ALIVE", "other".getBytes(), false);
+		pipeline.enqueue("head", "g1", "STILL_ALIVE", "new".getBytes(), false);
+		pipeline.flush();
+		assertEquals("head:g2/other g1/new", sent.get(0));
+		assertEquals(1, pipeline.getCoalescedMessages());
+	}
+
+	public void testCoalescedMessageKeepsItsOrder() throws IOException
+	{
+		pipeline.enqueue("head", "g1", "HEARTBEAT", "old".getBytes(), false);
+		pipeline.enqueue("head", "g1", null, "sync".getBytes(), false);
+		pipeline.enqueue("head", "g1", "HEARTBEAT", "new".getBytes(), false);
+		pipeline.flush();
+		//The newer heartbeat is not sent ahead of what was queued after the one it replaced
+		assertEquals("head:g1/sync g1/new", sent.get(0));
+		assertEquals(2, pipeline.getSentMessages());
+	}
+
+	public void testUrgentFlushesEverythingBeforeIt() throws IOException
+	{
+		pipeline.enqueue("head", "g1", null, "a".getBytes(), false);
+		pipeline.enqueue("all", "g1", null, "remove".getBytes(), true);
+		assertEquals(2, sent.size());
+		assertEquals("head:g1/a", sent.get(0));
+		assertEquals("all:g1/remove", sent.get(1));
+		assertEquals(0, pipeline.getQueueDepth());
+	}
+
+	public void testFullQueueFlushesOnCaller() throws IOException
+	{
+		for (int i = 0; i < 4; i++)
+		{
+			pipeline.enqueue("node" + i, null, null, "x".getBytes(), false);
+		}
+		assertEquals(4, sent.size());
+		assertEquals(1, pipeline.getBackPressureFlushes());
+		assertEquals(4, pipeline.getMaxQueueDepth());
+	}
+
+	public void testWindowFlushes() throws Exception
+	{
+		pipeline = new OutboundPipeline(this::record, 20, 100, scheduler);
+		pipeline.enqueue("head", null, null, "a".getBytes(), false);
+		long deadline = System.currentTimeMillis() + 2000;
+		while (pipeline.getSentMessages() == 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(5);
+		}
+		assertEquals(1, sent.size());
+	}
+
+	public void testSlowSendDoesNotBlockQueueing() throws Exception
+	{
+		CountDownLatch sending = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		pipeline = new OutboundPipeline((routingKey, entries) -> {
+			if (sending.getCount() > 0)
+			{
+				sending.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+			record(routingKey, entries);
+		}, 20, 100, scheduler);
+		pipeline.enqueue("head", null, null, "a".getBytes(), false);
+		assertTrue(sending.await(2, TimeUnit.SECONDS));
+		//The window's send is stuck on the timer thread; queueing and flushing behind it return straight away
+		pipeline.enqueue("head", null, null, "b".getBytes(), false);
+		pipeline.enqueue("all", null, null, "remove".getBytes(), true);
+		assertEquals(0, pipeline.getQueueDepth());
+		assertTrue(sent.isEmpty());
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 2000;
+		while (pipeline.getSentMessages() < 3 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(5);
+		}
+		assertEquals(3, sent.size());
+		assertEquals("head:/a", sent.get(0));
+		assertEquals("head:/b", sent.get(1));
+		assertEquals("all:/remove", sent.get(2));
+	}
+
+	public void testBatchFrameRoundTrip() throws IOException
+	{
+		List<BatchFrame.Entry> entries = new ArrayList<>();
+		entries.add(new BatchFrame.Entry("g1", new byte[] {1, 2}));
+		entries.add(new BatchFrame.Entry(null, new byte[0]));
+		byte[] body = BatchFrame.encode(entries);
+		assertTrue(BatchFrame.isBatch(body));
+		List<BatchFrame.Entry> decoded = BatchFrame.decode(body);
+		assertEquals(2, decoded.size());
+		assertEquals("g1", decoded.get(0).getChannel());
+		assertEquals(2, decoded.get(0).getMessage().length);
+		assertEquals("", decoded.get(1).getChannel());
+	}
+}
@@ -0,0 +1,81 @@
+package jmace.LeaderElection.network;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+public class QuorumTrackerTest extends TestCase
+{
+	private static final long MS = 1000000L;
+	private static final List<String> MEMBERS = Arrays.asList("a", "b", "c", "d", "e");
+
+	private AtomicLong now;
+	private QuorumTracker<String> tracker;
+
+	@Override
+	protected void setUp()
+	{
+		now = new AtomicLong(1000 * MS);
+		tracker = new QuorumTracker<>(100, now::get);
+	}
+
+	public void testMajority()
+	{
+		assertEquals(1, QuorumTracker.majority(1));
+		assertEquals(2, QuorumTracker.majority(2));
+		assertEquals(2, QuorumTracker.majority(3));
+		assertEquals(3, QuorumTracker.majority(5));
+	}
+
+	public void testQuorumIsTheMajorityThMostRecentContact()
+	{
+		assertEquals(NetworkManager.NO_CONTACT, tracker.getQuorumNanos(MEMBERS, "a"));
+		tracker.contact("b");
+		now.addAndGet(50 * MS);
+		tracker.contact("c");
+		now.addAndGet(10 * MS);
+		//a is now, c was 10ms ago, b 60ms ago
+		assertEquals(now.get() - 60 * MS, tracker.getQuorumNanos(MEMBERS, "a"));
+		assertTrue(tracker.isFresh(tracker.getQuorumNanos(MEMBERS, "a")));
+		now.addAndGet(50 * MS);
+		assertFalse(tracker.isFresh(tracker.getQuorumNanos(MEMBERS, "a")));
+	}
+
+	public void testSingleNodeAlwaysHasQuorum()
+	{
+		assertTrue(tracker.isFresh(tracker.getQuorumNanos(Collections.singleton("a"), "a")));
+	}
+
+	public void testRemovalNeedsAMajority()
+	{
+		tracker.propose(Collections.singleton("e"), "a", 5);
+		tracker.confirm("e", "b");
+		assertTrue(tracker.takeConfirmed().isEmpty());
+		tracker.confirm("e", "b");
+		assertTrue(tracker.takeConfirmed().isEmpty());
+		tracker.confirm("e", "c");
+		assertEquals(Collections.singleton("e"), tracker.takeConfirmed());
+		assertTrue(tracker.takeConfirmed().isEmpty());
+	}
+
+	public void testStaleProposalsStartOver()
+	{
+		tracker.propose(Collections.singleton("e"), "a", 5);
+		tracker.confirm("e", "b");
+		now.addAndGet(200 * MS);
+		tracker.propose(Collections.singleton("e"), "a", 5);
+		tracker.confirm("e", "c");
+		assertTrue(tracker.takeConfirmed().isEmpty());
+	}
+
+	public void testQuiet()
+	{
+		assertTrue(tracker.isQuiet("b"));
+		tracker.contact("b");
+		assertFalse(tracker.isQuiet("b"));
+		now.addAndGet(100 * MS);
+		assertTrue(tracker.isQuiet("b"));
+	}
+}
@@ -0,0 +1,125 @@
+package jmace.LeaderElection.network;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.LongStringHelper;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.RequestType;
+import jmace.LeaderElection.messages.codec.BatchFrame;
+import jmace.LeaderElection.messages.codec.MessageCodec;
+import junit.framework.TestCase;
+
+/**
+ * Checks that deliveries on a shared connection reach the right group, without a broker
+ */
+public class RabbitMQGroupConnectionTest extends TestCase
+{
+	private static final long TIMEOUT_MS = 5000;
+
+	private RabbitMQGroupConnection<String> connection;
+	private MessageCodec<String> codec;
+	private RecordingGroup first;
+	private RecordingGroup second;
+
+	@Override
+	protected void setUp()
+	{
+		connection = new RabbitMQGroupConnection<>("self", "localhost", "exchange");
+		codec = connection.getCodec();
+		first = new RecordingGroup(connection, "first");
+		second = new RecordingGroup(connection, "second");
+		connection.route(first);
+		connection.route(second);
+	}
+
+	public void testRoutesByGroupHeader() throws Exception
+	{
+		connection.handleDelivery(properties("first"), encode("a"));
+		connection.handleDelivery(properties("second"), encode("b"));
+		connection.handleDelivery(properties("first"), encode("c"));
+		assertTrue(awaitReceived(first, 2));
+		assertTrue(awaitReceived(second, 1));
+		assertEquals(Arrays.asList("a", "c"), first.senders());
+		assertEquals(Arrays.asList("b"), second.senders());
+	}
+
+	public void testUnpacksBatchIntoEachGroup() throws Exception
+	{
+		byte[] batch = BatchFrame.encode(Arrays.asList(
+				new BatchFrame.Entry("second", encode("a")),
+				new BatchFrame.Entry("first", encode("b")),
+				new BatchFrame.Entry("second", encode("c"))));
+		connection.handleDelivery(new AMQP.BasicProperties(), batch);
+		assertTrue(awaitReceived(first, 1));
+		assertTrue(awaitReceived(second, 2));
+		assertEquals(Arrays.asList("b"), first.senders());
+		assertEquals(Arrays.asList("a", "c"), second.senders());
+	}
+
+	public void testIgnoresUnknownGroup() throws Exception
+	{
+		connection.handleDelivery(properties("unknown"), encode("a"));
+		connection.handleDelivery(new AMQP.BasicProperties(), encode("b"));
+		connection.handleDelivery(properties("first"), encode("c"));
+		assertTrue(awaitReceived(first, 1));
+		//Queued after the ignored messages, so they would have arrived by now
+		assertEquals(Arrays.asList("c"), first.senders());
+		assertTrue(second.received.isEmpty());
+	}
+
+	private byte[] encode(String sender)
+	{
+		return codec.encode(new Request<>(sender, RequestType.HEARTBEAT, Collections.singletonMap(sender, 0L)));
+	}
+
+	private static AMQP.BasicProperties properties(String group)
+	{
+		//The broker hands header strings back as long strings
+		return new AMQP.BasicProperties.Builder()
+				.headers(Collections.<String, Object>singletonMap(RabbitMQGroupConnection.GROUP_HEADER, LongStringHelper.asLongString(group)))
+				.build();
+	}
+
+	private static boolean awaitReceived(RecordingGroup group, int count) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (group.received.size() < count)
+		{
+			if (System.currentTimeMillis() > deadline)
+			{
+				return false;
+			}
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	private static final class RecordingGroup extends RabbitMQGroupNetworkManager<String>
+	{
+		private final List<Request<String>> received = new CopyOnWriteArrayList<>();
+
+		private RecordingGroup(RabbitMQGroupConnection<String> connection, String groupId)
+		{
+			super(connection, groupId, 1);
+		}
+
+		@Override
+		protected void handleMessage(Request<String> request)
+		{
+			received.add(request);
+		}
+
+		private List<String> senders()
+		{
+			String[] senders = new String[received.size()];
+			for (int i = 0; i < senders.length; i++)
+			{
+				senders[i] = received.get(i).getRequestingID();
+			}
+			return Arrays.asList(senders);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package jmace.LeaderElection.network;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import jmace.LeaderElection.task.EventLoop;
+import junit.framework.TestCase;
+
+public class RabbitMQPublisherTest extends TestCase
+{
+	private List<FakeChannel> channels;
+	private Connection connection;
+
+	@Override
+	protected void setUp()
+	{
+		channels = new ArrayList<>();
+		connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+			if (method.getName().equals("createChannel"))
+			{
+				FakeChannel channel = new FakeChannel();
+				channels.add(channel);
+				return channel.proxy;
+			}
+			return null;
+		});
+	}
+
+	public void testBoundsUnconfirmedMessages() throws IOException
+	{
+		RabbitMQPublisher publisher = new RabbitMQPublisher(connection, "exchange", 1, 2, 10);
+		publisher.publish("all", null, new byte[1]);
+		publisher.publish("all", null, new byte[1]);
+		assertEquals(2, publisher.getInFlight());
+		try
+		{
+			publisher.publish("all", null, new byte[1]);
+			fail();
+		}
+		catch (IOException e)
+		{
+		}
+		channels.get(0).confirm.handleAck(2, true);
+		assertEquals(0, publisher.getInFlight());
+		publisher.publish("all", null, new byte[1]);
+		assertEquals(1, publisher.getInFlight());
+		assertEquals(3, channels.get(0).published);
+	}
+
+	public void testNacksAreCounted() throws IOException
+	{
+		RabbitMQPublisher publisher = new RabbitMQPublisher(connection, "exchange", 1, 4, 10);
+		publisher.publish("all", null, new byte[1]);
+		publisher.publish("all", null, new byte[1]);
+		channels.get(0).confirm.handleNack(1, false);
+		assertEquals(1, publisher.getNacked());
+		assertEquals(1, publisher.getInFlight());
+	}
+
+	public void testDroppedChannelReleasesItsConfirms() throws IOException
+	{
+		RabbitMQPublisher publisher = new RabbitMQPublisher(connection, "exchange", 2, 4, 10);
+		publisher.publish("all", null, new byte[1]);
+		publisher.publish("all", null, new byte[1]);
+		for (FakeChannel channel : channels)
+		{
+			channel.shutdown.shutdownCompleted(new ShutdownSignalException(false, false, null, null));
+		}
+		assertEquals(0, publisher.getInFlight());
+	}
+
+	public void testClosedChannelFailsWithoutLeakingPermits() throws IOException
+	{
+		RabbitMQPublisher publisher = new RabbitMQPublisher(connection, "exchange", 1, 1, 10);
+		channels.get(0).closed = true;
+		try
+		{
+			publisher.publish("all", null, new byte[1]);
+			fail();
+		}
+		catch (IOException e)
+		{
+		}
+		assertEquals(0, publisher.getInFlight());
+	}
+
+	public void testChannelClosingDuringPublishReleasesOnce() throws IOException
+	{
+		RabbitMQPublisher publisher = new RabbitMQPublisher(connection, "exchange", 1, 2, 10);
+		channels.get(0).closeOnPublish = true;
+		try
+		{
+			publisher.publish("all", null, new byte[1]);
+			fail();
+		}
+		catch (IOException e)
+		{
+		}
+		assertEquals(0, publisher.getInFlight());
+	}
+
+	public void testDoesNotWaitOnAnEventLoop() throws Exception
+	{
+		RabbitMQPublisher publisher = new RabbitMQPublisher(connection, "exchange", 1, 1, 5000);
+		publisher.publish("all", null, new byte[1]);
+		FutureTask<Long> publish = new FutureTask<>(() -> {
+			long start = System.nanoTime();
+			try
+			{
+				publisher.publish("all", null, new byte[1]);
+				fail();
+			}
+			catch (IOException e)
+			{
+			}
+			return System.nanoTime() - start;
+		});
+		new EventLoop(Runnable::run).execute(publish);
+		assertTrue(publish.get() < TimeUnit.MILLISECONDS.toNanos(1000));
+		assertEquals(1, publisher.getInFlight());
+	}
+
+	/**
+	 * Just enough of a channel in confirm mode to drive the publisher
+	 */
+	private static final class FakeChannel
+	{
+		private final Channel proxy;
+		private ConfirmListener confirm;
+		private ShutdownListener shutdown;
+		private long nextSequence = 1;
+		private int published;
+		private boolean closed;
+		private boolean closeOnPublish;
+
+		private FakeChannel()
+		{
+			proxy = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Channel.class}, (p, method, args) -> {
+				switch (method.getName())
+				{
+					case "addConfirmListener":
+						confirm = (ConfirmListener) args[0];
+						return null;
+					case "addShutdownListener":
+						shutdown = (ShutdownListener) args[0];
+						return null;
+					case "getNextPublishSeqNo":
+						return nextSequence;
+					case "basicPublish":
+						if (closeOnPublish)
+						{
+							//The shutdown listener runs before the publish sees the channel is gone
+							closed = true;
+							shutdown.shutdownCompleted(new ShutdownSignalException(false, false, null, null));
+						}
+						if (closed) throw new AlreadyClosedException(new ShutdownSignalException(false, false, null, null));
+						nextSequence++;
+						published++;
+						return null;
+					case "isOpen":
+						return !closed;
+					default:
+						return null;
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package jmace.LeaderElection.network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import jmace.LeaderElection.LeaderElection;
+import jmace.LeaderElection.messages.Request;
+import jmace.LeaderElection.messages.RequestType;
+import jmace.LeaderElection.task.TaskScheduler;
+import junit.framework.TestCase;
+
+/**
+ * Runs a small cluster over TCP on the loopback interface
+ */
+public class TcpMeshNetworkManagerTest extends TestCase
+{
+	private static final int NUM_NODES = 5;
+	private static final int NUM_LEADERS = 2;
+	private static final long HEAD_POLL_DELAY_MS = 100;
+	private static final long NODE_POLL_DELAY_MS = 300;
+
+	private List<LeaderElection<String>> nodes;
+	private List<TcpMeshNetworkManager<String>> managers;
+
+	@Override
+	protected void setUp()
+	{
+		nodes = new ArrayList<>();
+		managers = new ArrayList<>();
+	}
+
+	@Override
+	protected void tearDown()
+	{
+		for (LeaderElection<String> node : nodes)
+		{
+			node.interrupt();
+		}
+		for (TcpMeshNetworkManager<String> manager : managers)
+		{
+			manager.stop();
+		}
+	}
+
+	public void testMeshFormsFromOneSeedAndFailsOver() throws Exception
+	{
+		InetSocketAddress seed = null;
+		for (int i = 0; i < NUM_NODES; i++)
+		{
+			String id = String.format("node-%03d", i);
+			//Every node only knows the first one, the rest of the mesh is learned
+			TcpMeshNetworkManager<String> manager = new TcpMeshNetworkManager<>(id, NUM_LEADERS, loopback(),
+					seed == null ? Collections.emptyMap() : Collections.singletonMap("node-000", seed));
+			manager.connect();
+			if (seed == null) seed = manager.getListenAddress();
+			managers.add(manager);
+			nodes.add(new LeaderElection<>(manager, HEAD_POLL_DELAY_MS, NODE_POLL_DELAY_MS, TaskScheduler.shared()));
+		}
+		for (LeaderElection<String> node : nodes)
+		{
+			node.start();
+		}
+		assertTrue(Clusters.await(() -> Clusters.agreeOn(nodes, managers, NUM_NODES, "node-000")));
+		assertTrue(Clusters.await(() -> {
+			for (TcpMeshNetworkManager<String> manager : managers)
+			{
+				for (TcpMeshNetworkManager<String> other : managers)
+				{
+					if (manager != other && !manager.isConnectedTo(other.getSelf())) return false;
+				}
+			}
+			return true;
+		}));
+		nodes.get(0).pause();
+		assertTrue(Clusters.await(() -> Clusters.agreeOn(nodes, managers, NUM_NODES - 1, "node-001")));
+		nodes.get(0).unpause();
+		assertEquals(seed, managers.get(0).getListenAddress());
+		assertTrue(Clusters.await(() -> Clusters.agreeOn(nodes, managers, NUM_NODES, "node-000")));
+	}
+
+	public void testCoalescedAndLargeFramesArriveInOrder() throws Exception
+	{
+		List<Request<String>> received = Collections.synchronizedList(new ArrayList<>());
+		TcpMeshNetworkManager<String> receiver = new TcpMeshNetworkManager<String>("b", 1, loopback(), Collections.emptyMap())
+		{
+			@Override
+			protected void handleMessage(Request<String> request)
+			{
+				received.add(request);
+			}
+		};
+		managers.add(receiver);
+		receiver.connect();
+		TcpMeshNetworkManager<String> sender = new TcpMeshNetworkManager<>("a", 1, loopback(), Collections.singletonMap("b", receiver.getListenAddress()));
+		managers.add(sender);
+		sender.connect();
+		int count = 500;
+		SortedMap<String, Long> members = new TreeMap<>();
+		for (int i = 0; i < 20000; i++)
+		{
+			members.put("member-" + i, (long) i);
+		}
+		for (int i = 0; i < count; i++)
+		{
+			Request<String> request = new Request<>("a", RequestType.HEARTBEAT, Collections.singletonMap("a", (long) i));
+			sender.publish("b", request);
+			if (i == count / 2)
+			{
+				//Far bigger than a pooled buffer
+				sender.publish("b", new Request<>("a", RequestType.SYNC_NETWORK, members));
+			}
+		}
+		assertTrue(Clusters.await(() -> received.size() == count + 1));
+		long expected = 0;
+		for (Request<String> request : received)
+		{
+			if (request.getType() == RequestType.SYNC_NETWORK)
+			{
+				assertEquals(members, request.getMembers());
+				assertEquals(count / 2 + 1, expected);
+			}
+			else
+			{
+				assertEquals(Long.valueOf(expected++), request.getMembers().get("a"));
+			}
+		}
+		assertEquals(0, sender.getDroppedFrames());
+	}
+
+	public void testPeerResettingKeepsTheOthersRunning() throws Exception
+	{
+		//Accepts every connection and resets it straight away
+		ServerSocket resetting = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread resetter = new Thread(() -> {
+			try
+			{
+				while (true)
+				{
+					Socket socket = resetting.accept();
+					socket.setSoLinger(true, 0);
+					socket.close();
+				}
+			}
+			catch (Exception e)
+			{
+				//Closed by the test
+			}
+		});
+		resetter.setDaemon(true);
+		resetter.start();
+		try
+		{
+			InetSocketAddress seed = null;
+			for (int i = 0; i < 3; i++)
+			{
+				String id = String.format("node-%03d", i);
+				TcpMeshNetworkManager<String> manager = new TcpMeshNetworkManager<>(id, 1, loopback(),
+						seed == null ? Collections.emptyMap() : Collections.singletonMap("node-000", seed));
+				manager.addPeer("reset", new InetSocketAddress(InetAddress.getLoopbackAddress(), resetting.getLocalPort()));
+				manager.connect();
+				if (seed == null) seed = manager.getListenAddress();
+				managers.add(manager);
+				nodes.add(new LeaderElection<>(manager, HEAD_POLL_DELAY_MS, NODE_POLL_DELAY_MS, TaskScheduler.shared()));
+			}
+			for (LeaderElection<String> node : nodes)
+			{
+				node.start();
+			}
+			assertTrue(Clusters.await(() -> Clusters.agreeOn(nodes, managers, 3, "node-000")));
+			long deadline = System.currentTimeMillis() + 2000;
+			while (System.currentTimeMillis() < deadline)
+			{
+				for (TcpMeshNetworkManager<String> manager : managers)
+				{
+					manager.publish("reset", new Request<>(manager.getSelf(), RequestType.HEARTBEAT, Collections.singletonMap(manager.getSelf(), 0L)));
+				}
+				Thread.sleep(5);
+			}
+			for (TcpMeshNetworkManager<String> manager : managers)
+			{
+				assertTrue(manager.isConnected());
+			}
+			//Heartbeats still flow, so nobody is suspected and removed
+			assertTrue(Clusters.agreeOn(nodes, managers, 3, "node-000"));
+			nodes.get(2).pause();
+			assertTrue(Clusters.await(() -> Clusters.agreeOn(nodes, managers, 2, "node-000")));
+		}
+		finally
+		{
+			resetting.close();
+		}
+	}
+
+	private static InetSocketAddress loopback()
+	{
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+	}
+}
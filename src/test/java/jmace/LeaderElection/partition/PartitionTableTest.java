@@ -0,0 +1,121 @@
+package jmace.LeaderElection.partition;
+
+import java.util.Random;
+
+import jmace.LeaderElection.network.Network;
+import junit.framework.TestCase;
+
+public class PartitionTableTest extends TestCase
+{
+	private static final int PARTITIONS = 1024;
+
+	private Network<String> network;
+	private PartitionTable<String> table;
+
+	@Override
+	protected void setUp()
+	{
+		network = new Network<>();
+		table = new PartitionTable<>(network, PARTITIONS);
+	}
+
+	public void testEmptyNetworkHasNoOwners()
+	{
+		assertNull(table.getOwner(0));
+		assertNull(table.getOwnerOf("key"));
+	}
+
+	public void testSpreadsOverEveryNode()
+	{
+		addNodes(0, 10);
+		for (int i = 0; i < 10; i++)
+		{
+			int owned = table.getAssignment().getPartitions(node(i)).length;
+			assertTrue(node(i) + " owns " + owned, owned > PARTITIONS / 10 / 2 && owned < PARTITIONS / 10 * 2);
+		}
+	}
+
+	public void testJoinOnlyMovesPartitionsToTheNewNode()
+	{
+		addNodes(0, 10);
+		PartitionAssignment<String> before = table.getAssignment();
+		network.addNode(node(10));
+		PartitionAssignment<String> after = table.getAssignment();
+		int moved = 0;
+		for (int partition = 0; partition < PARTITIONS; partition++)
+		{
+			if (!before.getOwner(partition).equals(after.getOwner(partition)))
+			{
+				assertEquals(node(10), after.getOwner(partition));
+				moved++;
+			}
+		}
+		assertTrue(moved > 0 && moved < PARTITIONS / 11 * 2);
+	}
+
+	public void testLeaveOnlyMovesTheLeftNodesPartitions()
+	{
+		addNodes(0, 10);
+		PartitionAssignment<String> before = table.getAssignment();
+		network.removeNode(node(3));
+		PartitionAssignment<String> after = table.getAssignment();
+		for (int partition = 0; partition < PARTITIONS; partition++)
+		{
+			if (!before.getOwner(partition).equals(node(3)))
+			{
+				assertEquals(before.getOwner(partition), after.getOwner(partition));
+			}
+			assertFalse(node(3).equals(after.getOwner(partition)));
+		}
+	}
+
+	public void testUpdatesMatchFullComputation()
+	{
+		Random random = new Random(7);
+		for (int i = 0; i < 200; i++)
+		{
+			String node = node(random.nextInt(40));
+			if (random.nextBoolean()) network.addNode(node);
+			else network.removeNode(node);
+			if (i % 10 == 0) table.getAssignment();
+		}
+		PartitionAssignment<String> incremental = table.getAssignment();
+		PartitionAssignment<String> full = PartitionAssignment.compute(network.getSnapshot(), PARTITIONS);
+		for (int partition = 0; partition < PARTITIONS; partition++)
+		{
+			assertEquals(full.getOwner(partition), incremental.getOwner(partition));
+		}
+	}
+
+	public void testAssignmentCachedPerSnapshot()
+	{
+		addNodes(0, 5);
+		PartitionAssignment<String> assignment = table.getAssignment();
+		assertSame(assignment, table.getAssignment());
+		network.addNode(node(0), 10);
+		assertNotSame(assignment, table.getAssignment());
+		assertEquals(assignment.getOwner(7), table.getOwner(7));
+	}
+
+	public void testKeysMapToOwners()
+	{
+		addNodes(0, 5);
+		int partition = table.partitionOf("order-42");
+		assertEquals(partition, table.partitionOf("order-42"));
+		assertEquals(table.getOwner(partition), table.getOwnerOf("order-42"));
+		assertTrue(table.isOwner(table.getOwner(partition), partition));
+	}
+
+	private void addNodes(int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			network.addNode(node(i));
+		}
+	}
+
+	private static String node(int i)
+	{
+		return String.format("node-%03d", i);
+	}
+}
@@ -0,0 +1,144 @@
+package jmace.LeaderElection.store;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import jmace.LeaderElection.LeaderElection;
+import jmace.LeaderElection.network.LocalMessageBus;
+import jmace.LeaderElection.network.LocalNetworkManager;
+import junit.framework.TestCase;
+
+public class MembershipStoreTest extends TestCase
+{
+	private Path path;
+
+	@Override
+	protected void setUp() throws IOException
+	{
+		path = Files.createTempFile("membership", ".bin");
+	}
+
+	@Override
+	protected void tearDown() throws IOException
+	{
+		Files.deleteIfExists(path);
+	}
+
+	public void testEmptyStoreLoadsNothing() throws IOException
+	{
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			assertNull(store.load());
+		}
+	}
+
+	public void testSurvivesReopening() throws IOException
+	{
+		SortedMap<String, Long> members = members(3);
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			store.save(members(10), 1, 1);
+			store.save(members, 42, 7);
+		}
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			StoredMembership<String> stored = store.load();
+			assertEquals(members, stored.getMembers());
+			assertEquals(42, stored.getEpoch());
+			assertEquals(7, stored.getFencingToken());
+		}
+	}
+
+	public void testForcesOnlyWhenEpochOrTokenRises() throws IOException
+	{
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			store.save(members(3), 1, 1);
+			assertEquals(1, store.getForces());
+			store.save(members(4), 1, 1);
+			assertEquals(1, store.getForces());
+			store.save(members(4), 1, 2);
+			store.save(members(4), 2, 2);
+			assertEquals(3, store.getForces());
+		}
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			//Already on disk from before the restart
+			store.save(members(5), 2, 2);
+			assertEquals(0, store.getForces());
+		}
+	}
+
+	public void testGrowsForLargeNetworks() throws IOException
+	{
+		SortedMap<String, Long> members = members(5000);
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			store.save(members, 1, 0);
+			assertEquals(members, store.load().getMembers());
+		}
+	}
+
+	public void testCorruptSnapshotIsIgnored() throws IOException
+	{
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			store.save(members(3), 1, 0);
+		}
+		try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw"))
+		{
+			file.seek(14);
+			file.write(0xFF);
+		}
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			assertNull(store.load());
+		}
+	}
+
+	public void testElectionRestartsWarm() throws Exception
+	{
+		SortedMap<String, Long> members = members(3);
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			store.save(members, 40, 7);
+		}
+		LocalMessageBus<String> bus = new LocalMessageBus<>();
+		LocalNetworkManager<String> manager = new LocalNetworkManager<>("node-001", 3, bus);
+		LeaderElection<String> election = new LeaderElection<>(manager, 50, 150);
+		try (MembershipStore<String> store = MembershipStore.open(path, "a"))
+		{
+			election.setMembershipStore(store);
+			election.start();
+			election.join();
+			assertTrue(manager.getNetwork().getNodes().containsAll(members.keySet()));
+			assertTrue(manager.getNetwork().getEpoch() > 40);
+			//The nodes that didn't come back are removed, and that is saved too
+			long deadline = System.currentTimeMillis() + 10000;
+			while (store.load().getMembers().size() > 1 && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(20);
+			}
+			assertEquals(1, store.load().getMembers().size());
+			assertTrue(election.getLease().getFencingToken() > 40);
+		}
+		finally
+		{
+			election.interrupt();
+			bus.shutdown();
+		}
+	}
+
+	private static SortedMap<String, Long> members(int count)
+	{
+		SortedMap<String, Long> members = new TreeMap<>();
+		for (int i = 0; i < count; i++)
+		{
+			members.put(String.format("node-%03d", i), (long) i);
+		}
+		return members;
+	}
+}
@@ -0,0 +1,99 @@
+package jmace.LeaderElection.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class EventLoopTest extends TestCase
+{
+	private ExecutorService executor;
+
+	@Override
+	protected void setUp()
+	{
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@Override
+	protected void tearDown()
+	{
+		executor.shutdownNow();
+	}
+
+	public void testEventsNeverOverlapAndKeepEachProducersOrder() throws InterruptedException
+	{
+		EventLoop loop = new EventLoop(executor, 8);
+		AtomicBoolean running = new AtomicBoolean();
+		AtomicBoolean overlapped = new AtomicBoolean();
+		int producers = 4;
+		int events = 2000;
+		int[] last = new int[producers];
+		List<Integer> outOfOrder = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(producers * events);
+		for (int p = 0; p < producers; p++)
+		{
+			int producer = p;
+			new Thread(() -> {
+				for (int i = 1; i <= events; i++)
+				{
+					int sequence = i;
+					loop.execute(() -> {
+						overlapped.compareAndSet(false, !running.compareAndSet(false, true));
+						//Plain fields, only safe because the loop runs one event at a time
+						if (last[producer] != sequence - 1) outOfOrder.add(sequence);
+						last[producer] = sequence;
+						running.set(false);
+						done.countDown();
+					});
+				}
+			}).start();
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertFalse(overlapped.get());
+		assertTrue(outOfOrder.isEmpty());
+	}
+
+	public void testRunAndWait()
+	{
+		EventLoop loop = new EventLoop(executor);
+		AtomicInteger ran = new AtomicInteger();
+		loop.runAndWait(() -> {
+			assertTrue(loop.isInLoop());
+			assertTrue(EventLoop.isLoopThread());
+			//Nested calls run in place instead of waiting on themselves
+			loop.runAndWait(ran::incrementAndGet);
+			loop.runInLoop(ran::incrementAndGet);
+			assertEquals(2, ran.get());
+		});
+		assertFalse(loop.isInLoop());
+		assertFalse(EventLoop.isLoopThread());
+		try
+		{
+			loop.runAndWait(() -> {
+				throw new IllegalStateException("failed");
+			});
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			assertEquals("failed", e.getMessage());
+		}
+	}
+
+	public void testFinishesOnCallerOnceExecutorShutsDown()
+	{
+		EventLoop loop = new EventLoop(executor);
+		executor.shutdown();
+		AtomicInteger ran = new AtomicInteger();
+		loop.runAndWait(ran::incrementAndGet);
+		loop.execute(ran::incrementAndGet);
+		assertEquals(2, ran.get());
+		assertEquals(0, loop.getBacklog());
+	}
+}
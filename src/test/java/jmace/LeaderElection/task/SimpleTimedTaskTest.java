@@ -0,0 +1,94 @@
+package jmace.LeaderElection.task;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class SimpleTimedTaskTest extends TestCase
+{
+	private TaskScheduler scheduler;
+
+	@Override
+	protected void setUp()
+	{
+		scheduler = new TaskScheduler(1, false);
+	}
+
+	@Override
+	protected void tearDown()
+	{
+		scheduler.shutdown();
+	}
+
+	public void testRunsRepeatedly() throws InterruptedException
+	{
+		AtomicInteger runs = new AtomicInteger();
+		SimpleTimedTask task = new SimpleTimedTask(scheduler, 10, runs::incrementAndGet);
+		task.start();
+		Thread.sleep(200);
+		task.interrupt();
+		assertTrue(runs.get() >= 3);
+	}
+
+	public void testKeepsRunningAfterAFailure() throws InterruptedException
+	{
+		AtomicInteger runs = new AtomicInteger();
+		SimpleTimedTask task = new SimpleTimedTask(scheduler, 10, () -> {
+			if (runs.incrementAndGet() == 1)
+			{
+				throw new IllegalStateException("First run fails");
+			}
+		});
+		task.start();
+		Thread.sleep(200);
+		task.interrupt();
+		assertTrue(runs.get() >= 3);
+	}
+
+	public void testPauseAndInterrupt() throws InterruptedException
+	{
+		AtomicInteger runs = new AtomicInteger();
+		SimpleTimedTask task = new SimpleTimedTask(scheduler, 10, runs::incrementAndGet);
+		task.start();
+		task.pause();
+		Thread.sleep(100);
+		assertEquals(0, runs.get());
+		task.unpause();
+		Thread.sleep(100);
+		task.interrupt();
+		int stopped = runs.get();
+		assertTrue(stopped > 0);
+		Thread.sleep(100);
+		assertEquals(stopped, runs.get());
+	}
+
+	public void testRestartDelaysNextRun() throws InterruptedException
+	{
+		AtomicInteger runs = new AtomicInteger();
+		SimpleTimedTask task = new SimpleTimedTask(scheduler, 150, runs::incrementAndGet);
+		task.start();
+		for (int i = 0; i < 5; i++)
+		{
+			Thread.sleep(50);
+			task.restart();
+		}
+		assertEquals(0, runs.get());
+		task.interrupt();
+	}
+
+	public void testManyTasksShareOneThread() throws InterruptedException
+	{
+		AtomicInteger runs = new AtomicInteger();
+		SimpleTimedTask[] tasks = new SimpleTimedTask[2000];
+		for (int i = 0; i < tasks.length; i++)
+		{
+			tasks[i] = new SimpleTimedTask(scheduler, 20, runs::incrementAndGet);
+			tasks[i].start();
+		}
+		Thread.sleep(300);
+		for (SimpleTimedTask task : tasks)
+		{
+			task.interrupt();
+		}
+		assertTrue(runs.get() >= tasks.length);
+	}
+}